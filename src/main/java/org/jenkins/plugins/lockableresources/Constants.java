@@ -38,8 +38,28 @@ public class Constants {
      */
     public static final String EXACT_LABEL_MARKER = "label:";
 
+	/**
+	 * Prefix for a list of properties the resources must have, e.g. {@code prop:os=linux arch=arm}.
+	 */
+	public static final String PROPERTY_MARKER = "prop:";
+
+	/**
+	 * Prefix for a boolean expression over names and labels, e.g. {@code expr:(linux || mac) && !broken}.
+	 */
+	public static final String LABEL_EXPRESSION_MARKER = "expr:";
+
 	/**
 	 * The default use percent matching setting (in global).
 	 */
 	public static final boolean DEFAULT_USE_PERCENT_MATCHING = false;
+
+	/**
+	 * Environment variable holding the path of the resource manifest of a build.
+	 */
+	public static final String MANIFEST_VARIABLE = "LOCKABLE_RESOURCES_MANIFEST";
+
+	/**
+	 * Name of the resource manifest file, in the temporary directory of the workspace.
+	 */
+	public static final String MANIFEST_FILE = "lockable-resources.json";
 }
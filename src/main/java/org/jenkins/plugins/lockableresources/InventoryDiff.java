@@ -0,0 +1,126 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.*;
+
+/**
+ * The differences between the current resources and an imported list of resources, by name.
+ */
+@ExportedBean(defaultVisibility = 999)
+public class InventoryDiff {
+
+	private final List<LockableResource> added = new ArrayList<>();
+	private final Map<LockableResource, LockableResource> changed = new LinkedHashMap<>();
+	private final List<LockableResource> removed = new ArrayList<>();
+	private final List<LockableResource> kept = new ArrayList<>();
+
+	/**
+	 * @param current       the resources defined now
+	 * @param imported      the resources to define
+	 * @param removeMissing true to remove the current resources missing from the import, else they are left
+	 */
+	public InventoryDiff(Collection<LockableResource> current, Collection<LockableResource> imported,
+	                     boolean removeMissing) {
+		Map<String, LockableResource> byName = new HashMap<>();
+		for (LockableResource r : current) {
+			byName.put(r.getName(), r);
+		}
+		Set<String> importedNames = new HashSet<>();
+		for (LockableResource r : imported) {
+			importedNames.add(r.getName());
+			LockableResource old = byName.get(r.getName());
+			if (old == null) {
+				added.add(r);
+			} else if (!old.hasSameDefinition(r)) {
+				changed.put(old, r);
+			}
+		}
+		if (removeMissing) {
+			for (LockableResource r : current) {
+				if (importedNames.contains(r.getName())) continue;
+				if (r.isLocked() || r.isQueued() || r.isReserved()) {
+					kept.add(r);
+				} else {
+					removed.add(r);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if applying the import changes nothing
+	 */
+	public boolean isEmpty() {
+		return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+	}
+
+	/**
+	 * @return the imported resources which do not exist yet
+	 */
+	public List<LockableResource> getAdded() {
+		return Collections.unmodifiableList(added);
+	}
+
+	/**
+	 * @return the current resources whose definition changes, mapped to their imported definition
+	 */
+	public Map<LockableResource, LockableResource> getChanged() {
+		return Collections.unmodifiableMap(changed);
+	}
+
+	/**
+	 * @return the current resources missing from the import, free to be removed
+	 */
+	public List<LockableResource> getRemoved() {
+		return Collections.unmodifiableList(removed);
+	}
+
+	/**
+	 * @return the current resources missing from the import, kept because they are locked, queued or reserved
+	 */
+	public List<LockableResource> getKept() {
+		return Collections.unmodifiableList(kept);
+	}
+
+	@Exported(name = "added")
+	public List<String> getAddedNames() {
+		return names(added);
+	}
+
+	@Exported(name = "changed")
+	public List<String> getChangedNames() {
+		return names(changed.keySet());
+	}
+
+	@Exported(name = "removed")
+	public List<String> getRemovedNames() {
+		return names(removed);
+	}
+
+	@Exported(name = "kept")
+	public List<String> getKeptNames() {
+		return names(kept);
+	}
+
+	private static List<String> names(Collection<LockableResource> resources) {
+		List<String> names = new ArrayList<>(resources.size());
+		for (LockableResource r : resources) {
+			names.add(r.getName());
+		}
+		return names;
+	}
+
+	@Override
+	public String toString() {
+		return "added " + getAddedNames() + ", changed " + getChangedNames() + ", removed " + getRemovedNames()
+				+ ", kept " + getKeptNames();
+	}
+}
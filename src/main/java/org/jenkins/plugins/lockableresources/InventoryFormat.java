@@ -0,0 +1,275 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources;
+
+import net.sf.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Text formats to export and import the definition of resources, one resource at a time: name,
+ * description, labels, scope and properties. The lock, queue and reservation state are not part of it.
+ */
+public enum InventoryFormat {
+
+	/**
+	 * One JSON object per line, e.g. {@code {"name":"r1","labels":"l1 l2","properties":{"ip":"10.0.0.1"}}}.
+	 */
+	JSONL("application/x-ndjson") {
+		@Override
+		public void writeHeader(Writer out) {
+		}
+
+		@Override
+		public void write(LockableResource r, Writer out) throws IOException {
+			JSONObject json = new JSONObject();
+			json.element("name", r.getName());
+			if (r.getDescription() != null) json.element("description", r.getDescription());
+			if (r.getLabels() != null) json.element("labels", r.getLabels());
+			if (r.getScope() != null) json.element("scope", r.getScope());
+			if (!r.getPropertiesAsMap().isEmpty()) {
+				JSONObject properties = new JSONObject();
+				for (Map.Entry<String, String> e : r.getPropertiesAsMap().entrySet()) {
+					properties.element(e.getKey(), e.getValue());
+				}
+				json.element("properties", properties);
+			}
+			out.write(json.toString());
+			out.write('\n');
+		}
+
+		@Override
+		public void read(Reader in, Consumer<LockableResource> consumer) throws IOException {
+			BufferedReader reader = new BufferedReader(in);
+			int lineNumber = 0;
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				lineNumber++;
+				if (line.trim().isEmpty()) continue;
+				try {
+					JSONObject json = JSONObject.fromObject(line);
+					List<LockableResourceProperty> properties = new ArrayList<>();
+					JSONObject props = json.optJSONObject("properties");
+					if (props != null) {
+						for (Object key : props.keySet()) {
+							properties.add(new LockableResourceProperty(key.toString(), props.optString(key.toString(), null)));
+						}
+					}
+					consumer.accept(resource(json.optString("name", null), json.optString("description", null),
+							json.optString("labels", null), json.optString("scope", null), properties));
+				} catch (RuntimeException e) {
+					throw new IllegalArgumentException("Line " + lineNumber + ": " + e.getMessage(), e);
+				}
+			}
+		}
+	},
+
+	/**
+	 * Comma separated values with a header line: {@code name,description,labels,scope,properties}. Labels
+	 * are separated by spaces, properties by semicolons as {@code name=value}.
+	 */
+	CSV("text/csv") {
+		private final String[] columns = {"name", "description", "labels", "scope", "properties"};
+
+		@Override
+		public void writeHeader(Writer out) throws IOException {
+			out.write(String.join(",", columns));
+			out.write('\n');
+		}
+
+		@Override
+		public void write(LockableResource r, Writer out) throws IOException {
+			List<String> properties = new ArrayList<>();
+			for (Map.Entry<String, String> e : r.getPropertiesAsMap().entrySet()) {
+				properties.add(e.getKey() + "=" + e.getValue());
+			}
+			String[] values = {r.getName(), r.getDescription(), r.getLabels(), r.getScope(), String.join(";", properties)};
+			for (int i = 0; i < values.length; i++) {
+				if (i > 0) out.write(',');
+				out.write(quote(values[i]));
+			}
+			out.write('\n');
+		}
+
+		@Override
+		public void read(Reader in, Consumer<LockableResource> consumer) throws IOException {
+			CsvReader reader = new CsvReader(in);
+			List<String> header = reader.next();
+			if (header == null) return;
+			int[] index = new int[columns.length];
+			for (int c = 0; c < columns.length; c++) {
+				index[c] = header.indexOf(columns[c]);
+			}
+			if (index[0] < 0) {
+				throw new IllegalArgumentException("Line 1: no name column in " + header);
+			}
+			for (List<String> row = reader.next(); row != null; row = reader.next()) {
+				if (row.size() == 1 && row.get(0).trim().isEmpty()) continue;
+				try {
+					List<LockableResourceProperty> properties = new ArrayList<>();
+					String props = column(row, index[4]);
+					if (props != null) {
+						for (String p : props.split(";")) {
+							int eq = p.indexOf('=');
+							if (eq <= 0) throw new IllegalArgumentException("Property without name: " + p);
+							properties.add(new LockableResourceProperty(p.substring(0, eq).trim(), p.substring(eq + 1)));
+						}
+					}
+					consumer.accept(resource(column(row, index[0]), column(row, index[1]), column(row, index[2]),
+							column(row, index[3]), properties));
+				} catch (RuntimeException e) {
+					throw new IllegalArgumentException("Line " + reader.getLine() + ": " + e.getMessage(), e);
+				}
+			}
+		}
+
+		private String column(List<String> row, int i) {
+			return i < 0 || i >= row.size() || row.get(i).isEmpty() ? null : row.get(i);
+		}
+
+		private String quote(String value) {
+			if (value == null) return "";
+			if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+				return value;
+			}
+			return '"' + value.replace("\"", "\"\"") + '"';
+		}
+	};
+
+	private final String contentType;
+
+	InventoryFormat(String contentType) {
+		this.contentType = contentType;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * @return the format of that name, ignoring case, or null
+	 */
+	public static InventoryFormat fromName(String name) {
+		for (InventoryFormat f : values()) {
+			if (f.name().equalsIgnoreCase(name)) return f;
+		}
+		return null;
+	}
+
+	public abstract void writeHeader(Writer out) throws IOException;
+
+	public abstract void write(LockableResource r, Writer out) throws IOException;
+
+	/**
+	 * Reads the resources one at a time.
+	 *
+	 * @throws IllegalArgumentException with the line number, if a resource cannot be read
+	 */
+	public abstract void read(Reader in, Consumer<LockableResource> consumer) throws IOException;
+
+	/**
+	 * Writes the header and all the resources.
+	 */
+	public void writeAll(Collection<LockableResource> resources, Writer out) throws IOException {
+		writeHeader(out);
+		for (LockableResource r : resources) {
+			write(r, out);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Reads the whole input before returning, so that an invalid input is rejected before any of it is
+	 * applied. Use {@link #read} to handle the resources as they are read.
+	 *
+	 * @return all the resources read, in order
+	 * @throws IllegalArgumentException if a resource cannot be read, or a name appears twice
+	 */
+	public List<LockableResource> readAll(Reader in) throws IOException {
+		Map<String, LockableResource> resources = new LinkedHashMap<>();
+		read(in, r -> {
+			if (resources.put(r.getName(), r) != null) {
+				throw new IllegalArgumentException("Duplicate resource name: " + r.getName());
+			}
+		});
+		return new ArrayList<>(resources.values());
+	}
+
+	private static LockableResource resource(String name, String description, String labels, String scope,
+	                                         List<LockableResourceProperty> properties) {
+		LockableResource r = new LockableResource(LockableResource.generateUniqueID(), name, description, labels, "", properties);
+		r.setScope(scope);
+		return r;
+	}
+
+	/**
+	 * Splits CSV text into rows of values, with quoted values possibly spanning lines.
+	 */
+	private static final class CsvReader {
+		private final Reader in;
+		private int line;
+		private int next = -2;
+
+		CsvReader(Reader in) {
+			this.in = in instanceof BufferedReader ? in : new BufferedReader(in);
+		}
+
+		int getLine() {
+			return line;
+		}
+
+		List<String> next() throws IOException {
+			int c = read();
+			if (c < 0) return null;
+			line++;
+			List<String> row = new ArrayList<>();
+			StringBuilder value = new StringBuilder();
+			boolean quoted = false;
+			for (; c >= 0; c = read()) {
+				if (quoted) {
+					if (c == '"') {
+						int d = read();
+						if (d == '"') {
+							value.append('"');
+						} else {
+							quoted = false;
+							next = d;
+						}
+					} else {
+						if (c == '\n') line++;
+						value.append((char) c);
+					}
+				} else if (c == '"' && value.length() == 0) {
+					quoted = true;
+				} else if (c == ',') {
+					row.add(value.toString());
+					value.setLength(0);
+				} else if (c == '\n') {
+					break;
+				} else if (c != '\r') {
+					value.append((char) c);
+				}
+			}
+			if (quoted) throw new IllegalArgumentException("Line " + line + ": unterminated quoted value");
+			row.add(value.toString());
+			return row;
+		}
+
+		private int read() throws IOException {
+			if (next != -2) {
+				int c = next;
+				next = -2;
+				return c;
+			}
+			return in.read();
+		}
+	}
+}
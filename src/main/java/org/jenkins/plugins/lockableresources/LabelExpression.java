@@ -0,0 +1,245 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * A boolean expression over resource names and labels, e.g. {@code (linux || mac) && !broken}.
+ * It is parsed once and evaluated as bit set operations over a {@link LabelIndex}.
+ * <p>
+ * {@code !} binds tighter than {@code &&}, which binds tighter than {@code ||}. Any other run of
+ * characters, up to a space, a parenthesis or an operator, is a name or a label.
+ */
+public abstract class LabelExpression {
+
+	private static final int CACHE_SIZE = 256;
+
+	private static final Map<String, LabelExpression> CACHE = new LinkedHashMap<String, LabelExpression>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, LabelExpression> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	private LabelExpression() {
+	}
+
+	/**
+	 * Parses an expression, or gets it from the expressions parsed before.
+	 *
+	 * @throws IllegalArgumentException if the expression is not valid
+	 */
+	public static LabelExpression compile(String text) {
+		synchronized (CACHE) {
+			LabelExpression e = CACHE.get(text);
+			if (e != null) return e;
+		}
+		LabelExpression e = parse(text);
+		synchronized (CACHE) {
+			CACHE.put(text, e);
+		}
+		return e;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the expression is not valid
+	 */
+	public static LabelExpression parse(String text) {
+		Parser parser = new Parser(text);
+		LabelExpression e = parser.parseOr();
+		if (parser.peek() != null) {
+			throw parser.error("unexpected '" + parser.peek() + "'");
+		}
+		return e;
+	}
+
+	/**
+	 * @param index  the resources to select from
+	 * @param mapper applied to every name or label before looking it up, e.g. to expand variables
+	 * @return the positions in the index of the matching resources
+	 */
+	public abstract BitSet evaluate(LabelIndex index, Function<String, String> mapper);
+
+	/**
+	 * @return the names and labels the expression refers to
+	 */
+	public Set<String> getAtoms() {
+		Set<String> atoms = new LinkedHashSet<>();
+		collectAtoms(atoms);
+		return atoms;
+	}
+
+	abstract void collectAtoms(Set<String> atoms);
+
+	private static final class Atom extends LabelExpression {
+		private final String name;
+
+		Atom(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public BitSet evaluate(LabelIndex index, Function<String, String> mapper) {
+			return index.get(mapper.apply(name));
+		}
+
+		@Override
+		void collectAtoms(Set<String> atoms) {
+			atoms.add(name);
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	private static final class Not extends LabelExpression {
+		private final LabelExpression operand;
+
+		Not(LabelExpression operand) {
+			this.operand = operand;
+		}
+
+		@Override
+		public BitSet evaluate(LabelIndex index, Function<String, String> mapper) {
+			BitSet bits = operand.evaluate(index, mapper);
+			bits.flip(0, index.size());
+			return bits;
+		}
+
+		@Override
+		void collectAtoms(Set<String> atoms) {
+			operand.collectAtoms(atoms);
+		}
+
+		@Override
+		public String toString() {
+			return "!" + operand;
+		}
+	}
+
+	private static final class Binary extends LabelExpression {
+		private final boolean and;
+		private final LabelExpression left;
+		private final LabelExpression right;
+
+		Binary(boolean and, LabelExpression left, LabelExpression right) {
+			this.and = and;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		public BitSet evaluate(LabelIndex index, Function<String, String> mapper) {
+			BitSet bits = left.evaluate(index, mapper);
+			if (and) {
+				if (!bits.isEmpty()) bits.and(right.evaluate(index, mapper));
+			} else {
+				bits.or(right.evaluate(index, mapper));
+			}
+			return bits;
+		}
+
+		@Override
+		void collectAtoms(Set<String> atoms) {
+			left.collectAtoms(atoms);
+			right.collectAtoms(atoms);
+		}
+
+		@Override
+		public String toString() {
+			return "(" + left + (and ? " && " : " || ") + right + ")";
+		}
+	}
+
+	private static final class Parser {
+		private final String text;
+		private int pos;
+
+		Parser(String text) {
+			this.text = text;
+		}
+
+		LabelExpression parseOr() {
+			LabelExpression e = parseAnd();
+			while ("||".equals(peek())) {
+				next();
+				e = new Binary(false, e, parseAnd());
+			}
+			return e;
+		}
+
+		LabelExpression parseAnd() {
+			LabelExpression e = parseNot();
+			while ("&&".equals(peek())) {
+				next();
+				e = new Binary(true, e, parseNot());
+			}
+			return e;
+		}
+
+		LabelExpression parseNot() {
+			String token = next();
+			if (token == null) {
+				throw error("name or label expected");
+			} else if (token.equals("!")) {
+				return new Not(parseNot());
+			} else if (token.equals("(")) {
+				LabelExpression e = parseOr();
+				if (!")".equals(next())) {
+					throw error("')' expected");
+				}
+				return e;
+			} else if (isOperator(token)) {
+				throw error("unexpected '" + token + "'");
+			}
+			return new Atom(token);
+		}
+
+		String peek() {
+			int start = pos;
+			String token = next();
+			pos = start;
+			return token;
+		}
+
+		String next() {
+			while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+			if (pos == text.length()) return null;
+			char c = text.charAt(pos);
+			if (c == '!' || c == '(' || c == ')') {
+				pos++;
+				return String.valueOf(c);
+			}
+			if (c == '&' || c == '|') {
+				if (pos + 1 < text.length() && text.charAt(pos + 1) == c) {
+					pos += 2;
+					return text.substring(pos - 2, pos);
+				}
+				throw error("'" + c + c + "' expected");
+			}
+			int start = pos;
+			while (pos < text.length() && !isDelimiter(text.charAt(pos))) pos++;
+			return text.substring(start, pos);
+		}
+
+		IllegalArgumentException error(String message) {
+			return new IllegalArgumentException("Invalid expression '" + text + "' at " + pos + ": " + message);
+		}
+
+		private static boolean isOperator(String token) {
+			return token.equals(")") || token.equals("&&") || token.equals("||");
+		}
+
+		private static boolean isDelimiter(char c) {
+			return Character.isWhitespace(c) || c == '!' || c == '(' || c == ')' || c == '&' || c == '|';
+		}
+	}
+}
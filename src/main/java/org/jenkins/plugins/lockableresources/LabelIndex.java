@@ -0,0 +1,157 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources;
+
+import java.util.*;
+
+/**
+ * Resources numbered in the order they are added, with the bit set of the resources of every label,
+ * for {@link LabelExpression}. The number of a removed resource is given to the next one added.
+ */
+public class LabelIndex {
+
+	private final List<LockableResource> resources = new ArrayList<>();
+	private final Map<String, Integer> names = new HashMap<>();
+	private final Map<String, BitSet> labels = new HashMap<>();
+	private final Deque<Integer> free = new ArrayDeque<>();
+
+	public void add(LockableResource r) {
+		int bit;
+		if (free.isEmpty()) {
+			bit = resources.size();
+			resources.add(r);
+		} else {
+			bit = free.pop();
+			resources.set(bit, r);
+		}
+		names.put(r.getName(), bit);
+		for (String label : r.getLabelSet()) {
+			labels.computeIfAbsent(label, k -> new BitSet()).set(bit);
+		}
+	}
+
+	/**
+	 * @return false if the resource was not added
+	 */
+	public boolean remove(LockableResource r) {
+		Integer bit = names.get(r.getName());
+		if (bit == null || resources.get(bit) != r) {
+			return false;
+		}
+		names.remove(r.getName());
+		resources.set(bit, null);
+		for (String label : r.getLabelSet()) {
+			BitSet found = labels.get(label);
+			if (found == null) continue;
+			found.clear(bit);
+			if (found.isEmpty()) labels.remove(label);
+		}
+		free.push(bit);
+		return true;
+	}
+
+	/**
+	 * Moves the resource from the given labels to its current ones, keeping its number.
+	 *
+	 * @return false if the resource was not added
+	 */
+	public boolean update(LockableResource r, Collection<String> oldLabels) {
+		Integer bit = names.get(r.getName());
+		if (bit == null || resources.get(bit) != r) {
+			return false;
+		}
+		Set<String> current = r.getLabelSet();
+		for (String label : oldLabels) {
+			if (current.contains(label)) continue;
+			BitSet found = labels.get(label);
+			if (found == null) continue;
+			found.clear(bit);
+			if (found.isEmpty()) labels.remove(label);
+		}
+		for (String label : current) {
+			labels.computeIfAbsent(label, k -> new BitSet()).set(bit);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the number of the resource of that name, -1 if there is none
+	 */
+	public int position(String name) {
+		Integer bit = names.get(name);
+		return bit == null ? -1 : bit;
+	}
+
+	/**
+	 * Adds a resource of this index to an ordered set of resources of this index, before the first one
+	 * numbered after it, so that the set stays in the order of the numbers.
+	 */
+	public void insertInOrder(Set<LockableResource> set, LockableResource r) {
+		if (set.contains(r)) {
+			return;
+		}
+		int bit = position(r.getName());
+		List<LockableResource> after = new ArrayList<>();
+		for (Iterator<LockableResource> it = set.iterator(); it.hasNext(); ) {
+			LockableResource other = it.next();
+			if (!after.isEmpty() || position(other.getName()) > bit) {
+				after.add(other);
+				it.remove();
+			}
+		}
+		set.add(r);
+		set.addAll(after);
+	}
+
+	public void clear() {
+		resources.clear();
+		names.clear();
+		labels.clear();
+		free.clear();
+	}
+
+	/**
+	 * @return the number of positions, including those of removed resources not reused yet
+	 */
+	public int size() {
+		return resources.size();
+	}
+
+	/**
+	 * @return a new bit set with the resource of that name, or else with the resources having that label
+	 */
+	public BitSet get(String nameOrLabel) {
+		BitSet bits = new BitSet();
+		Integer bit = names.get(nameOrLabel);
+		if (bit != null) {
+			bits.set(bit);
+		} else {
+			BitSet found = labels.get(nameOrLabel);
+			if (found != null) bits.or(found);
+		}
+		return bits;
+	}
+
+	/**
+	 * @return true if there is a resource of that name or with that label
+	 */
+	public boolean contains(String nameOrLabel) {
+		return names.containsKey(nameOrLabel) || labels.containsKey(nameOrLabel);
+	}
+
+	/**
+	 * @return the resources at the given positions, in order
+	 */
+	public List<LockableResource> select(BitSet bits) {
+		List<LockableResource> found = new ArrayList<>(bits.cardinality());
+		for (int i = bits.nextSetBit(0); i >= 0 && i < resources.size(); i = bits.nextSetBit(i + 1)) {
+			LockableResource r = resources.get(i);
+			if (r != null) found.add(r);
+		}
+		return found;
+	}
+}
@@ -0,0 +1,129 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources;
+
+import java.util.*;
+
+/**
+ * The labels of a resource, kept as the numbers given by {@link LabelSymbols}, in configuration order.
+ * <p>
+ * A resource has a few labels at most, so they are looked up by scanning the array rather than hashing.
+ * Changes replace the array, iterators keep going over the labels they started with.
+ * <p>
+ * The set holds a use of each of its labels in {@link LabelSymbols}, given back when a label is removed
+ * or the set is garbage collected.
+ */
+public final class LabelSet extends AbstractSet<String> {
+
+	private static final int[] EMPTY = new int[0];
+
+	private volatile int[] ids = EMPTY;
+	private transient LabelSymbols.Holder holder;
+
+	public LabelSet() {
+	}
+
+	public LabelSet(Collection<String> labels) {
+		addAll(labels);
+	}
+
+	@Override
+	public int size() {
+		return ids.length;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (!(o instanceof String)) return false;
+		int id = LabelSymbols.lookup((String) o);
+		return id >= 0 && indexOf(ids, id) >= 0;
+	}
+
+	@Override
+	public synchronized boolean add(String label) {
+		int[] current = ids;
+		if (indexOf(current, LabelSymbols.lookup(label)) >= 0) return false;
+		if (holder == null) {
+			holder = LabelSymbols.hold(this);
+		}
+		int[] added = Arrays.copyOf(current, current.length + 1);
+		added[current.length] = LabelSymbols.intern(label);
+		update(added);
+		return true;
+	}
+
+	@Override
+	public synchronized boolean remove(Object o) {
+		if (!(o instanceof String)) return false;
+		int[] current = ids;
+		int i = indexOf(current, LabelSymbols.lookup((String) o));
+		if (i < 0) return false;
+		int[] removed = new int[current.length - 1];
+		System.arraycopy(current, 0, removed, 0, i);
+		System.arraycopy(current, i + 1, removed, i, removed.length - i);
+		update(removed);
+		LabelSymbols.release(current[i]);
+		return true;
+	}
+
+	@Override
+	public synchronized void clear() {
+		int[] current = ids;
+		update(EMPTY);
+		for (int id : current) {
+			LabelSymbols.release(id);
+		}
+	}
+
+	private void update(int[] changed) {
+		ids = changed;
+		if (holder != null) {
+			holder.ids = changed;
+		}
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		final String[] snapshot;
+		synchronized (this) {
+			// resolved while the labels are held, a released number may be given to another label
+			int[] current = ids;
+			snapshot = new String[current.length];
+			for (int i = 0; i < current.length; i++) {
+				snapshot[i] = LabelSymbols.name(current[i]);
+			}
+		}
+		return new Iterator<String>() {
+			private int next;
+
+			@Override
+			public boolean hasNext() {
+				return next < snapshot.length;
+			}
+
+			@Override
+			public String next() {
+				if (next >= snapshot.length) throw new NoSuchElementException();
+				return snapshot[next++];
+			}
+
+			@Override
+			public void remove() {
+				if (next == 0) throw new IllegalStateException();
+				LabelSet.this.remove(snapshot[next - 1]);
+			}
+		};
+	}
+
+	private static int indexOf(int[] ids, int id) {
+		if (id < 0) return -1;
+		for (int i = 0; i < ids.length; i++) {
+			if (ids[i] == id) return i;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,123 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The labels of all resources, each stored once and numbered from 0, for {@link LabelSet}.
+ * <p>
+ * Every label counts the label sets having it. When the last one removes it, or is garbage collected,
+ * the label is dropped and its number is reused, so labels of resources which come and go (e.g.
+ * ephemeral ones) do not pile up. A number is never reused while a label set still has it.
+ */
+public final class LabelSymbols {
+
+	private static final Map<String, Integer> IDS = new ConcurrentHashMap<>();
+	private static volatile String[] names = new String[64];
+	private static int[] uses = new int[64];
+	private static int count;
+	private static final Deque<Integer> FREE = new ArrayDeque<>();
+	private static final ReferenceQueue<LabelSet> COLLECTED = new ReferenceQueue<>();
+	private static final Set<Holder> HOLDERS = new HashSet<>();
+
+	private LabelSymbols() {
+	}
+
+	/**
+	 * Adds a use of the label, to be given back with {@link #release(int)}.
+	 *
+	 * @return the number of the label, given a new one if no label set has it
+	 */
+	public static synchronized int intern(String label) {
+		expunge();
+		Integer id = IDS.get(label);
+		if (id == null) {
+			id = FREE.isEmpty() ? count++ : FREE.pop();
+			String[] n = names;
+			if (id == n.length) {
+				n = Arrays.copyOf(n, n.length * 2);
+				uses = Arrays.copyOf(uses, n.length);
+			}
+			n[id] = label;
+			names = n;
+			IDS.put(label, id);
+		}
+		uses[id]++;
+		return id;
+	}
+
+	/**
+	 * Removes a use of the label, dropping the label with the last one.
+	 */
+	public static synchronized void release(int id) {
+		if (--uses[id] == 0) {
+			IDS.remove(names[id]);
+			names[id] = null;
+			FREE.push(id);
+		}
+	}
+
+	/**
+	 * @return the number of the label, -1 if no label set has it
+	 */
+	public static int lookup(String label) {
+		Integer id = IDS.get(label);
+		return id == null ? -1 : id;
+	}
+
+	public static String name(int id) {
+		return names[id];
+	}
+
+	/**
+	 * @return the number of labels in use
+	 */
+	public static synchronized int size() {
+		expunge();
+		return IDS.size();
+	}
+
+	/**
+	 * Follows the labels of a label set, to release them once it is garbage collected.
+	 */
+	static synchronized Holder hold(LabelSet labels) {
+		Holder holder = new Holder(labels);
+		HOLDERS.add(holder);
+		return holder;
+	}
+
+	private static void expunge() {
+		for (Reference<? extends LabelSet> ref = COLLECTED.poll(); ref != null; ref = COLLECTED.poll()) {
+			Holder holder = (Holder) ref;
+			HOLDERS.remove(holder);
+			for (int id : holder.ids) {
+				release(id);
+			}
+		}
+	}
+
+	/**
+	 * The labels a label set has, known after it is collected.
+	 */
+	static final class Holder extends PhantomReference<LabelSet> {
+		volatile int[] ids = new int[0];
+
+		private Holder(LabelSet labels) {
+			super(labels, COLLECTED);
+		}
+	}
+}
@@ -40,6 +40,7 @@ import static org.jenkins.plugins.lockableresources.Constants.*;
 
 import net.sf.json.JSONObject;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.export.Exported;
@@ -56,16 +57,18 @@ public class LockableResource
 
 	public String uniqueID;
 	private final String name;
-	private final String description;
+	private String description;
 	@XStreamConverter(value=LabelConverter.class)
-	private final LinkedHashSet<String> labels = new LinkedHashSet<>();
+	private final LabelSet labels = new LabelSet();
 	private String reservedBy;
 	private List<LockableResourceProperty> properties;
+	private String scope;
+	private long lastReleased;
+	private long totalHeldMillis;
 
-	private transient long queueItemId = NOT_QUEUED;
-	private transient String queueItemProject = null;
-	private transient AbstractBuild<?, ?> build = null;
-	private transient long queuingStarted = 0;
+	private transient Usage usage;
+	private transient Map<String, String> propertyMap;
+	private transient boolean ephemeral;
 
 	@DataBoundConstructor
 	public LockableResource(String uniqueID, String name, String description, String labels, String reservedBy, List<LockableResourceProperty> properties) {
@@ -76,7 +79,51 @@ public class LockableResource
 		this.description = Util.fixEmptyAndTrim(description);
 		this.labels.addAll(labelsFromString(Util.fixNull(labels).trim()));
 		this.reservedBy = Util.fixEmptyAndTrim(reservedBy);
-        this.properties = properties == null ? new ArrayList<>() : properties;
+        this.properties = compact(properties);
+	}
+
+	/**
+	 * The queue and lock state, only allocated while the resource is queued or locked: in a large
+	 * inventory most resources are free at any time and do without it.
+	 */
+	private static final class Usage {
+		private long queueItemId = NOT_QUEUED;
+		private String queueItemProject;
+		private AbstractBuild<?, ?> build;
+		private long queuingStarted;
+		private long lockedAt;
+		private long leaseRenewed;
+	}
+
+	private Usage usage() {
+		if (usage == null) {
+			usage = new Usage();
+		}
+		return usage;
+	}
+
+	/**
+	 * Drops the queue and lock state once neither is set anymore.
+	 */
+	private void dropUsage() {
+		if (usage != null && usage.build == null && usage.queueItemId == NOT_QUEUED) {
+			usage = null;
+		}
+	}
+
+	/**
+	 * @return the properties in a list of their size, null if there are none
+	 */
+	private static List<LockableResourceProperty> compact(List<LockableResourceProperty> properties) {
+		if (properties == null || properties.isEmpty()) {
+			return null;
+		}
+		return new ArrayList<>(properties);
+	}
+
+	protected Object readResolve() {
+		properties = compact(properties);
+		return this;
 	}
 
 	@Exported
@@ -84,6 +131,23 @@ public class LockableResource
 		return name;
 	}
 
+	/**
+	 * @return the full name of the folder whose jobs may use this resource, null for all jobs
+	 */
+	@Exported
+	public String getScope() {
+		return scope;
+	}
+
+	@DataBoundSetter
+	public void setScope(String scope) {
+		scope = Util.fixEmptyAndTrim(scope);
+		while (scope != null && scope.endsWith("/")) {
+			scope = Util.fixEmpty(scope.substring(0, scope.length() - 1));
+		}
+		this.scope = scope;
+	}
+
 	@Exported
 	public String getDescription() {
 		return description;
@@ -200,16 +264,36 @@ public class LockableResource
 
     @Exported
     public List<LockableResourceProperty> getProperties() {
-        return properties;
+        return properties == null ? Collections.<LockableResourceProperty>emptyList() : properties;
     }
 
+    /**
+     * @return the properties by name, built once per configuration change, not modifiable
+     */
     @Exported
     public Map<String, String> getPropertiesAsMap() {
-        Map<String, String> tmp = new HashMap<>();
-        for (LockableResourceProperty lrp : properties) {
-            tmp.put(lrp.getName(), lrp.getValue());
+        Map<String, String> map = propertyMap;
+        if (map == null) {
+            if (properties == null) {
+                map = Collections.emptyMap();
+            } else {
+                map = new LinkedHashMap<>();
+                for (LockableResourceProperty lrp : properties) {
+                    map.put(lrp.getName(), lrp.getValue());
+                }
+                map = Collections.unmodifiableMap(map);
+            }
+            propertyMap = map;
         }
-        return tmp;
+        return map;
+    }
+
+    /**
+     * Builds the property map again, after the properties were changed in place.
+     */
+    void indexProperties() {
+        propertyMap = null;
+        getPropertiesAsMap();
     }
 
     @Exported
@@ -223,7 +307,7 @@ public class LockableResource
 
 	// returns True if queued by any other task than the given one
 	public boolean isQueued(int taskId) {
-		return isQueued() && queueItemId != taskId;
+		return isQueued() && usage.queueItemId != taskId;
 	}
 
 	public boolean isQueuedByTask(long taskId) {
@@ -231,34 +315,100 @@ public class LockableResource
 	}
 
 	public void unqueue() {
-		queueItemId = NOT_QUEUED;
-		queueItemProject = null;
-		queuingStarted = 0;
+		if (usage != null) {
+			usage.queueItemId = NOT_QUEUED;
+			usage.queueItemProject = null;
+			usage.queuingStarted = 0;
+			dropUsage();
+		}
 	}
 
 	@Exported
 	public boolean isLocked() {
-		return build != null;
+		return usage != null && usage.build != null;
 	}
 
 	public boolean isFree() {
 		return !isLocked() && !isQueued() && !isReserved();
 	}
 
+	/**
+	 * @return true if the resource was registered at runtime and is not saved with the configuration
+	 * @see LockableResourcesManager#registerEphemeral(LockableResource)
+	 */
+	@Exported
+	public boolean isEphemeral() {
+		return ephemeral;
+	}
+
+	void setEphemeral(boolean ephemeral) {
+		this.ephemeral = ephemeral;
+	}
+
 	public AbstractBuild<?, ?> getBuild() {
-		return build;
+		return usage == null ? null : usage.build;
 	}
 
 	@Exported
 	public String getBuildName() {
-		if (build != null)
-			return build.getFullDisplayName();
+		if (isLocked())
+			return usage.build.getFullDisplayName();
 		else
 			return null;
 	}
 
 	public void setBuild(AbstractBuild<?, ?> lockedBy) {
-		this.build = lockedBy;
+		if (lockedBy == null && !isLocked()) {
+			return;
+		}
+		Usage u = usage();
+		long now = System.currentTimeMillis();
+		if (lockedBy != null && u.build == null) {
+			u.lockedAt = now;
+			u.leaseRenewed = now;
+		} else if (lockedBy == null) {
+			if (u.lockedAt > 0)
+				totalHeldMillis += now - u.lockedAt;
+			lastReleased = now;
+			u.lockedAt = 0;
+			u.leaseRenewed = 0;
+		}
+		u.build = lockedBy;
+		dropUsage();
+	}
+
+	/**
+	 * @return when this resource was locked, 0 if it is not
+	 */
+	public long getLockedAt() {
+		return usage == null ? 0 : usage.lockedAt;
+	}
+
+	/**
+	 * @return when the lease of the lock was last renewed, 0 if it is not locked
+	 */
+	public long getLeaseRenewed() {
+		return usage == null ? 0 : usage.leaseRenewed;
+	}
+
+	public void renewLease(long now) {
+		if (isLocked()) {
+			usage.leaseRenewed = now;
+		}
+	}
+
+	/**
+	 * @return when this resource was last unlocked, 0 if it never was
+	 */
+	public long getLastReleased() {
+		return lastReleased;
+	}
+
+	/**
+	 * @return the accumulated time this resource has been locked, in milliseconds
+	 */
+	public long getTotalHeldMillis() {
+		return totalHeldMillis;
 	}
 
 	public Task getTask() {
@@ -272,24 +422,26 @@ public class LockableResource
 
 	public long getQueueItemId() {
 		this.validateQueuingTimeout();
-		return queueItemId;
+		return usage == null ? NOT_QUEUED : usage.queueItemId;
 	}
 
 	public String getQueueItemProject() {
 		this.validateQueuingTimeout();
-		return this.queueItemProject;
+		return usage == null ? null : usage.queueItemProject;
 	}
 
 	public void setQueued(long queueItemId, String queueProjectName) {
-		this.queueItemId = queueItemId;
-		this.queuingStarted = System.currentTimeMillis();
-		this.queueItemProject = queueProjectName;
+		Usage u = usage();
+		u.queueItemId = queueItemId;
+		u.queuingStarted = System.currentTimeMillis();
+		u.queueItemProject = queueProjectName;
+		dropUsage();
 	}
 
 	private void validateQueuingTimeout() {
-		if (queuingStarted > 0) {
+		if (usage != null && usage.queuingStarted > 0) {
 			long now = System.currentTimeMillis();
-			if (now - queuingStarted > QUEUE_TIMEOUT)
+			if (now - usage.queuingStarted > QUEUE_TIMEOUT)
 				unqueue();
 		}
 	}
@@ -333,6 +485,48 @@ public class LockableResource
 		return name.compareTo(o.name);
 	}
 
+	/**
+	 * @return true if the other resource has the same description, labels, scope and properties
+	 */
+	public boolean hasSameDefinition(LockableResource other) {
+		return Objects.equals(description, other.description)
+				&& new ArrayList<>(getLabelSet()).equals(new ArrayList<>(other.getLabelSet()))
+				&& Objects.equals(scope, other.scope)
+				&& new ArrayList<>(getPropertiesAsMap().entrySet()).equals(new ArrayList<>(other.getPropertiesAsMap().entrySet()));
+	}
+
+	/**
+	 * Takes over the lock, queue and usage history of the resource this one replaces, when the
+	 * configuration is submitted.
+	 */
+	void copyState(LockableResource old) {
+		usage = null;
+		if (old.usage != null) {
+			Usage u = usage();
+			u.queueItemId = old.usage.queueItemId;
+			u.queueItemProject = old.usage.queueItemProject;
+			u.build = old.usage.build;
+			u.queuingStarted = old.usage.queuingStarted;
+			u.lockedAt = old.usage.lockedAt;
+			u.leaseRenewed = old.usage.leaseRenewed;
+		}
+		lastReleased = old.lastReleased;
+		totalHeldMillis = old.totalHeldMillis;
+	}
+
+	/**
+	 * Takes the description, labels, scope and properties of the other resource. The lock, queue and
+	 * reservation state of this resource are kept.
+	 */
+	void updateDefinition(LockableResource other) {
+		description = other.description;
+		labels.clear();
+		labels.addAll(other.getLabelSet());
+		scope = other.scope;
+		properties = compact(other.properties);
+		indexProperties();
+	}
+
 	@Extension
 	public static class DescriptorImpl extends Descriptor<LockableResource> {
 
@@ -377,16 +571,20 @@ public class LockableResource
 			super(mapper);
 		}
 		
+		@Override
+		public boolean canConvert(Class type) {
+			return type == LabelSet.class || super.canConvert(type);
+		}
+
 		@Override
 		public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
-			LinkedHashSet<String> labels;
+			LabelSet labels = new LabelSet();
 			String labelString = reader.getValue();
 			if ( labelString != null && !reader.hasMoreChildren() ) {
-				labels = new LinkedHashSet<String>();
 				labels.addAll(labelsFromString(labelString.trim()));
 			}
 			else {
-				labels = (LinkedHashSet<String>)super.unmarshal(reader, context);
+				populateCollection(reader, context, labels);
 			}
 			return labels;
 		}
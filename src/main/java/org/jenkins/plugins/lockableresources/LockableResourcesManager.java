@@ -14,19 +14,44 @@ import hudson.Plugin;
 import hudson.Util;
 import hudson.XmlFile;
 import hudson.model.AbstractBuild;
+import hudson.model.Executor;
 import hudson.model.Queue;
+import hudson.model.queue.CauseOfBlockage;
 import jenkins.model.Jenkins;
+import jenkins.util.Timer;
 import net.sf.json.JSONObject;
 import org.jenkins.plugins.lockableresources.actions.LockedResourcesBuildAction;
+import org.jenkins.plugins.lockableresources.allocation.AllocationRequest;
+import org.jenkins.plugins.lockableresources.allocation.BlockedItemCache;
+import org.jenkins.plugins.lockableresources.allocation.DefaultResourceAllocator;
+import org.jenkins.plugins.lockableresources.allocation.FairWaitQueue;
+import org.jenkins.plugins.lockableresources.allocation.ResourceAllocator;
+import org.jenkins.plugins.lockableresources.allocation.ResourcePool;
+import org.jenkins.plugins.lockableresources.allocation.ResourceSelectionMode;
+import org.jenkins.plugins.lockableresources.metrics.HoldTimeHistory;
+import org.jenkins.plugins.lockableresources.metrics.ReclaimLog;
+import org.jenkins.plugins.lockableresources.metrics.UtilizationHistory;
+import org.jenkins.plugins.lockableresources.queue.BlockageReport;
 import org.jenkins.plugins.lockableresources.queue.LockableResourcesStruct;
+import org.jenkins.plugins.lockableresources.queue.ResourceEnvironment;
+import org.jenkins.plugins.lockableresources.store.FileResourceStateStore;
+import org.jenkins.plugins.lockableresources.store.HeldElsewhereCache;
+import org.jenkins.plugins.lockableresources.store.LocalResourceStateStore;
+import org.jenkins.plugins.lockableresources.store.ResourceStateStore;
+import org.jenkins.plugins.lockableresources.store.ResourcesFileWatcher;
 import org.jenkins.plugins.lockableresources.queue.Utils;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.StaplerRequest;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -35,18 +60,82 @@ import static org.jenkins.plugins.lockableresources.Constants.RESOURCES_SPLIT_RE
 
 public class LockableResourcesManager extends Plugin {
 	
-	private static final transient Random rand = new Random();
 	private static final Logger LOGGER = Logger.getLogger(LockableResourcesManager.class.getName());
 
 	private final LinkedHashSet<String> loadBalancingLabels;
 	private boolean useResourcesEvenly = false;
+	private ResourceSelectionMode selectionMode;
     private boolean usePercentMatchingDefault = Constants.DEFAULT_USE_PERCENT_MATCHING;
+	private int waitQueueAgingSeconds = 0;
+	private String stateStoreDirectory;
+	private int leaseSeconds = 0;
+	private int maxHoldSeconds = 0;
+	private int utilizationHistoryDays = 1;
+	private String resourcesFile;
 	private final LinkedHashSet<LockableResource> resources;
 	private final LinkedHashMap<String,String> labelAliases;
 
+	private final transient Map<String,LockableResource> ephemeralResources = new LinkedHashMap<>();
+	private final transient Set<LockableResource> deregistered = new HashSet<>();
+
 	private final transient Map<String,Set<LockableResource>> labelsCache = new TreeMap<>();
 	private final transient Map<String,Set<LockableResource>> lbLabelsCache = new HashMap<>();
 	private final transient Map<String,LockableResource> resourceMapCache = new HashMap<>();
+	private final transient Map<String,ResourcePartition> partitions = new HashMap<>();
+	private final transient Map<String,ResourceEnvironment> environmentCache = new HashMap<>();
+	private final transient PropertyIndex propertyIndex = new PropertyIndex();
+	private final transient LabelIndex labelIndex = new LabelIndex();
+
+	private transient ResourceAllocator allocator;
+	private transient ResourceStateStore stateStore;
+	private transient volatile HeldElsewhereCache heldElsewhere;
+	/**
+	 * Taken around the round trips to the shared state store, which are made without holding this
+	 * monitor so that a slow store blocks no dispatcher nor UI call. Taken before this monitor, never after.
+	 */
+	private final transient Object storeLock = new Object();
+	private final transient Set<String> pendingReleases = new LinkedHashSet<>();
+	private final transient Map<String,Long> queueLeaseTaken = new HashMap<>();
+	private transient ResourcesFileWatcher resourcesFileWatcher;
+	private transient int resourcesFileGeneration;
+	private final transient FairWaitQueue waitQueue = new FairWaitQueue(0);
+	private final transient List<LockWaiter> lockWaiters = new LinkedList<>();
+	private final transient BlockedItemCache<CauseOfBlockage> blockedItems = new BlockedItemCache<>(BLOCKED_ITEM_TTL);
+	private final transient ReclaimLog reclaimLog = new ReclaimLog(RECLAIM_LOG_SIZE);
+	private final transient HoldTimeHistory holdTimes = new HoldTimeHistory(HOLD_HISTORY_SIZE);
+	private transient UtilizationHistory utilization;
+	private transient long generation;
+
+	/**
+	 * Maximum time a blocked item is not re-evaluated while nothing it depends on changes.
+	 */
+	private static final long BLOCKED_ITEM_TTL = 30 * 1000;
+
+	/**
+	 * Lease of queued resources in the shared state store, they are locked or given back before.
+	 */
+	private static final long QUEUE_LEASE = 60 * 1000;
+
+	/**
+	 * How long the resources other controllers hold are used before reading the shared state store again.
+	 */
+	private static final long HELD_ELSEWHERE_TTL = 2 * 1000;
+
+	/**
+	 * Shortest lock lease, long enough for several renewals by {@link #checkLeases()}.
+	 */
+	public static final int MIN_LEASE_SECONDS = 60;
+
+	private static final int RECLAIM_LOG_SIZE = 100;
+
+	/**
+	 * Number of past hold durations kept per resource and per label for the wait estimates.
+	 */
+	private static final int HOLD_HISTORY_SIZE = 32;
+
+	public static final int MAX_UTILIZATION_HISTORY_DAYS = 14;
+	public static final long UTILIZATION_INTERVAL = 60 * 1000;
+	private static final int SPARKLINE_BUCKETS = 48;
 
 	public LockableResourcesManager() {
 		super();
@@ -66,6 +155,30 @@ public class LockableResourcesManager extends Plugin {
 		return resources;
 	}
 
+	/**
+	 * @return the resources registered at runtime, not saved with the configuration
+	 */
+	public synchronized Collection<LockableResource> getEphemeralResources() {
+		return new ArrayList<>(ephemeralResources.values());
+	}
+
+	/**
+	 * @return the configured resources followed by the ephemeral ones
+	 */
+	public synchronized Collection<LockableResource> getAllResources() {
+		return new ArrayList<>(allResources());
+	}
+
+	private Collection<LockableResource> allResources() {
+		if (ephemeralResources.isEmpty()) {
+			return resources;
+		}
+		List<LockableResource> all = new ArrayList<>(resources.size() + ephemeralResources.size());
+		all.addAll(resources);
+		all.addAll(ephemeralResources.values());
+		return all;
+	}
+
 	public String getLoadBalancingLabels() {
 		if ( loadBalancingLabels.size() > 0 ) {
 			StringBuilder sb = new StringBuilder();
@@ -81,13 +194,501 @@ public class LockableResourcesManager extends Plugin {
 	public boolean getUseResourcesEvenly() {
 		return useResourcesEvenly;
 	}
+
+	public ResourceSelectionMode getSelectionMode() {
+		if (selectionMode == null) {
+			// configurations saved before the selection mode existed
+			return useResourcesEvenly ? ResourceSelectionMode.RANDOM : ResourceSelectionMode.FIRST;
+		}
+		return selectionMode;
+	}
+
+	public ResourceSelectionMode[] getSelectionModes() {
+		return ResourceSelectionMode.values();
+	}
     public boolean getUsePercentMatchingDefault() {
         return usePercentMatchingDefault;
     }
 
+	/**
+	 * @return how long an item waits before free resources are held for it, 0 if never
+	 */
+	public int getWaitQueueAgingSeconds() {
+		return waitQueueAgingSeconds;
+	}
+
+	/**
+	 * @return the directory shared with other controllers to record which resources they hold, null if not shared
+	 */
+	public String getStateStoreDirectory() {
+		return stateStoreDirectory;
+	}
+
+	/**
+	 * @return the file the resources are defined in, relative to JENKINS_HOME, null if they are defined here
+	 */
+	public String getResourcesFile() {
+		return resourcesFile;
+	}
+
+	/**
+	 * @return the watcher of the resources file, null if there is no such file
+	 */
+	public synchronized ResourcesFileWatcher getResourcesFileWatcher() {
+		return resourcesFileWatcher;
+	}
+
+	@Override
+	public void postInitialize() throws Exception {
+		super.postInitialize();
+		startResourcesFileWatcher();
+	}
+
+	@Override
+	public void stop() throws Exception {
+		stopResourcesFileWatcher();
+		super.stop();
+	}
+
+	private synchronized void startResourcesFileWatcher() {
+		if (resourcesFile == null) return;
+		File file = new File(resourcesFile);
+		if (!file.isAbsolute()) {
+			file = new File(Jenkins.getActiveInstance().getRootDir(), resourcesFile);
+		}
+		int watcherGeneration = resourcesFileGeneration;
+		resourcesFileWatcher = new ResourcesFileWatcher(file.toPath(),
+				imported -> importResourcesFile(watcherGeneration, imported));
+		try {
+			resourcesFileWatcher.start();
+		} catch (IOException ex) {
+			LOGGER.log(Level.SEVERE, "Unable to watch the resources file " + file, ex);
+		}
+	}
+
+	private synchronized void stopResourcesFileWatcher() {
+		// a reload already running on the old watcher thread must not apply the old file
+		resourcesFileGeneration++;
+		if (resourcesFileWatcher != null) {
+			try {
+				resourcesFileWatcher.close();
+			} catch (IOException ex) {
+				LOGGER.log(Level.WARNING, "Unable to stop watching the resources file", ex);
+			}
+			resourcesFileWatcher = null;
+		}
+	}
+
+	/**
+	 * @return how long a lock outlives its build before it is reclaimed, 0 if never
+	 */
+	public int getLeaseSeconds() {
+		return leaseSeconds;
+	}
+
+	/**
+	 * @return how long a running build keeps a lock before it is reclaimed, 0 if as long as it runs
+	 */
+	public int getMaxHoldSeconds() {
+		return maxHoldSeconds;
+	}
+
+	/**
+	 * @return the locks reclaimed from builds which stopped renewing their lease
+	 */
+	public ReclaimLog getReclaimLog() {
+		return reclaimLog;
+	}
+
+	/**
+	 * @return the number of days of resource states kept, 0 if they are not sampled
+	 */
+	public int getUtilizationHistoryDays() {
+		return utilizationHistoryDays;
+	}
+
+	private UtilizationHistory getUtilization() {
+		if (utilization == null) {
+			int slots = (int) (utilizationHistoryDays * TimeUnit.DAYS.toMillis(1) / UTILIZATION_INTERVAL);
+			utilization = new UtilizationHistory(Math.max(1, slots), UTILIZATION_INTERVAL);
+		}
+		return utilization;
+	}
+
+	/**
+	 * Records the current state of all resources in the utilization history.
+	 */
+	public synchronized void sampleUtilization() {
+		if (utilizationHistoryDays <= 0) {
+			return;
+		}
+		Collection<LockableResource> all = allResources();
+		Map<String, UtilizationHistory.State> states = new HashMap<>(all.size() * 2);
+		for (LockableResource r : all) {
+			UtilizationHistory.State state;
+			if (r.isLocked()) {
+				state = UtilizationHistory.State.LOCKED;
+			} else if (r.isReserved()) {
+				state = UtilizationHistory.State.RESERVED;
+			} else if (r.isQueued()) {
+				state = UtilizationHistory.State.QUEUED;
+			} else {
+				state = UtilizationHistory.State.FREE;
+			}
+			states.put(r.getName(), state);
+		}
+		getUtilization().sample(System.currentTimeMillis(), states);
+	}
+
+	/**
+	 * @return the busy fraction of the resource over the utilization history, as block characters
+	 */
+	public synchronized String getUtilizationSparkline(String resourceName) {
+		return getUtilization().getSparkline(resourceName, SPARKLINE_BUCKETS);
+	}
+
+	/**
+	 * @return the fraction of the utilization history during which the resource was not free
+	 */
+	public synchronized double getUtilizationBusyFraction(String resourceName) {
+		return getUtilization().getBusyFraction(resourceName);
+	}
+
+	/**
+	 * @param resourceName the resource to return, null for all of them
+	 * @return the utilization history: for each resource, one digit per sample, oldest first,
+	 *         which is the index of the state in {@code states}
+	 */
+	public synchronized JSONObject getUtilizationJson(String resourceName) {
+		UtilizationHistory history = getUtilization();
+		JSONObject json = new JSONObject();
+		json.element("interval", history.getInterval());
+		json.element("lastSample", history.getLastSample());
+		List<String> states = new ArrayList<>();
+		for (UtilizationHistory.State state : UtilizationHistory.State.values()) {
+			states.add(state.name());
+		}
+		json.element("states", states);
+		JSONObject samples = new JSONObject();
+		for (String name : resourceName == null ? new TreeSet<>(history.getNames()) : Collections.singleton(resourceName)) {
+			UtilizationHistory.State[] values = history.getSamples(name);
+			if (values == null) continue;
+			StringBuilder sb = new StringBuilder(values.length);
+			for (UtilizationHistory.State state : values) {
+				sb.append(state.ordinal());
+			}
+			JSONObject resource = new JSONObject();
+			resource.element("busy", history.getBusyFraction(name));
+			resource.element("samples", sb.toString());
+			samples.element(name, resource);
+		}
+		json.element("resources", samples);
+		return json;
+	}
+
+	/**
+	 * @return the median hold duration in milliseconds of every resource and label locked since startup
+	 */
+	public synchronized Map<String, Long> getTypicalHoldTimes() {
+		return holdTimes.getTypicals();
+	}
+
+	/**
+	 * Estimates how long a queue item still waits for its resources, from the past hold durations
+	 * and the time the current holders have held them.
+	 *
+	 * @return the estimated wait in milliseconds, -1 if unknown
+	 */
+	public synchronized long estimateWait(List<LockableResourcesStruct> requiredResourcesList, long queueItemId) {
+		long now = System.currentTimeMillis();
+		long wait = 0;
+		for (LockableResourcesStruct rs : requiredResourcesList) {
+			int needed = rs.getRequiredNumber();
+			if (needed <= 0 || needed > rs.required.size()) {
+				needed = rs.required.size();
+			}
+			List<Long> remaining = new ArrayList<>(rs.required.size());
+			for (LockableResource r : rs.required) {
+				if (r.isReserved()) {
+					// given back by hand, nothing to estimate from
+					continue;
+				}
+				if (r.isLocked()) {
+					remaining.add(holdTimes.estimateRemaining(r.getName(), r.getLabelSet(), now - r.getLockedAt()));
+				} else if (r.isQueued() && !r.isQueuedByTask(queueItemId)) {
+					remaining.add(holdTimes.estimateRemaining(r.getName(), r.getLabelSet(), 0));
+				} else if (!isHeldElsewhere(r.getName())) {
+					needed--;
+				}
+			}
+			long w = HoldTimeHistory.estimateWait(needed, remaining);
+			if (w < 0) {
+				return -1;
+			}
+			wait = Math.max(wait, w);
+		}
+		return wait;
+	}
+
+	/**
+	 * @return a counter bumped on every change of the state of the resources
+	 */
+	public synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Describes why a queue item cannot get its resources, from the current state of the resources.
+	 *
+	 * @param env the variables the resource names are expanded with
+	 */
+	public synchronized BlockageReport getBlockageReport(List<LockableResourcesStruct> requiredResourcesList,
+	                                                     EnvVars env, long queueItemId) {
+		long now = System.currentTimeMillis();
+		List<BlockageReport.Entry> entries = new ArrayList<>(requiredResourcesList.size());
+		for (LockableResourcesStruct rs : requiredResourcesList) {
+			int needed = rs.getRequiredNumber();
+			if (needed <= 0 || needed > rs.required.size()) {
+				needed = rs.required.size();
+			}
+			BlockageReport.Entry entry = new BlockageReport.Entry(env.expand(Util.fixNull(rs.requiredNames)), needed);
+			for (LockableResource r : rs.required) {
+				if (r.isLocked()) {
+					entry.addLocked(r.getBuildName(), r.getName());
+				} else if (r.isReserved()) {
+					entry.addReserved(r.getReservedBy(), r.getName());
+				} else if (r.isQueued() && !r.isQueuedByTask(queueItemId)) {
+					entry.addQueued();
+				} else if (isHeldElsewhere(r.getName())) {
+					entry.addHeldElsewhere();
+				} else {
+					entry.addFree();
+				}
+			}
+			entries.add(entry);
+		}
+		long wait = estimateWait(requiredResourcesList, queueItemId);
+		return new BlockageReport(entries, generation, now, wait < 0 ? -1 : now + wait);
+	}
+
+	/**
+	 * @return the store shared with other controllers using the same resources
+	 */
+	public synchronized ResourceStateStore getStateStore() {
+		if (stateStore == null) {
+			String controllerId = Jenkins.getActiveInstance().getLegacyInstanceId();
+			if (stateStoreDirectory != null) {
+				try {
+					stateStore = new FileResourceStateStore(Paths.get(stateStoreDirectory), controllerId);
+				} catch (IOException ex) {
+					LOGGER.log(Level.SEVERE, "Unable to use the shared state directory " + stateStoreDirectory, ex);
+				}
+			}
+			if (stateStore == null) {
+				stateStore = new LocalResourceStateStore(controllerId);
+			}
+		}
+		return stateStore;
+	}
+
+	/**
+	 * Replaces the shared state store until the next configuration change.
+	 */
+	public synchronized void setStateStore(ResourceStateStore stateStore) {
+		this.stateStore = stateStore;
+	}
+
+	/**
+	 * @return the position of the queue item in the line for its resources, 0 if it is not waiting
+	 */
+	public synchronized int getQueuePosition(long queueItemId) {
+		return waitQueue.getPosition(queueItemId);
+	}
+
+	/**
+	 * Forgets a queue item which left the queue without getting its resources.
+	 */
+	public synchronized void dequeue(long queueItemId) {
+		blockedItems.remove(queueItemId);
+		if (waitQueue.getPosition(queueItemId) > 0) {
+			waitQueue.remove(queueItemId);
+			// the resources held for it are free for the others
+			blockedItems.changedAll();
+			notifyLockWaiters();
+		}
+	}
+
+	/**
+	 * @return why the queue item was blocked on its last attempt, if no resource it depends on changed since
+	 */
+	public synchronized CauseOfBlockage getCachedBlockage(long queueItemId) {
+		return blockedItems.get(queueItemId, System.currentTimeMillis());
+	}
+
+	/**
+	 * Remembers why the queue item is blocked, for the resources its last {@link #queue} call looked at.
+	 */
+	public synchronized void cacheBlockage(long queueItemId, CauseOfBlockage cause) {
+		blockedItems.put(queueItemId, cause);
+	}
+
+	/**
+	 * Asks for resources outside of a build. The returned future completes once the resources
+	 * are reserved for {@code holder}, who gives them back with {@link #unreserve(List)}.
+	 * <p>
+	 * There is no job: variables like {@code ${NAME}} are not expanded, Groovy expressions are rejected
+	 * and resources of all folders are candidates.
+	 *
+	 * @param resourceNames resource names or labels, like in the job configuration
+	 * @param number        number of resources needed, 0 for all of them
+	 * @param holder        the user name the resources get reserved by
+	 * @param timeout       how long to wait at most, 0 or less to wait until granted or cancelled
+	 * @return the future reserved resources, completed with a {@link TimeoutException} when the
+	 *         timeout elapses; cancelling it stops waiting
+	 */
+	public CompletableFuture<List<LockableResource>> acquire(String resourceNames, int number, String holder,
+	                                                         long timeout, TimeUnit unit) {
+		final LockWaiter waiter = new LockWaiter(holder);
+		if (resourceNames.trim().startsWith(Constants.GROOVY_LABEL_MARKER)) {
+			waiter.future.completeExceptionally(new IllegalArgumentException(
+					"Groovy expressions need a job, they cannot be acquired: " + resourceNames));
+			return waiter.future;
+		}
+		LockableResourcesStruct requiredResources = new LockableResourcesStruct(
+				new RequiredResourcesProperty.Resource(null, resourceNames, String.valueOf(number), null, null, false),
+				new EnvVars());
+		if (requiredResources.required.isEmpty()) {
+			waiter.future.completeExceptionally(new IllegalArgumentException("No resources match: " + resourceNames));
+			return waiter.future;
+		}
+		List<String> candidates = new ArrayList<>(requiredResources.required.size());
+		for (LockableResource r : requiredResources.required) {
+			candidates.add(r.getName());
+		}
+		waiter.request = new AllocationRequest(candidates, number, false, null);
+		synchronized (this) {
+			lockWaiters.add(waiter);
+		}
+		waiter.future.whenComplete((result, failure) -> {
+			synchronized (LockableResourcesManager.this) {
+				lockWaiters.remove(waiter);
+			}
+		});
+		if (timeout > 0) {
+			ScheduledFuture<?> expiry = Timer.get().schedule(() -> waiter.future.completeExceptionally(
+					new TimeoutException("Timed out waiting for " + resourceNames)), timeout, unit);
+			waiter.future.whenComplete((result, failure) -> expiry.cancel(false));
+		}
+		processLockWaiters();
+		return waiter.future;
+	}
+
+	/**
+	 * Lets the waiting {@link #acquire} calls try again, for the changes nobody is told about: queued
+	 * resources whose queue item did not lock them in time, and resources held for aged queue items.
+	 */
+	public synchronized void retryLockWaiters() {
+		notifyLockWaiters();
+	}
+
+	/**
+	 * @return the number of {@link #acquire} calls still waiting
+	 */
+	public synchronized int getLockWaiterCount() {
+		return lockWaiters.size();
+	}
+
+	/**
+	 * Serves the waiting {@link #acquire} calls, in order, with the resources currently free.
+	 */
+	private void processLockWaiters() {
+		Map<LockWaiter, List<LockableResource>> granted = new LinkedHashMap<>();
+		synchronized (this) {
+			for (LockWaiter waiter : lockWaiters) {
+				if (waiter.taking || waiter.future.isDone()) {
+					continue;
+				}
+				ManagedResourcePool pool = new ManagedResourcePool(-1, null);
+				pool.held = waitQueue.getHeld(-1, pool, System.currentTimeMillis());
+				Map<String, AllocationRequest> selected = getAllocator().allocate(
+						Collections.singletonList(waiter.request), pool);
+				if (selected == null) {
+					continue;
+				}
+				waiter.taking = true;
+				List<LockableResource> reserved = new ArrayList<>(selected.size());
+				for (String name : selected.keySet()) {
+					LockableResource r = fromName(name);
+					r.setReservedBy(waiter.holder);
+					reserved.add(r);
+				}
+				granted.put(waiter, reserved);
+			}
+		}
+		if (granted.isEmpty()) {
+			return;
+		}
+		// taken in the shared state store outside of the lock
+		Map<LockWaiter, List<LockableResource>> failed = new LinkedHashMap<>();
+		for (Map.Entry<LockWaiter, List<LockableResource>> entry : granted.entrySet()) {
+			List<String> names = new ArrayList<>(entry.getValue().size());
+			for (LockableResource r : entry.getValue()) {
+				names.add(r.getName());
+			}
+			if (!acquireShared(names, 0)) {
+				failed.put(entry.getKey(), entry.getValue());
+			}
+		}
+		synchronized (this) {
+			for (Map.Entry<LockWaiter, List<LockableResource>> entry : failed.entrySet()) {
+				entry.getKey().taking = false;
+				granted.remove(entry.getKey());
+				List<LockableResource> unreserved = new ArrayList<>(entry.getValue().size());
+				for (LockableResource r : entry.getValue()) {
+					if (Objects.equals(entry.getKey().holder, r.getReservedBy())) {
+						r.unReserve();
+						unreserved.add(r);
+					}
+				}
+				changed(unreserved);
+				unreserved.forEach(this::releaseSharedIfFree);
+				unreserved.forEach(this::removeIfDeregistered);
+			}
+			lockWaiters.removeAll(granted.keySet());
+			if (!granted.isEmpty()) {
+				save();
+			}
+		}
+		// complete outside of the lock, callers may chain work on the futures
+		for (Map.Entry<LockWaiter, List<LockableResource>> entry : granted.entrySet()) {
+			LOGGER.log(Level.FINE, "{0} reserved {1}", new Object[]{entry.getKey().holder, entry.getValue()});
+			if (!entry.getKey().future.complete(entry.getValue())) {
+				// cancelled or timed out meanwhile
+				unreserve(entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Lets the waiting {@link #acquire} calls try again, after resources were freed.
+	 */
+	private void notifyLockWaiters() {
+		if (!lockWaiters.isEmpty()) {
+			Timer.get().submit(this::processLockWaiters);
+		}
+	}
+
+	/**
+	 * @return the variables the resource contributes to the environment of the builds locking it,
+	 *         null if there is no such resource
+	 */
+	public synchronized ResourceEnvironment getEnvironment(String resourceName) {
+		return environmentCache.get(resourceName);
+	}
+
 	public List<LockableResource> getResourcesFromProject(String fullName) {
 		List<LockableResource> matching = new ArrayList<>();
-		for (LockableResource r : resources) {
+		for (LockableResource r : allResources()) {
 			String rName = r.getQueueItemProject();
 			if (rName != null && rName.equals(fullName)) {
 				matching.add(r);
@@ -98,7 +699,7 @@ public class LockableResourcesManager extends Plugin {
 
 	public List<LockableResource> getResourcesFromBuild(AbstractBuild<?, ?> build) {
 		List<LockableResource> matching = new ArrayList<>();
-		for (LockableResource r : resources) {
+		for (LockableResource r : allResources()) {
 			AbstractBuild<?, ?> rBuild = r.getBuild();
 			if (rBuild != null && rBuild == build) {
 				matching.add(r);
@@ -138,27 +739,73 @@ public class LockableResourcesManager extends Plugin {
 	}
 
 	public List<LockableResource> getResourcesWithLabels(String expression, EnvVars env) {
+		List<String> labels = expandExactLabels(expression, env);
+		return allResources().stream().filter(r -> r.isValidLabelSet(labels)).collect(Collectors.toList());
+	}
+
+	private List<String> expandExactLabels(String expression, EnvVars env) {
 		String expressionToEvaluate = expression.replace(Constants.EXACT_LABEL_MARKER, "");
 		Set<String> requiredNamesList = Utils.getExpandedListOfVariables(new LinkedHashSet<>(Arrays.asList(expressionToEvaluate.split("\\s+"))), env);
 		List<String> labels = new LinkedList<>();
 		for ( String label : requiredNamesList ) {
-			if ( labelsCache.containsKey(label) && labelAliases.containsKey(label) ) {
-				LOGGER.log(Level.FINER, "Converting label alias {0} to real label.", label);
-				label = labelAliases.get(label);
-			}
-			labels.add(label);
+			labels.add(dereferenceAlias(label));
 		}
         LOGGER.log(Level.FINER, "Exact label matching looking for labels {0}", labels);
-		return this.resources.stream().filter(r -> r.isValidLabelSet(labels)).collect(Collectors.toList());
+		return labels;
 	}
 
-	public List<LockableResource> getResourcesWithLabel(String label) {
+	private String dereferenceAlias(String label) {
 		if ( labelsCache.containsKey(label) && labelAliases.containsKey(label) ) {
 			LOGGER.log(Level.FINER, "Converting label alias {0} to real label.", label);
-			label = labelAliases.get(label);
+			return labelAliases.get(label);
 		}
+		return label;
+	}
+
+	/**
+	 * Finds the resources having all the properties of a {@code prop:} expression, through the property index.
+	 */
+	public synchronized List<LockableResource> getResourcesWithProperties(String expression, EnvVars env) {
+		return propertyIndex.find(expandProperties(expression, env));
+	}
+
+	private List<String> expandProperties(String expression, EnvVars env) {
+		String expressionToEvaluate = expression.substring(Constants.PROPERTY_MARKER.length()).trim();
+		List<String> query = new ArrayList<>(Utils.getExpandedListOfVariables(
+				new LinkedHashSet<>(Arrays.asList(expressionToEvaluate.split("\\s+"))), env));
+		query.remove("");
+		LOGGER.log(Level.FINER, "Property matching looking for {0}", query);
+		return query;
+	}
+
+	/**
+	 * Finds the resources matching an {@code expr:} boolean expression over names and labels.
+	 *
+	 * @return the matching resources, none if the expression is not valid
+	 */
+	public synchronized List<LockableResource> getResourcesForLabelExpression(String expression, EnvVars env) {
+		LabelExpression compiled = compileLabelExpression(expression);
+		if (compiled == null) return new ArrayList<>();
+		return labelIndex.select(compiled.evaluate(labelIndex, labelMapper(env)));
+	}
+
+	private static LabelExpression compileLabelExpression(String expression) {
+		try {
+			return LabelExpression.compile(expression.substring(Constants.LABEL_EXPRESSION_MARKER.length()));
+		} catch (IllegalArgumentException e) {
+			LOGGER.log(Level.SEVERE, "Cannot parse label expression: {0}", e.getMessage());
+			return null;
+		}
+	}
+
+	private Function<String, String> labelMapper(EnvVars env) {
+		return atom -> dereferenceAlias(Utils.expandVariable(atom, env));
+	}
+
+	public List<LockableResource> getResourcesWithLabel(String label) {
+		label = dereferenceAlias(label);
 		List<LockableResource> found = new ArrayList<>();
-		for (LockableResource r : this.resources) {
+		for (LockableResource r : allResources()) {
 			if (r.isValidLabel(label)) found.add(r);
 		}
 		return found;
@@ -168,17 +815,142 @@ public class LockableResourcesManager extends Plugin {
 	 * Evaluates a groovy expression to find matching resources.
 	 */
 	public List<LockableResource> getResourcesForExpression(String expr, Map<String,String> params) {
-		return this.resources.stream().filter(r -> r.expressionMatches(expr, params)).collect(Collectors.toList());
+		return allResources().stream().filter(r -> r.expressionMatches(expr, params)).collect(Collectors.toList());
 	}
 
 	public LockableResource fromName(String resourceName) {
 		return resourceMapCache.get(resourceName);
 	}
 
-	public synchronized Collection<LockableResource> queue(ArrayList<LockableResourcesStruct> requiredResourcesList,
-	                                                       Queue.Item queueItem,
-	                                                       String queueItemProject /*,
-	                                                       int numRequired */) { // 0 means all
+	/**
+	 * @param itemFullName full name of the job looking for resources
+	 * @return the partitions the job may use, from its nearest folder up to the global resources
+	 */
+	public synchronized List<ResourcePartition> getPartitions(String itemFullName) {
+		List<ResourcePartition> found = new ArrayList<>();
+		if (itemFullName != null) {
+			for (int i = itemFullName.lastIndexOf('/'); i > 0; i = itemFullName.lastIndexOf('/', i - 1)) {
+				ResourcePartition p = partitions.get(itemFullName.substring(0, i));
+				if (p != null) found.add(p);
+			}
+		}
+		ResourcePartition global = partitions.get("");
+		if (global != null) found.add(global);
+		return found;
+	}
+
+	/**
+	 * Same as {@link #fromName(String)}, for a resource the given job may use.
+	 */
+	public LockableResource fromName(String resourceName, String itemFullName) {
+		LockableResource r = fromName(resourceName);
+		if (r == null || itemFullName == null) return r;
+		String scope = r.getScope();
+		return scope == null || itemFullName.startsWith(scope + "/") ? r : null;
+	}
+
+	/**
+	 * Same as {@link #getResourcesWithLabel(String)}, among the resources of the nearest folder having the label.
+	 */
+	public List<LockableResource> getResourcesWithLabel(String label, String itemFullName) {
+		if (itemFullName == null) return getResourcesWithLabel(label);
+		label = dereferenceAlias(label);
+		for (ResourcePartition p : getPartitions(itemFullName)) {
+			Collection<LockableResource> found = p.getResourcesWithLabel(label);
+			if (!found.isEmpty()) return new ArrayList<>(found);
+		}
+		return new ArrayList<>();
+	}
+
+	/**
+	 * Same as {@link #getResourcesWithLabels(String, EnvVars)}, among the resources of the nearest folder having
+	 * matching resources.
+	 */
+	public List<LockableResource> getResourcesWithLabels(String expression, EnvVars env, String itemFullName) {
+		if (itemFullName == null) return getResourcesWithLabels(expression, env);
+		List<String> labels = expandExactLabels(expression, env);
+		for (ResourcePartition p : getPartitions(itemFullName)) {
+			List<LockableResource> found = p.getResources().stream()
+					.filter(r -> r.isValidLabelSet(labels)).collect(Collectors.toList());
+			if (!found.isEmpty()) return found;
+		}
+		return new ArrayList<>();
+	}
+
+	/**
+	 * Same as {@link #getResourcesWithProperties(String, EnvVars)}, among the resources of the nearest folder
+	 * having matching resources.
+	 */
+	public synchronized List<LockableResource> getResourcesWithProperties(String expression, EnvVars env,
+	                                                                      String itemFullName) {
+		if (itemFullName == null) return getResourcesWithProperties(expression, env);
+		List<String> query = expandProperties(expression, env);
+		for (ResourcePartition p : getPartitions(itemFullName)) {
+			List<LockableResource> found = p.getResourcesWithProperties(query);
+			if (!found.isEmpty()) return found;
+		}
+		return new ArrayList<>();
+	}
+
+	/**
+	 * Same as {@link #getResourcesForLabelExpression(String, EnvVars)}, among the resources of the nearest
+	 * folder having matching resources.
+	 */
+	public synchronized List<LockableResource> getResourcesForLabelExpression(String expression, EnvVars env,
+	                                                                          String itemFullName) {
+		if (itemFullName == null) return getResourcesForLabelExpression(expression, env);
+		LabelExpression compiled = compileLabelExpression(expression);
+		if (compiled == null) return new ArrayList<>();
+		Function<String, String> mapper = labelMapper(env);
+		for (ResourcePartition p : getPartitions(itemFullName)) {
+			List<LockableResource> found = p.getResourcesForLabelExpression(compiled, mapper);
+			if (!found.isEmpty()) return found;
+		}
+		return new ArrayList<>();
+	}
+
+	/**
+	 * Same as {@link #getResourcesForExpression(String, Map)}, among the resources the given job may use.
+	 */
+	public List<LockableResource> getResourcesForExpression(String expr, Map<String,String> params, String itemFullName) {
+		if (itemFullName == null) return getResourcesForExpression(expr, params);
+		List<LockableResource> found = new ArrayList<>();
+		for (ResourcePartition p : getPartitions(itemFullName)) {
+			for (LockableResource r : p.getResources()) {
+				if (r.expressionMatches(expr, params)) found.add(r);
+			}
+		}
+		return found;
+	}
+
+	public Collection<LockableResource> queue(ArrayList<LockableResourcesStruct> requiredResourcesList,
+	                                          Queue.Item queueItem,
+	                                          String queueItemProject /*,
+	                                          int numRequired */) { // 0 means all
+		List<String> toTake = new ArrayList<>();
+		List<LockableResource> queued = selectQueued(requiredResourcesList, queueItem, queueItemProject, toTake);
+		if (queued == null) {
+			return null;
+		}
+		if (!acquireShared(toTake, QUEUE_LEASE)) {
+			LOGGER.log(Level.FINE, "{0} selected resources held by another controller, waiting.", queueItemProject);
+			unqueue(queued, queueItem.getId());
+			return null;
+		}
+		return queued;
+	}
+
+	/**
+	 * Queues the resources selected for the queue item locally. The resources it already had queued
+	 * and selects again keep their lease in the shared state store, which is only renewed when half
+	 * of it elapsed.
+	 *
+	 * @param toTake filled with the names to take in the shared state store
+	 * @return the queued resources, null if the queue item has to wait
+	 */
+	private synchronized List<LockableResource> selectQueued(List<LockableResourcesStruct> requiredResourcesList,
+	                                                         Queue.Item queueItem, String queueItemProject,
+	                                                         Collection<String> toTake) {
 		// ensure there is a resources build action available to store state on
 		LockedResourcesBuildAction action = queueItem.getAction(LockedResourcesBuildAction.class);
 		if (action == null) {
@@ -186,190 +958,143 @@ public class LockableResourcesManager extends Plugin {
 			queueItem.addAction(action);
 		}
 
-		// the almighty overall selected, all resources sent back will be in here
-		final ConcurrentMap<LockableResource, LockableResourcesStruct> overallSelected = new ConcurrentHashMap<>();
-		int overallTotalNumRequired = 0;
-
-		// check for any already queued resources that we can remove
+		// the already queued resources may be selected again
 		Set<LockableResource> selected = new HashSet<>();
 		checkCurrentResourcesStatus(selected, action.matchedResources, queueItem.getId());
 		LOGGER.log(Level.FINEST, "Initial selected removed from queue: {0}", selected);
 		selected.forEach(LockableResource::unqueue);
 
-		// now loop through the required resources and create our map
+		// translate the requests for the allocator, which only knows about names and labels
+		List<AllocationRequest> requests = new ArrayList<>(requiredResourcesList.size());
+		Map<AllocationRequest, LockableResourcesStruct> requestStructs = new IdentityHashMap<>();
 		for (LockableResourcesStruct requiredResources : requiredResourcesList) {
-			List<LockableResource> tmpSelectedQueue = Collections.synchronizedList(new ArrayList<>());
-			List<LockableResource> candidates = Collections.synchronizedList(new ArrayList<>(requiredResources.required));
-			LOGGER.log(Level.FINEST, "Initial candidates: {0}", candidates);
-
-			int numRequired = requiredResources.getRequiredNumber() <= 0 ? candidates.size() : requiredResources.getRequiredNumber();
-			overallTotalNumRequired += numRequired;
-
-			if (numRequired <= 0) {
-				LOGGER.log(Level.FINE, "Required resources already queued: {0}", tmpSelectedQueue);
-			} else {
-				List<LockableResource> availableCandidates = Collections.synchronizedList(new ArrayList<>());
-				for (LockableResource rs : candidates) {
-					if (!rs.isReserved() && !rs.isLocked() && !rs.isQueued())
-						availableCandidates.add(rs);
-					else
-						LOGGER.log(Level.FINE, "Removing resource: {0} [Reserved={1},Locked={2},Queued={3}]",
-								new Object[]{rs, rs.isReserved(), rs.isLocked(), rs.isQueued()});
-				}
-				LOGGER.log(Level.FINEST, "Available candidates*: {0}", availableCandidates);
-
-				// only use fancy logic if we don't need to lock all of them
-				if (numRequired < availableCandidates.size()) {
-					LOGGER.log(Level.FINEST, "Selecting {0} resources from {1} available", new Object[]{numRequired, availableCandidates.size()});
-					if (!loadBalancingLabels.isEmpty() && loadBalancingLabels.size() > 1) {
-						LOGGER.log(Level.FINEST, "Load balancing labels: {0}", loadBalancingLabels);
-						// now filter based on the load balancing labels parameter
-						// first break our available candidates into a list for each LB label
-						Map<String, List<LockableResource>> groups = new HashMap<>(loadBalancingLabels.size() + 1);
-						for (LockableResource r : availableCandidates) {
-							boolean foundLabel = false;
-							for (String label : loadBalancingLabels) {
-								if (r.isValidLabel(label)) {
-									foundLabel = true;
-									if (!groups.containsKey(label))
-										groups.put(label, new ArrayList<>());
-									groups.get(label).add(r);
-									break;
-								}
-							}
-							if (!foundLabel) {
-								if (!groups.containsKey(null)) groups.put(null, new ArrayList<>());
-								groups.get(null).add(r);
-							}
-						}
-						LOGGER.log(Level.FINER, "Load Balancing Groups: {0}", groups);
-						// now repeatedly select a candidate resource from the label with the lowest current usage
-						boolean resourcesLeft = true;
-						while (tmpSelectedQueue.size() < numRequired && resourcesLeft) {
-							resourcesLeft = false;
-							double lowestUsage = 2;
-							String lowestUsageLabel = null;
-							for (String label : groups.keySet()) {
-								if (groups.get(label).size() > 0) {
-									double usage = calculateLbLabelUsage(label);
-									if (usage < lowestUsage) {
-										resourcesLeft = true;
-										lowestUsage = usage;
-										lowestUsageLabel = label;
-									}
-								}
-							}
-							LOGGER.log(Level.FINEST, "Lowest usage label: {0}", lowestUsageLabel);
-							if (resourcesLeft) {
-								List<LockableResource> group = groups.get(lowestUsageLabel);
-								LockableResource r = selectResourceToUse(group);
-								group.remove(r);
-								tmpSelectedQueue.add(r);
-								r.setQueued(queueItem.getId(), queueItemProject);
-								LOGGER.log(Level.FINER, "Queued lb resource lock on: {0}", r);
-							}
-						}
-					} else {
-						// create a map of candidates by label match so we can use the most selected and work down
-						TreeMap<Double, List<LockableResource>> availableCandidatesMap = new TreeMap<>(Collections.reverseOrder());
-						if (requiredResources.usePercentMatching) {
-                            LOGGER.log(Level.FINEST, "Using percent matching...");
-							for (LockableResource r : availableCandidates) {
-								int i = getResourcesNumberOfMatchedLabels(r, requiredResources.requiredNames, requiredResources.env);
-								LOGGER.log(Level.FINE, "Resource {0} matched labels: {1} / {2}",
-										new Object[]{r.getName(), i, r.getLabelSet().size()});
-								if (i == 0 || r.getLabelSet().size() == 0 || i > r.getLabelSet().size()) {
-									// there was a matched name or groovy script, lets not use this
-									LOGGER.log(Level.FINEST, "Resource {0} has an incompatibility with label matching, skipping...", r.getName());
-									availableCandidatesMap.clear();
-									availableCandidatesMap.put(0.0, availableCandidates);
-									break;
-								}
-								// alright, we should be good to work through the matches
-								double percentMatch = ((double) i) / ((double) r.getLabelSet().size());
-								if (availableCandidatesMap.containsKey(percentMatch)) {
-									LOGGER.log(Level.FINEST, "Adding resource {0} to list[{1}]", new Object[]{r.getName(), percentMatch});
-									availableCandidatesMap.get(percentMatch).add(r);
-								} else {
-									LOGGER.log(Level.FINEST, "Creating list[{1}] with resource {0}", new Object[]{r.getName(), percentMatch});
-									availableCandidatesMap.put(percentMatch, new ArrayList<>(Collections.singletonList(r)));
-								}
-							}
-						} else {
-                            LOGGER.log(Level.FINEST, "Not using percent matching...");
-							availableCandidatesMap.clear();
-							availableCandidatesMap.put(0.0, availableCandidates);
-						}
-						LOGGER.log(Level.FINEST, "Available candidates map*: {0}", availableCandidatesMap);
-						for (Map.Entry<Double, List<LockableResource>> entry : availableCandidatesMap.entrySet()) {
-							LOGGER.log(Level.FINEST, "Working through map entry[{0}]*: {1}", new Object[]{entry.getValue().size(), entry});
-							while (tmpSelectedQueue.size() < numRequired && entry.getValue().size() > 0) {
-								final LockableResource r = selectResourceToUse(entry.getValue());
-								entry.getValue().remove(r);
-								tmpSelectedQueue.add(r);
-								r.setQueued(queueItem.getId(), queueItemProject);
-								LOGGER.log(Level.FINER, "Queued resource lock on: {0}", r);
-							}
-							// hard check to see if we got everything
-							if (tmpSelectedQueue.size() >= numRequired) {
-								LOGGER.log(Level.FINEST, "Found all needed resources [{0}/{1}]: {2}",
-										new Object[]{tmpSelectedQueue.size(), numRequired, tmpSelectedQueue});
-								break;
-							}
-						}
-					}
-				} else {
-					LOGGER.log(Level.FINER, "Selecting all available specified resources.");
-					tmpSelectedQueue.addAll(availableCandidates.stream().collect(Collectors.toList()));
-				}
-
-				LOGGER.log(Level.FINE, "Selected resources: {0}", tmpSelectedQueue);
+			List<String> candidates = new ArrayList<>(requiredResources.required.size());
+			for (LockableResource r : requiredResources.required) {
+				candidates.add(r.getName());
 			}
+			AllocationRequest request = new AllocationRequest(candidates, requiredResources.getRequiredNumber(),
+					requiredResources.usePercentMatching,
+					requiredResources.usePercentMatching ? resolveMatchLabels(requiredResources) : null);
+			LOGGER.log(Level.FINEST, "Allocation request: {0}", request);
+			requests.add(request);
+			requestStructs.put(request, requiredResources);
+		}
 
-			for (LockableResource r : tmpSelectedQueue) {
-				if (overallSelected.containsKey(r)) {
-					LOGGER.log(Level.FINE, "Trying to lock the same resource already selected: {0}", r);
-					continue;
+		long now = System.currentTimeMillis();
+		ManagedResourcePool pool = new ManagedResourcePool(queueItem.getId(), queueItemProject);
+		waitQueue.setAgingThreshold(waitQueueAgingSeconds * 1000L);
+		pool.held = waitQueue.getHeld(queueItem.getId(), pool, now);
+		if (!pool.held.isEmpty()) {
+			LOGGER.log(Level.FINEST, "Resources held for items waiting longer: {0}", pool.held);
+		}
+		Map<String, AllocationRequest> overallSelected = getAllocator().allocate(requests, pool);
+		if (overallSelected == null) {
+			LOGGER.log(Level.FINEST, "{0} could not get all required resources, waiting.", queueItemProject);
+			if (!selected.isEmpty()) {
+				givenBack(selected);
+			}
+			waitQueue.waiting(queueItem.getId(), queueItem.getInQueueSince(), requests, now);
+			Set<String> keys = new HashSet<>();
+			for (LockableResourcesStruct requiredResources : requiredResourcesList) {
+				for (LockableResource r : requiredResources.required) {
+					keys.addAll(poolKeys(r));
 				}
-				overallSelected.put(r, requiredResources);
 			}
-		}
-		// if did not get wanted amount or did not get all
-		if (overallSelected.size() != overallTotalNumRequired) {
-			LOGGER.log(Level.FINEST, "{0} found {1} resource(s) to queue. Waiting for correct amount: {2}.",
-					new Object[]{queueItemProject, overallSelected.size(), overallTotalNumRequired});
-			// just to be sure, clean up since we wont use it now
-			overallSelected.keySet().forEach(LockableResource::unqueue);
+			blockedItems.blocked(queueItem.getId(), keys, now);
 			return null;
 		}
-		LOGGER.log(Level.FINER, "Queuing locks for selected resources: {0}", overallSelected);
+		if (waitQueue.getPosition(queueItem.getId()) > 0) {
+			// what was held for it and is not taken is free
+			notifyLockWaiters();
+		}
+		waitQueue.remove(queueItem.getId());
+		blockedItems.remove(queueItem.getId());
+		LOGGER.log(Level.FINER, "Queuing locks for selected resources: {0}", overallSelected.keySet());
 		action.matchedResources.clear();
-		for (LockableResource r : overallSelected.keySet()) {
-			LockableResourcesStruct rsc = overallSelected.get(r);
+		List<LockableResource> queued = new ArrayList<>(overallSelected.size());
+		for (Map.Entry<String, AllocationRequest> entry : overallSelected.entrySet()) {
+			LockableResource r = fromName(entry.getKey());
 			r.setQueued(queueItem.getId(), queueItemProject);
 			action.matchedResources.add(r.getName());
-			action.matchedResourcesMap.put(r.getName(), rsc);
+			action.matchedResourcesMap.put(r.getName(), requestStructs.get(entry.getValue()));
+			queued.add(r);
+			Long taken = queueLeaseTaken.get(r.getName());
+			if (!selected.remove(r) || taken == null || now - taken > QUEUE_LEASE / 2) {
+				toTake.add(r.getName());
+				queueLeaseTaken.put(r.getName(), now);
+			}
+		}
+		changed(queued);
+		if (!selected.isEmpty()) {
+			// queued for it before and not selected again
+			givenBack(selected);
 		}
-		return overallSelected.keySet();
+		return queued;
 	}
 
-	private synchronized LockableResource selectResourceToUse(List<LockableResource> resources) {
-		if (useResourcesEvenly) {
-			return resources.get(rand.nextInt(resources.size()));
+	/**
+	 * Gives back the resources queued for a queue item which could not take them in the shared state store.
+	 */
+	private synchronized void unqueue(Collection<LockableResource> queued, long queueItemId) {
+		List<LockableResource> unqueued = new ArrayList<>(queued.size());
+		for (LockableResource r : queued) {
+			if (r.isQueuedByTask(queueItemId)) {
+				r.unqueue();
+				unqueued.add(r);
+			}
+		}
+		givenBack(unqueued);
+	}
+
+	/**
+	 * Gives back the resources queued for a cancelled queue item, without waiting for their queuing to time out.
+	 */
+	public synchronized void cancelQueued(long queueItemId) {
+		unqueue(new ArrayList<>(allResources()), queueItemId);
+	}
+
+	/**
+	 * Finishes giving back resources locally: invalidates what depends on them, releases them in the
+	 * shared state store and lets the waiting calls try again.
+	 */
+	private void givenBack(Collection<LockableResource> resources) {
+		changed(resources);
+		resources.forEach(this::releaseSharedIfFree);
+		resources.forEach(this::removeIfDeregistered);
+		notifyLockWaiters();
+	}
+
+
+	public synchronized ResourceAllocator getAllocator() {
+		if (allocator == null) {
+			allocator = new DefaultResourceAllocator(getSelectionMode());
 		}
-		return resources.get(0);
+		return allocator;
+	}
+
+	/**
+	 * Replaces the allocation strategy until the next configuration change.
+	 */
+	public synchronized void setAllocator(ResourceAllocator allocator) {
+		this.allocator = allocator;
 	}
 
-	private int getResourcesNumberOfMatchedLabels(LockableResource resource, String requiredNames, EnvVars env) {
-		requiredNames = Util.fixEmptyAndTrim(requiredNames);
-		if (requiredNames == null) return 0;
-		if (requiredNames.startsWith(Constants.GROOVY_LABEL_MARKER)) {
+	/**
+	 * Resolves the labels a request asks for, used to score candidates with percent matching.
+	 *
+	 * @return the requested labels, or null if the request is not made of labels
+	 */
+	private Set<String> resolveMatchLabels(LockableResourcesStruct requiredResources) {
+		String requiredNames = Util.fixEmptyAndTrim(requiredResources.requiredNames);
+		if (requiredNames == null || requiredNames.startsWith(Constants.GROOVY_LABEL_MARKER)
+				|| requiredNames.startsWith(Constants.PROPERTY_MARKER)
+				|| requiredNames.startsWith(Constants.LABEL_EXPRESSION_MARKER)) {
 			// not supported yet, will have to filter out text
-			return 0;
+			return null;
 		} else if (requiredNames.startsWith(Constants.EXACT_LABEL_MARKER)) {
 			requiredNames = requiredNames.replace(Constants.EXACT_LABEL_MARKER, "");
 		} // else
-		int numMatches = 0;
+		Set<String> matchLabels = new LinkedHashSet<>();
 		for (String name : requiredNames.split("\\s+")) {
 			if (name.startsWith("%") && name.endsWith("%")){
 				name = "${" + name.substring(1, name.length() - 1) + "}";
@@ -377,12 +1102,9 @@ public class LockableResourcesManager extends Plugin {
 			if (labelsCache.containsKey(name) && labelAliases.containsKey(name)) {
 				name = labelAliases.get(name);
 			}
-			name = env.expand(name);
-			if (resource.getLabelSet().contains(name)) {
-				numMatches++;
-			}
+			matchLabels.add(requiredResources.env.expand(name));
 		}
-		return numMatches;
+		return matchLabels;
 	}
 
 	// Adds already selected (in previous queue round) resources to 'selected'
@@ -391,29 +1113,42 @@ public class LockableResourcesManager extends Plugin {
 														  Collection<String> matchedResources,
 														  long queueId) {
 		for (String rName : matchedResources) {
-			for (LockableResource r : resources) {
-				if ( r.getName().equals(rName) ) {
-					if ( r.isQueuedByTask(queueId) ) {
-						selected.add(r);
-					}
-					break;
-				}
+			LockableResource r = fromName(rName);
+			if ( r != null && r.isQueuedByTask(queueId) ) {
+				selected.add(r);
 			}
 		}
 	}
 
-	public synchronized boolean lock(Collection<String> resourceNames, AbstractBuild<?, ?> build) {
+	public boolean lock(Collection<String> resourceNames, AbstractBuild<?, ?> build) {
 		ArrayList<LockableResource> resourcesToLock = new ArrayList<>(resourceNames.size());
-		for (String rName : resourceNames) {
-			LockableResource r = fromName(rName);
-			if (r == null || r.isReserved() || r.isLocked()) {
-				return false;
+		synchronized (this) {
+			for (String rName : resourceNames) {
+				LockableResource r = fromName(rName);
+				if (r == null || r.isReserved() || r.isLocked()) {
+					return false;
+				}
+				resourcesToLock.add(r);
+			}
+			for (LockableResource r : resourcesToLock) {
+				r.unqueue();
+				r.setBuild(build);
+				queueLeaseTaken.remove(r.getName());
 			}
-			resourcesToLock.add(r);
+			changed(resourcesToLock);
 		}
-		for (LockableResource r : resourcesToLock) {
-			r.unqueue();
-			r.setBuild(build);
+		if (!acquireShared(resourceNames, leaseSeconds * 1000L)) {
+			synchronized (this) {
+				List<LockableResource> unlocked = new ArrayList<>(resourcesToLock.size());
+				for (LockableResource r : resourcesToLock) {
+					if (r.getBuild() == build) {
+						r.setBuild(null);
+						unlocked.add(r);
+					}
+				}
+				givenBack(unlocked);
+			}
+			return false;
 		}
 		return true;
 	}
@@ -421,20 +1156,111 @@ public class LockableResourcesManager extends Plugin {
 	public synchronized void unlock(List<LockableResource> resources, AbstractBuild<?, ?> build) {
 		for (LockableResource r : resources) {
 			if (build == null || build == r.getBuild()) {
+				if (r.isLocked()) {
+					holdTimes.record(r.getName(), r.getLabelSet(), System.currentTimeMillis() - r.getLockedAt());
+				}
 				r.unqueue();
 				r.setBuild(null);
+				changed(Collections.singleton(r));
+				releaseSharedIfFree(r);
+				removeIfDeregistered(r);
 			}
 		}
+		notifyLockWaiters();
 	}
 
-	public synchronized boolean reserve(List<LockableResource> resources, String userName) {
-		for (LockableResource r : resources) {
-			if (r.isReserved() || r.isLocked() || r.isQueued()) {
-				return false;
+	/**
+	 * Renews the leases of the locks held by running builds and reclaims the expired ones,
+	 * which were held by builds that ended without unlocking them. Locks held longer than
+	 * the maximum hold time are reclaimed too, even if their build still runs, as a hung
+	 * build would otherwise renew them forever.
+	 */
+	public void checkLeases() {
+		List<String> renewed = new ArrayList<>();
+		long lease = expireLeases(renewed);
+		// renewed in the shared state store outside of the lock
+		renewShared(renewed, lease);
+	}
+
+	/**
+	 * Reclaims the expired locks and renews the leases of the others locally.
+	 *
+	 * @param renewed filled with the names to renew in the shared state store
+	 * @return the lease in milliseconds
+	 */
+	private synchronized long expireLeases(Collection<String> renewed) {
+		// queuing times out without notice
+		new ArrayList<>(deregistered).forEach(this::removeIfDeregistered);
+		long lease = leaseSeconds * 1000L;
+		long maxHold = maxHoldSeconds * 1000L;
+		if (lease <= 0 && maxHold <= 0) {
+			return lease;
+		}
+		long now = System.currentTimeMillis();
+		List<LockableResource> expired = new ArrayList<>();
+		for (LockableResource r : allResources()) {
+			AbstractBuild<?, ?> build = r.getBuild();
+			if (build == null) {
+				continue;
+			}
+			if (maxHold > 0 && now - r.getLockedAt() > maxHold) {
+				LOGGER.log(Level.WARNING, "Reclaiming {0} from {1}, it was held longer than {2} seconds",
+						new Object[]{r.getName(), build.getFullDisplayName(), maxHoldSeconds});
+				reclaimLog.record(new ReclaimLog.Entry(now, r.getName(), build.getFullDisplayName(),
+						now - r.getLockedAt(), now - r.getLeaseRenewed()));
+				expired.add(r);
+			} else if (lease <= 0) {
+				continue;
+			} else if (isRunning(build)) {
+				r.renewLease(now);
+				renewed.add(r.getName());
+			} else if (now - r.getLeaseRenewed() > lease) {
+				LOGGER.log(Level.WARNING, "Reclaiming {0} from {1}, its lease expired",
+						new Object[]{r.getName(), build.getFullDisplayName()});
+				reclaimLog.record(new ReclaimLog.Entry(now, r.getName(), build.getFullDisplayName(),
+						now - r.getLockedAt(), now - r.getLeaseRenewed()));
+				expired.add(r);
 			}
 		}
-		for (LockableResource r : resources) {
-			r.setReservedBy(userName);
+		if (!expired.isEmpty()) {
+			unlock(expired, null);
+		}
+		return lease;
+	}
+
+	/**
+	 * @return true while the build is running or in post production on a live executor
+	 */
+	private static boolean isRunning(AbstractBuild<?, ?> build) {
+		Executor executor = build.getExecutor();
+		return build.isLogUpdated() && executor != null && executor.isAlive();
+	}
+
+	public boolean reserve(List<LockableResource> resources, String userName) {
+		List<String> names = new ArrayList<>(resources.size());
+		synchronized (this) {
+			for (LockableResource r : resources) {
+				if (r.isReserved() || r.isLocked() || r.isQueued()) {
+					return false;
+				}
+			}
+			for (LockableResource r : resources) {
+				r.setReservedBy(userName);
+				names.add(r.getName());
+			}
+		}
+		if (!acquireShared(names, 0)) {
+			synchronized (this) {
+				List<LockableResource> unreserved = new ArrayList<>(resources.size());
+				for (LockableResource r : resources) {
+					if (Objects.equals(userName, r.getReservedBy())) {
+						r.unReserve();
+						unreserved.add(r);
+					}
+				}
+				givenBack(unreserved);
+			}
+			return false;
 		}
 		save();
 		return true;
@@ -442,12 +1268,18 @@ public class LockableResourcesManager extends Plugin {
 
 	public synchronized void unreserve(List<LockableResource> resources) {
 		resources.forEach(LockableResource::unReserve);
+		resources.forEach(this::releaseSharedIfFree);
+		resources.forEach(this::removeIfDeregistered);
 		save();
+		notifyLockWaiters();
 	}
 
 	public synchronized void reset(List<LockableResource> resources) {
 		resources.forEach(LockableResource::reset);
+		resources.forEach(this::releaseSharedIfFree);
+		resources.forEach(this::removeIfDeregistered);
 		save();
+		notifyLockWaiters();
 	}
 
 	@Override
@@ -455,8 +1287,37 @@ public class LockableResourcesManager extends Plugin {
 		String loadBalancingLabelsString = json.getString("loadBalancingLabels").trim();
 		loadBalancingLabels.clear();
 		Collections.addAll(loadBalancingLabels, loadBalancingLabelsString.split(RESOURCES_SPLIT_REGEX));
-		useResourcesEvenly = json.getBoolean("useResourcesEvenly");
+		try {
+			selectionMode = ResourceSelectionMode.valueOf(json.getString("selectionMode"));
+		} catch (IllegalArgumentException e) {
+			LOGGER.log(Level.WARNING, "Unknown resource selection mode: {0}", json.getString("selectionMode"));
+			selectionMode = ResourceSelectionMode.FIRST;
+		}
+		useResourcesEvenly = selectionMode == ResourceSelectionMode.RANDOM;
+		allocator = null;
+		stateStoreDirectory = Util.fixEmptyAndTrim(json.optString("stateStoreDirectory", null));
+		stateStore = null;
         usePercentMatchingDefault = json.getBoolean("usePercentMatchingDefault");
+		waitQueueAgingSeconds = Math.max(0, json.optInt("waitQueueAgingSeconds", 0));
+		int lease = json.optInt("leaseSeconds", 0);
+		lease = lease <= 0 ? 0 : Math.max(MIN_LEASE_SECONDS, lease);
+		if (lease == 0 && leaseSeconds != 0) {
+			// nobody renews the shared leases of the current locks anymore
+			List<String> locked = new ArrayList<>();
+			for (LockableResource r : allResources()) {
+				if (r.isLocked()) {
+					locked.add(r.getName());
+				}
+			}
+			Timer.get().submit(() -> renewShared(locked, 0));
+		}
+		leaseSeconds = lease;
+		maxHoldSeconds = Math.max(0, json.optInt("maxHoldSeconds", 0));
+		int days = Math.min(MAX_UTILIZATION_HISTORY_DAYS, Math.max(0, json.optInt("utilizationHistoryDays", 1)));
+		if (days != utilizationHistoryDays) {
+			utilizationHistoryDays = days;
+			utilization = null;
+		}
 
 		List<KeyValuePair> aliases = req.bindJSONToList(KeyValuePair.class, json.get("labelAliases"));
 		labelAliases.clear();
@@ -466,19 +1327,145 @@ public class LockableResourcesManager extends Plugin {
 			}
 		}
 
+		String file = Util.fixEmptyAndTrim(json.optString("resourcesFile", null));
+		if (!Objects.equals(file, resourcesFile)) {
+			stopResourcesFileWatcher();
+			resourcesFile = file;
+			startResourcesFileWatcher();
+		}
+		if (resourcesFile != null) {
+			// the file defines the resources, changes made on the form would be lost on its next change
+			save();
+			notifyLockWaiters();
+			return;
+		}
+
 		List<LockableResource> newResources = req.bindJSONToList(LockableResource.class, json.get("resources"));
 		for (LockableResource r : newResources) {
 			LockableResource old = fromName(r.getName());
 			if (old != null) {
-				r.setBuild(old.getBuild());
-				r.setQueued(r.getQueueItemId(), r.getQueueItemProject());
+				r.copyState(old);
 			}
 		}
 		resources.clear();
 		resources.addAll(newResources);
 		save();
+		notifyLockWaiters();
 	}
 	
+	/**
+	 * Applies an imported list of resources: adds the new ones, updates the changed ones in place so that
+	 * their lock, queue and reservation state is kept, and removes the missing ones if asked to, unless
+	 * they are in use. Saves once, and only if something changed.
+	 *
+	 * @param dryRun true to only compute the differences
+	 */
+	public synchronized InventoryDiff importResources(Collection<LockableResource> imported, boolean removeMissing,
+	                                                 boolean dryRun) {
+		InventoryDiff diff = new InventoryDiff(resources, imported, removeMissing);
+		if (dryRun || diff.isEmpty()) {
+			return diff;
+		}
+		// only the resources which change are reindexed, an import may touch a few of many resources
+		for (Map.Entry<LockableResource, LockableResource> e : diff.getChanged().entrySet()) {
+			LockableResource r = e.getKey();
+			Set<String> keys = indexKeys(r);
+			List<String> oldLabels = new ArrayList<>(r.getLabelSet());
+			Map<String, String> oldProperties = new HashMap<>(r.getPropertiesAsMap());
+			String oldScope = Util.fixNull(r.getScope());
+			changed(Collections.singleton(r));
+			r.updateDefinition(e.getValue());
+			reindex(r, oldLabels, oldProperties, oldScope);
+			changed(Collections.singleton(r));
+			forgetUnused(keys);
+		}
+		for (LockableResource r : diff.getRemoved()) {
+			resources.remove(r);
+			changed(Collections.singleton(r));
+			unindex(r);
+		}
+		for (LockableResource r : diff.getAdded()) {
+			LockableResource ephemeral = ephemeralResources.remove(r.getName());
+			if (ephemeral != null) {
+				LOGGER.log(Level.WARNING, "Ephemeral resource {0} replaced by the configured resource of that name", r.getName());
+				// the builds, queue items and users holding it keep it
+				r.copyState(ephemeral);
+				if (ephemeral.isReserved()) {
+					r.setReservedBy(ephemeral.getReservedBy());
+				}
+				deregistered.remove(ephemeral);
+				changed(Collections.singleton(ephemeral));
+				unindex(ephemeral);
+			}
+			resources.add(r);
+			index(r);
+			changed(Collections.singleton(r));
+		}
+		linkAliases();
+		LOGGER.log(Level.INFO, "Imported resources: {0}", diff);
+		persist();
+		notifyLockWaiters();
+		return diff;
+	}
+
+	/**
+	 * Applies the resources of the watched file, unless the watcher was replaced or stopped meanwhile.
+	 *
+	 * @return null if the watcher is stale
+	 */
+	private synchronized InventoryDiff importResourcesFile(int watcherGeneration, List<LockableResource> imported) {
+		if (watcherGeneration != resourcesFileGeneration) {
+			return null;
+		}
+		return importResources(imported, true, false);
+	}
+
+	/**
+	 * Adds a resource until it is deregistered, e.g. a cloud device leased for a few minutes. It is not
+	 * saved with the configuration and is lost on restart; only the caches it belongs to are updated.
+	 *
+	 * @return false if there already is a resource of that name
+	 */
+	public synchronized boolean registerEphemeral(LockableResource r) {
+		if (fromName(r.getName()) != null) {
+			return false;
+		}
+		r.setEphemeral(true);
+		ephemeralResources.put(r.getName(), r);
+		index(r);
+		linkAliases();
+		changed(Collections.singleton(r));
+		LOGGER.log(Level.FINE, "Registered ephemeral resource {0}", r.getName());
+		notifyLockWaiters();
+		return true;
+	}
+
+	/**
+	 * Removes an ephemeral resource. One locked, queued or reserved is removed when it is released, and is not
+	 * given to anybody else meanwhile.
+	 *
+	 * @return false if there is no ephemeral resource of that name
+	 */
+	public synchronized boolean deregisterEphemeral(String name) {
+		LockableResource r = ephemeralResources.get(name);
+		if (r == null) {
+			return false;
+		}
+		deregistered.add(r);
+		removeIfDeregistered(r);
+		return true;
+	}
+
+	private void removeIfDeregistered(LockableResource r) {
+		if (!r.isFree() || !deregistered.remove(r)) {
+			return;
+		}
+		ephemeralResources.remove(r.getName());
+		changed(Collections.singleton(r));
+		unindex(r);
+		LOGGER.log(Level.FINE, "Removed ephemeral resource {0}", r.getName());
+	}
+
 	public synchronized boolean addResourceLabel( LockableResource res, String label ) {
 		Set<String> resLabels = res.getModifyableLabelSet();
 		boolean result = resLabels.add(label);
@@ -510,39 +1497,235 @@ public class LockableResourcesManager extends Plugin {
 
 	@Override
 	public synchronized void save() {
+		if ( persist() ) {
+			buildCaches();
+		}
+	}
+
+	/**
+	 * Saves the configuration without rebuilding the caches, for changes which already updated them.
+	 */
+	private boolean persist() {
 		try {
 			super.save();
-			buildCaches();
+			return true;
 		}
 		catch ( IOException ex ) {
 			LOGGER.log(Level.SEVERE, "Unable to save configuration!", ex);
+			return false;
+		}
+	}
+
+	/**
+	 * Takes the resources in the store shared with other controllers, all or none of them. The
+	 * store may be a file on a network share: this must not be called holding this monitor, the
+	 * resources are marked taken locally before and given back locally if this fails.
+	 *
+	 * @param leaseMillis how long they stay taken without being renewed, 0 for no expiry
+	 * @return false if another controller holds one of them
+	 */
+	private boolean acquireShared(Collection<String> names, long leaseMillis) {
+		if (names.isEmpty()) {
+			return true;
+		}
+		synchronized (storeLock) {
+			ResourceStateStore store = releasePending();
+			List<String> acquired = new ArrayList<>(names.size());
+			try {
+				for (String name : names) {
+					if (!store.acquire(name, leaseMillis)) {
+						LOGGER.log(Level.FINE, "Resource {0} is held by controller {1}",
+								new Object[]{name, store.getHolder(name)});
+						break;
+					}
+					acquired.add(name);
+				}
+			} catch (IOException ex) {
+				LOGGER.log(Level.SEVERE, "Unable to take resources in the shared state store", ex);
+			}
+			if (acquired.size() == names.size()) {
+				releaseIfGivenBack(store, acquired);
+				return true;
+			}
+			for (String name : acquired) {
+				release(store, name);
+			}
+		}
+		HeldElsewhereCache cache = heldElsewhere;
+		if (cache != null) {
+			cache.refreshLater();
+		}
+		return false;
+	}
+
+	/**
+	 * Renews the leases of resources this controller holds, outside of this monitor like {@link #acquireShared}.
+	 *
+	 * @param leaseMillis how long they stay taken without being renewed, 0 for no expiry
+	 */
+	private void renewShared(Collection<String> names, long leaseMillis) {
+		if (names.isEmpty()) {
+			return;
+		}
+		synchronized (storeLock) {
+			ResourceStateStore store = releasePending();
+			List<String> renewed = new ArrayList<>(names.size());
+			for (String name : names) {
+				try {
+					if (store.acquire(name, leaseMillis)) {
+						renewed.add(name);
+					} else {
+						LOGGER.log(Level.WARNING, "Lease of {0} was taken by controller {1}",
+								new Object[]{name, store.getHolder(name)});
+					}
+				} catch (IOException ex) {
+					LOGGER.log(Level.SEVERE, "Unable to renew " + name + " in the shared state store", ex);
+				}
+			}
+			releaseIfGivenBack(store, renewed);
+		}
+	}
+
+	/**
+	 * Releases the resources which were given back locally while they were taken in the store:
+	 * their release was flushed before they were taken, it has to be made again.
+	 */
+	private void releaseIfGivenBack(ResourceStateStore store, Collection<String> names) {
+		List<String> givenBack = new ArrayList<>();
+		synchronized (this) {
+			for (String name : names) {
+				LockableResource r = fromName(name);
+				if (r == null || r.isFree()) {
+					givenBack.add(name);
+				}
+			}
+		}
+		for (String name : givenBack) {
+			release(store, name);
+		}
+	}
+
+	private void releaseSharedIfFree(LockableResource r) {
+		if (!r.isLocked() && !r.isReserved() && !r.isQueued()) {
+			releaseShared(r.getName());
+		}
+	}
+
+	/**
+	 * Releases the resource in the shared state store soon, on another thread since this monitor is held.
+	 */
+	private void releaseShared(String name) {
+		queueLeaseTaken.remove(name);
+		if (pendingReleases.add(name) && pendingReleases.size() == 1) {
+			Timer.get().submit(this::releasePending);
+		}
+	}
+
+	/**
+	 * Releases in the shared state store the resources given back locally meanwhile. The store
+	 * round trips are made in order: a release is never made after a later take of the resource.
+	 *
+	 * @return the shared state store
+	 */
+	private ResourceStateStore releasePending() {
+		synchronized (storeLock) {
+			ResourceStateStore store;
+			List<String> names;
+			synchronized (this) {
+				store = getStateStore();
+				names = new ArrayList<>(pendingReleases);
+				pendingReleases.clear();
+			}
+			for (String name : names) {
+				release(store, name);
+			}
+			return store;
+		}
+	}
+
+	private static void release(ResourceStateStore store, String name) {
+		try {
+			store.release(name);
+		} catch (IOException ex) {
+			LOGGER.log(Level.SEVERE, "Unable to release " + name + " in the shared state store", ex);
+		}
+	}
+
+	/**
+	 * Answers from the last reading of the shared state store, which is read again in the background
+	 * when older than {@link #HELD_ELSEWHERE_TTL}, so that no file is opened while holding this monitor.
+	 * A stale answer only delays or retries a selection, {@link #acquireShared} decides.
+	 *
+	 * @return true if another controller holds the resource
+	 */
+	private boolean isHeldElsewhere(String name) {
+		ResourceStateStore store = getStateStore();
+		if (store instanceof LocalResourceStateStore) {
+			return false;
+		}
+		HeldElsewhereCache cache = heldElsewhere;
+		if (cache == null || cache.getStore() != store) {
+			cache = new HeldElsewhereCache(store, HELD_ELSEWHERE_TTL, Timer.get());
+			heldElsewhere = cache;
+		}
+		return cache.isHeldElsewhere(name);
+	}
+
+	/**
+	 * Invalidates the cached blockages and blockage reports depending on the given resources.
+	 */
+	private void changed(Collection<LockableResource> changedResources) {
+		generation++;
+		for (LockableResource r : changedResources) {
+			blockedItems.changed(poolKeys(r));
 		}
 	}
 
+	/**
+	 * The pools a resource belongs to for {@link BlockedItemCache}: its labels, or its name if it has none.
+	 */
+	private static Collection<String> poolKeys(LockableResource r) {
+		Set<String> labels = r.getLabelSet();
+		return labels.isEmpty() ? Collections.singleton(r.getName()) : labels;
+	}
+
 	private synchronized void buildCaches() {
+		generation++;
+		blockedItems.changedAll();
 		labelsCache.clear();
 		lbLabelsCache.clear();
 		resourceMapCache.clear();
+		partitions.clear();
+		environmentCache.clear();
+		propertyIndex.clear();
+		labelIndex.clear();
 		for ( LockableResource r : resources ) {
-			boolean foundLbLabel = false;
-			for ( String label : r.getLabelSet() ) {
-				if ( !labelsCache.containsKey(label) ) labelsCache.put(label, new HashSet<LockableResource>());
-				labelsCache.get(label).add(r);
-
-				if (loadBalancingLabels.contains(label)) {
-					foundLbLabel = true;
-					if ( !lbLabelsCache.containsKey(label) ) lbLabelsCache.put(label, new HashSet<LockableResource>());
-					lbLabelsCache.get(label).add(r);
-				}
-			}
-			if ( !foundLbLabel ) {
-				if ( !lbLabelsCache.containsKey(null) ) lbLabelsCache.put(null, new HashSet<LockableResource>());
-				lbLabelsCache.get(null).add(r);
+			index(r);
+		}
+		for ( Iterator<LockableResource> it = ephemeralResources.values().iterator(); it.hasNext(); ) {
+			LockableResource r = it.next();
+			if ( resourceMapCache.containsKey(r.getName()) ) {
+				LOGGER.log(Level.WARNING, "Ephemeral resource {0} replaced by the configured resource of that name", r.getName());
+				it.remove();
+				deregistered.remove(r);
+			} else {
+				index(r);
 			}
-			resourceMapCache.put(r.getName(), r);
 		}
 
-		// process label aliases
+		// the pools and histories of the resources and labels which are gone
+		Set<String> keys = new HashSet<>(resourceMapCache.keySet());
+		keys.addAll(labelsCache.keySet());
+		holdTimes.retain(keys);
+		blockedItems.retain(keys);
+
+		linkAliases();
+	}
+
+	/**
+	 * Makes the aliases of the cached labels refer to the resources of these labels.
+	 */
+	private void linkAliases() {
 		for ( String alias : labelAliases.keySet() ) {
 			if ( !labelsCache.containsKey(alias) && fromName(alias) == null ) {
 				String aliasedLabel = labelAliases.get(alias);
@@ -553,6 +1736,166 @@ public class LockableResourcesManager extends Plugin {
 		}
 	}
 
+	/**
+	 * Adds the resource to the caches, one label at a time.
+	 */
+	private void index(LockableResource r) {
+		labelIndex.add(r);
+		r.indexProperties();
+		propertyIndex.add(r);
+		String scope = Util.fixNull(r.getScope());
+		partitions.computeIfAbsent(scope, ResourcePartition::new).add(r);
+		boolean foundLbLabel = false;
+		for ( String label : r.getLabelSet() ) {
+			labelsCache.computeIfAbsent(label, k -> new LinkedHashSet<>()).add(r);
+			if (loadBalancingLabels.contains(label)) {
+				foundLbLabel = true;
+				lbLabelsCache.computeIfAbsent(label, k -> new LinkedHashSet<>()).add(r);
+			}
+		}
+		if ( !foundLbLabel ) {
+			lbLabelsCache.computeIfAbsent(null, k -> new LinkedHashSet<>()).add(r);
+		}
+		resourceMapCache.put(r.getName(), r);
+		environmentCache.put(r.getName(), new ResourceEnvironment(r));
+	}
+
+	/**
+	 * Updates the caches of a resource whose definition changed, in place: it keeps its place among the
+	 * resources of its labels, properties and folder, which stay in configuration order as after
+	 * {@link #buildCaches()}.
+	 */
+	private void reindex(LockableResource r, Collection<String> oldLabels, Map<String, String> oldProperties,
+	                     String oldScope) {
+		labelIndex.update(r, oldLabels);
+		propertyIndex.update(r, oldProperties, labelIndex);
+		String scope = Util.fixNull(r.getScope());
+		if (scope.equals(oldScope)) {
+			partitions.get(scope).update(r, oldLabels, oldProperties);
+		} else {
+			// rare enough to build both partitions again, in configuration order
+			buildPartition(oldScope);
+			buildPartition(scope);
+		}
+		Set<String> labels = r.getLabelSet();
+		for (String label : oldLabels) {
+			if (!labels.contains(label)) {
+				removeFromLabel(r, label);
+			}
+		}
+		for (String label : labels) {
+			labelIndex.insertInOrder(labelsCache.computeIfAbsent(label, k -> new LinkedHashSet<>()), r);
+		}
+		Set<String> oldLbLabels = lbLabels(oldLabels);
+		Set<String> lbLabels = lbLabels(labels);
+		for (String label : oldLbLabels) {
+			if (!lbLabels.contains(label)) {
+				removeFrom(lbLabelsCache, label, r);
+			}
+		}
+		for (String label : lbLabels) {
+			labelIndex.insertInOrder(lbLabelsCache.computeIfAbsent(label, k -> new LinkedHashSet<>()), r);
+		}
+		environmentCache.put(r.getName(), new ResourceEnvironment(r));
+	}
+
+	/**
+	 * @return the load balancing labels among the given labels, or only null if there are none
+	 */
+	private Set<String> lbLabels(Collection<String> labels) {
+		Set<String> found = new HashSet<>();
+		for (String label : labels) {
+			if (loadBalancingLabels.contains(label)) {
+				found.add(label);
+			}
+		}
+		if (found.isEmpty()) {
+			found.add(null);
+		}
+		return found;
+	}
+
+	private void buildPartition(String scope) {
+		partitions.remove(scope);
+		for (LockableResource r : allResources()) {
+			if (scope.equals(Util.fixNull(r.getScope()))) {
+				partitions.computeIfAbsent(scope, ResourcePartition::new).add(r);
+			}
+		}
+	}
+
+	/**
+	 * Removes the resource from the caches, dropping the labels and aliases no resource has anymore, with
+	 * their blockages and hold time history.
+	 */
+	private void unindex(LockableResource r) {
+		Set<String> keys = indexKeys(r);
+		removeFromCaches(r);
+		forgetUnused(keys);
+	}
+
+	/**
+	 * @return the name and labels of the resource, as used by the blockages and the hold time history
+	 */
+	private static Set<String> indexKeys(LockableResource r) {
+		Set<String> keys = new HashSet<>(r.getLabelSet());
+		keys.add(r.getName());
+		return keys;
+	}
+
+	/**
+	 * Drops the blockages and hold time history of the names and labels no resource has anymore.
+	 */
+	private void forgetUnused(Set<String> keys) {
+		keys.removeIf(k -> resourceMapCache.containsKey(k) || labelsCache.containsKey(k));
+		blockedItems.forget(keys);
+		holdTimes.forget(keys);
+	}
+
+	private void removeFromCaches(LockableResource r) {
+		labelIndex.remove(r);
+		propertyIndex.remove(r);
+		String scope = Util.fixNull(r.getScope());
+		ResourcePartition partition = partitions.get(scope);
+		if (partition != null) {
+			partition.remove(r);
+			if (partition.isEmpty()) partitions.remove(scope);
+		}
+		for ( String label : r.getLabelSet() ) {
+			removeFromLabel(r, label);
+			removeFrom(lbLabelsCache, label, r);
+		}
+		removeFrom(lbLabelsCache, null, r);
+		resourceMapCache.remove(r.getName());
+		environmentCache.remove(r.getName());
+	}
+
+	/**
+	 * Removes the resource from the resources of the label, dropping the label and its aliases if it was the last one.
+	 */
+	private void removeFromLabel(LockableResource r, String label) {
+		if ( removeFrom(labelsCache, label, r) ) {
+			for ( Map.Entry<String,String> alias : labelAliases.entrySet() ) {
+				if ( label.equals(alias.getValue()) && labelsCache.get(alias.getKey()) != null
+						&& labelsCache.get(alias.getKey()).isEmpty() ) {
+					labelsCache.remove(alias.getKey());
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if the resource was the last one under that key, which is dropped
+	 */
+	private static boolean removeFrom(Map<String,Set<LockableResource>> cache, String key, LockableResource r) {
+		Set<LockableResource> found = cache.get(key);
+		if ( found != null && found.remove(r) && found.isEmpty() ) {
+			cache.remove(key);
+			return true;
+		}
+		return false;
+	}
+
 	private synchronized double calculateLbLabelUsage( String label ) {
 		int used = 0;
 		for ( LockableResource r : lbLabelsCache.get(label) ) {
@@ -567,6 +1910,87 @@ public class LockableResourcesManager extends Plugin {
 		return new XmlFile(Jenkins.XSTREAM, f);
 	}
 
+	/**
+	 * Exposes the managed resources to the allocator on behalf of one queue item.
+	 */
+	private class ManagedResourcePool implements ResourcePool {
+		private final long queueItemId;
+		private final String queueItemProject;
+		private Set<String> held = Collections.emptySet();
+
+		ManagedResourcePool(long queueItemId, String queueItemProject) {
+			this.queueItemId = queueItemId;
+			this.queueItemProject = queueItemProject;
+		}
+
+		@Override
+		public boolean isAvailable(String name) {
+			LockableResource r = fromName(name);
+			if (r == null || held.contains(name) || deregistered.contains(r)) return false;
+			if (r.isReserved() || r.isLocked() || r.isQueued()) {
+				LOGGER.log(Level.FINE, "Removing resource: {0} [Reserved={1},Locked={2},Queued={3}]",
+						new Object[]{r, r.isReserved(), r.isLocked(), r.isQueued()});
+				return false;
+			}
+			if (isHeldElsewhere(name)) {
+				LOGGER.log(Level.FINE, "Removing resource held by another controller: {0}", r);
+				return false;
+			}
+			return true;
+		}
+
+		@Override
+		public Set<String> getLabels(String name) {
+			LockableResource r = fromName(name);
+			return r == null ? Collections.<String>emptySet() : r.getLabelSet();
+		}
+
+		@Override
+		public Collection<String> getLoadBalancingLabels() {
+			return loadBalancingLabels;
+		}
+
+		@Override
+		public double getLoadBalancingUsage(String label) {
+			return calculateLbLabelUsage(label);
+		}
+
+		@Override
+		public int getLoadBalancingGroupSize(String label) {
+			Set<LockableResource> group = lbLabelsCache.get(label);
+			return group == null ? 0 : group.size();
+		}
+
+		@Override
+		public long getLastReleased(String name) {
+			LockableResource r = fromName(name);
+			return r == null ? 0 : r.getLastReleased();
+		}
+
+		@Override
+		public long getTotalHeld(String name) {
+			LockableResource r = fromName(name);
+			return r == null ? 0 : r.getTotalHeldMillis();
+		}
+	}
+
+	/**
+	 * A pending {@link #acquire} call.
+	 */
+	private static final class LockWaiter {
+		private final String holder;
+		private final CompletableFuture<List<LockableResource>> future = new CompletableFuture<>();
+		private AllocationRequest request;
+		/**
+		 * Whether resources reserved for it are being taken in the shared state store.
+		 */
+		private boolean taking;
+
+		LockWaiter(String holder) {
+			this.holder = holder;
+		}
+	}
+
 	public static class KeyValuePair {
 		public final String key;
 		public final String value;
@@ -0,0 +1,107 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources;
+
+import java.util.*;
+
+/**
+ * Inverted index of resource properties: for every {@code name=value} pair and every property
+ * name, the resources having it, in configuration order.
+ */
+public class PropertyIndex {
+
+	private final Map<String, Set<LockableResource>> index = new HashMap<>();
+
+	public void add(LockableResource r) {
+		for (Map.Entry<String, String> e : r.getPropertiesAsMap().entrySet()) {
+			index.computeIfAbsent(e.getKey() + "=" + e.getValue(), k -> new LinkedHashSet<>()).add(r);
+			index.computeIfAbsent(e.getKey(), k -> new LinkedHashSet<>()).add(r);
+		}
+	}
+
+	public void remove(LockableResource r) {
+		for (Map.Entry<String, String> e : r.getPropertiesAsMap().entrySet()) {
+			remove(e.getKey() + "=" + e.getValue(), r);
+			remove(e.getKey(), r);
+		}
+	}
+
+	/**
+	 * Moves the resource from the given properties to its current ones, in the order of the label index.
+	 */
+	public void update(LockableResource r, Map<String, String> oldProperties, LabelIndex order) {
+		Set<String> oldKeys = keys(oldProperties);
+		Set<String> newKeys = keys(r.getPropertiesAsMap());
+		for (String key : oldKeys) {
+			if (!newKeys.contains(key)) remove(key, r);
+		}
+		for (String key : newKeys) {
+			if (!oldKeys.contains(key)) order.insertInOrder(index.computeIfAbsent(key, k -> new LinkedHashSet<>()), r);
+		}
+	}
+
+	private static Set<String> keys(Map<String, String> properties) {
+		Set<String> keys = new HashSet<>();
+		for (Map.Entry<String, String> e : properties.entrySet()) {
+			keys.add(e.getKey() + "=" + e.getValue());
+			keys.add(e.getKey());
+		}
+		return keys;
+	}
+
+	private void remove(String key, LockableResource r) {
+		Set<LockableResource> found = index.get(key);
+		if (found != null && found.remove(r) && found.isEmpty()) {
+			index.remove(key);
+		}
+	}
+
+	public void clear() {
+		index.clear();
+	}
+
+	/**
+	 * @param query {@code name=value} pairs, or property names for any value
+	 * @return the resources matching every element of the query, in configuration order
+	 */
+	public List<LockableResource> find(Collection<String> query) {
+		if (query.isEmpty()) {
+			return new ArrayList<>();
+		}
+		// walk the shortest list, check the other conditions on each of its resources
+		Set<LockableResource> shortest = null;
+		for (String condition : query) {
+			Set<LockableResource> found = index.get(condition);
+			if (found == null) {
+				return new ArrayList<>();
+			}
+			if (shortest == null || found.size() < shortest.size()) {
+				shortest = found;
+			}
+		}
+		List<LockableResource> result = new ArrayList<>();
+		for (LockableResource r : shortest) {
+			if (matches(r, query)) {
+				result.add(r);
+			}
+		}
+		return result;
+	}
+
+	private static boolean matches(LockableResource r, Collection<String> query) {
+		Map<String, String> properties = r.getPropertiesAsMap();
+		for (String condition : query) {
+			int eq = condition.indexOf('=');
+			if (eq < 0) {
+				if (!properties.containsKey(condition)) return false;
+			} else if (!condition.substring(eq + 1).equals(properties.get(condition.substring(0, eq)))) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -9,6 +9,7 @@
  * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
 package org.jenkins.plugins.lockableresources;
 
+import hudson.EnvVars;
 import hudson.Extension;
 import hudson.Util;
 import hudson.model.*;
@@ -21,12 +22,15 @@ import static org.jenkins.plugins.lockableresources.Constants.*;
 
 import net.sf.json.JSONObject;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
 public class RequiredResourcesProperty extends JobProperty<Job<?, ?>> {
 
 	public final List<Resource> resources;
+	private boolean matrixGangAllocation;
+	private boolean resourceManifest;
 
 	@DataBoundConstructor
 	public RequiredResourcesProperty(List<Resource> resources) {
@@ -38,6 +42,31 @@ public class RequiredResourcesProperty extends JobProperty<Job<?, ?>> {
 		return resources;
 	}
 
+	/**
+	 * @return true if a matrix build locks the resources of all its configurations at once
+	 */
+	public boolean isMatrixGangAllocation() {
+		return matrixGangAllocation;
+	}
+
+	@DataBoundSetter
+	public void setMatrixGangAllocation(boolean matrixGangAllocation) {
+		this.matrixGangAllocation = matrixGangAllocation;
+	}
+
+	/**
+	 * @return true if the builds get the details of their resources in a JSON file instead of
+	 *         one environment variable per resource property
+	 */
+	public boolean isResourceManifest() {
+		return resourceManifest;
+	}
+
+	@DataBoundSetter
+	public void setResourceManifest(boolean resourceManifest) {
+		this.resourceManifest = resourceManifest;
+	}
+
 	public static class Resource extends AbstractDescribableImpl<Resource> {
 		public String uniqueID;
 		public final String resourceNames;
@@ -116,6 +145,21 @@ public class RequiredResourcesProperty extends JobProperty<Job<?, ?>> {
 			String names = Util.fixEmptyAndTrim(value);
 			if (names == null) {
 				return FormValidation.ok();
+			} else if (names.startsWith(Constants.LABEL_EXPRESSION_MARKER)) {
+				try {
+					LabelExpression.compile(names.substring(Constants.LABEL_EXPRESSION_MARKER.length()));
+				} catch (IllegalArgumentException e) {
+					return FormValidation.error(e.getMessage());
+				}
+				if (LockableResourcesManager.get().getResourcesForLabelExpression(names, new EnvVars()).isEmpty()) {
+					return FormValidation.warning("No resource matches " + names);
+				}
+				return FormValidation.ok();
+			} else if (names.startsWith(Constants.PROPERTY_MARKER)) {
+				if (LockableResourcesManager.get().getResourcesWithProperties(names, new EnvVars()).isEmpty()) {
+					return FormValidation.warning("No resource has all the properties " + names);
+				}
+				return FormValidation.ok();
 			} else {
 				List<String> wrongNames = new ArrayList<>();
 				for (String name : names.split(RESOURCES_SPLIT_REGEX)) {
@@ -171,6 +215,12 @@ public class RequiredResourcesProperty extends JobProperty<Job<?, ?>> {
 				if ( names.startsWith(Constants.GROOVY_LABEL_MARKER) ) {
 					numResources = Integer.MAX_VALUE;
 				}
+				else if ( names.startsWith(Constants.LABEL_EXPRESSION_MARKER) ) {
+					numResources = LockableResourcesManager.get().getResourcesForLabelExpression(names, new EnvVars()).size();
+				}
+				else if ( names.startsWith(Constants.PROPERTY_MARKER) ) {
+					numResources = LockableResourcesManager.get().getResourcesWithProperties(names, new EnvVars()).size();
+				}
 				else {
 					HashSet<String> resources = new HashSet<>();
 					resources.addAll(Arrays.asList(names.split(RESOURCES_SPLIT_REGEX)));
@@ -0,0 +1,122 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * The resources defined for one folder (or for the whole instance), with their own label index.
+ * Jobs only look at the partitions of the folders containing them, nearest first.
+ */
+public class ResourcePartition {
+
+	private final String scope;
+	private final Set<LockableResource> resources = new LinkedHashSet<>();
+	private final Map<String, Set<LockableResource>> labels = new HashMap<>();
+	private final PropertyIndex properties = new PropertyIndex();
+	private final LabelIndex labelIndex = new LabelIndex();
+
+	ResourcePartition(String scope) {
+		this.scope = scope;
+	}
+
+	/**
+	 * @return the full name of the folder, empty for the resources of the whole instance
+	 */
+	public String getScope() {
+		return scope;
+	}
+
+	public Collection<LockableResource> getResources() {
+		return Collections.unmodifiableCollection(resources);
+	}
+
+	/**
+	 * @return the resources of this partition having the label, in configuration order
+	 */
+	public Collection<LockableResource> getResourcesWithLabel(String label) {
+		Set<LockableResource> found = labels.get(label);
+		return found == null ? Collections.<LockableResource>emptySet() : Collections.unmodifiableCollection(found);
+	}
+
+	/**
+	 * @param query {@code name=value} pairs, or property names for any value
+	 * @return the resources of this partition having all the properties, in configuration order
+	 */
+	public List<LockableResource> getResourcesWithProperties(Collection<String> query) {
+		return properties.find(query);
+	}
+
+	/**
+	 * @param mapper applied to every name or label of the expression before looking it up
+	 * @return the resources of this partition matching the expression, in configuration order
+	 */
+	public List<LockableResource> getResourcesForLabelExpression(LabelExpression expression,
+	                                                             Function<String, String> mapper) {
+		return labelIndex.select(expression.evaluate(labelIndex, mapper));
+	}
+
+	void add(LockableResource r) {
+		resources.add(r);
+		properties.add(r);
+		labelIndex.add(r);
+		for (String label : r.getLabelSet()) {
+			labels.computeIfAbsent(label, k -> new LinkedHashSet<>()).add(r);
+		}
+	}
+
+	/**
+	 * Moves the resource from the given labels and properties to its current ones, keeping its place.
+	 */
+	void update(LockableResource r, Collection<String> oldLabels, Map<String, String> oldProperties) {
+		labelIndex.update(r, oldLabels);
+		properties.update(r, oldProperties, labelIndex);
+		Set<String> current = r.getLabelSet();
+		for (String label : oldLabels) {
+			if (current.contains(label)) continue;
+			Set<LockableResource> found = labels.get(label);
+			if (found != null && found.remove(r) && found.isEmpty()) {
+				labels.remove(label);
+			}
+		}
+		for (String label : current) {
+			labelIndex.insertInOrder(labels.computeIfAbsent(label, k -> new LinkedHashSet<>()), r);
+		}
+	}
+
+	void remove(LockableResource r) {
+		resources.remove(r);
+		properties.remove(r);
+		labelIndex.remove(r);
+		for (String label : r.getLabelSet()) {
+			Set<LockableResource> found = labels.get(label);
+			if (found != null && found.remove(r) && found.isEmpty()) {
+				labels.remove(label);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the partition has no resources left
+	 */
+	boolean isEmpty() {
+		return resources.isEmpty();
+	}
+
+	/**
+	 * @return true if jobs of the given item are allowed to use the resources of this partition
+	 */
+	public boolean isVisibleFrom(String itemFullName) {
+		return scope.isEmpty() || (itemFullName != null && itemFullName.startsWith(scope + "/"));
+	}
+
+	@Override
+	public String toString() {
+		return scope.isEmpty() ? "<global>" : scope;
+	}
+}
@@ -10,9 +10,14 @@
 package org.jenkins.plugins.lockableresources.actions;
 
 import hudson.Extension;
+import hudson.Util;
 import hudson.model.Api;
+import hudson.model.Item;
+import hudson.model.Queue;
 import hudson.model.RootAction;
 import hudson.model.User;
+import hudson.model.queue.CauseOfBlockage;
+import hudson.security.AccessControlled;
 import hudson.security.AccessDeniedException2;
 import hudson.security.Permission;
 import hudson.security.PermissionGroup;
@@ -23,6 +28,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.servlet.ServletException;
@@ -30,13 +36,20 @@ import javax.servlet.ServletException;
 import jenkins.model.Jenkins;
 
 import static org.jenkins.plugins.lockableresources.Constants.*;
+import org.jenkins.plugins.lockableresources.InventoryDiff;
+import org.jenkins.plugins.lockableresources.InventoryFormat;
 import org.jenkins.plugins.lockableresources.LockableResource;
+import org.jenkins.plugins.lockableresources.LockableResourceProperty;
 import org.jenkins.plugins.lockableresources.LockableResourcesManager;
 import org.jenkins.plugins.lockableresources.Messages;
+import org.jenkins.plugins.lockableresources.metrics.ReclaimLog;
+import org.jenkins.plugins.lockableresources.queue.LockableResourcesQueueTaskDispatcher.BecauseResourcesLocked;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.export.Exported;
 import org.kohsuke.stapler.export.ExportedBean;
+import org.kohsuke.stapler.export.Flavor;
+import org.kohsuke.stapler.interceptor.RequirePOST;
 
 @Extension
 @ExportedBean
@@ -83,7 +96,74 @@ public class LockableResourcesRootAction implements RootAction {
 
 	@Exported
 	public Collection<LockableResource> getResources() {
-		return Collections.unmodifiableCollection(LockableResourcesManager.get().getResources());
+		return LockableResourcesManager.get().getAllResources();
+	}
+
+	/**
+	 * @return the locks reclaimed from builds which ended without releasing them
+	 */
+	@Exported
+	public ReclaimLog getReclaims() {
+		return LockableResourcesManager.get().getReclaimLog();
+	}
+
+	/**
+	 * @return the median hold duration in milliseconds per resource and label, the base of the wait estimates
+	 */
+	@Exported
+	public Map<String, Long> getTypicalHoldTimes() {
+		return LockableResourcesManager.get().getTypicalHoldTimes();
+	}
+
+	public String getUtilizationSparkline(String resourceName) {
+		return LockableResourcesManager.get().getUtilizationSparkline(resourceName);
+	}
+
+	public int getUtilizationPercent(String resourceName) {
+		return (int) Math.round(LockableResourcesManager.get().getUtilizationBusyFraction(resourceName) * 100);
+	}
+
+	/**
+	 * Serves the utilization history as JSON, of the resource given by the {@code resource}
+	 * parameter or of all of them.
+	 */
+	public void doUtilization(StaplerRequest req, StaplerResponse rsp) throws IOException {
+		String name = req.getParameter("resource");
+		if (name != null && LockableResourcesManager.get().fromName(name) == null) {
+			rsp.sendError(404, "Resource not found " + name);
+			return;
+		}
+		rsp.setContentType("application/json;charset=UTF-8");
+		LockableResourcesManager.get().getUtilizationJson(name).write(rsp.getWriter());
+	}
+
+	/**
+	 * Serves the blockage report of the queue item given by the {@code id} parameter as JSON.
+	 * Items of tasks the user cannot read are answered as not found, like the queue does.
+	 */
+	public void doBlockage(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
+		long id;
+		try {
+			id = Long.parseLong(req.getParameter("id"));
+		} catch (NumberFormatException e) {
+			rsp.sendError(400, "Invalid queue item id " + req.getParameter("id"));
+			return;
+		}
+		Queue.Item item = Queue.getInstance().getItem(id);
+		if (item == null || (item.task instanceof AccessControlled
+				&& !((AccessControlled) item.task).hasPermission(Item.READ))) {
+			rsp.sendError(404, "Queue item " + id + " is not waiting for resources");
+			return;
+		}
+		CauseOfBlockage cause = LockableResourcesManager.get().getCachedBlockage(id);
+		if (cause == null) {
+			cause = item.getCauseOfBlockage();
+		}
+		if (!(cause instanceof BecauseResourcesLocked)) {
+			rsp.sendError(404, "Queue item " + id + " is not waiting for resources");
+			return;
+		}
+		rsp.serveExposedBean(req, ((BecauseResourcesLocked) cause).getReport(), Flavor.JSON);
 	}
 
 	public int getFreeResourceAmount(String label) {
@@ -102,6 +182,111 @@ public class LockableResourcesRootAction implements RootAction {
 		return LockableResourcesManager.get().getAllLabels().size();
 	}
 
+	/**
+	 * Streams the definition of all resources, as {@code ?format=jsonl} (default) or {@code ?format=csv}.
+	 */
+	public void doExport(StaplerRequest req, StaplerResponse rsp) throws IOException {
+		Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+		InventoryFormat format = inventoryFormat(req);
+		if (format == null) {
+			rsp.sendError(400, "Unknown format " + req.getParameter("format"));
+			return;
+		}
+		List<LockableResource> resources;
+		synchronized (LockableResourcesManager.get()) {
+			resources = new ArrayList<>(LockableResourcesManager.get().getResources());
+		}
+		rsp.setContentType(format.getContentType() + ";charset=UTF-8");
+		format.writeAll(resources, rsp.getWriter());
+	}
+
+	/**
+	 * Applies the resource definitions posted in the request body, in the format of {@link #doExport}.
+	 * The body is read in full first, so an invalid one changes nothing. Only the added, changed and,
+	 * with {@code ?remove=true}, removed resources are touched, and {@code ?dryRun=true} only reports them.
+	 */
+	@RequirePOST
+	public void doImport(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
+		Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+		InventoryFormat format = inventoryFormat(req);
+		if (format == null) {
+			rsp.sendError(400, "Unknown format " + req.getParameter("format"));
+			return;
+		}
+		List<LockableResource> imported;
+		try {
+			imported = format.readAll(req.getReader());
+		} catch (IllegalArgumentException e) {
+			rsp.sendError(400, e.getMessage());
+			return;
+		}
+		InventoryDiff diff = LockableResourcesManager.get().importResources(imported,
+				Boolean.parseBoolean(req.getParameter("remove")), Boolean.parseBoolean(req.getParameter("dryRun")));
+		rsp.serveExposedBean(req, diff, Flavor.JSON);
+	}
+
+	/**
+	 * Registers an ephemeral resource: {@code ?name=...&labels=...&description=...&property=key=value}, the
+	 * property parameter may be repeated. Answers 409 if a resource of that name exists.
+	 */
+	@RequirePOST
+	public void doRegister(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
+		Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+		String name = Util.fixEmptyAndTrim(req.getParameter("name"));
+		if (name == null) {
+			rsp.sendError(400, "Missing resource name");
+			return;
+		}
+		if (!name.matches("\\S+")) {
+			rsp.sendError(400, "Resource names cannot contain whitespace: " + name);
+			return;
+		}
+		List<LockableResourceProperty> properties = new ArrayList<>();
+		String[] values = req.getParameterValues("property");
+		if (values != null) {
+			for (String p : values) {
+				int eq = p.indexOf('=');
+				if (eq <= 0) {
+					rsp.sendError(400, "Property without name: " + p);
+					return;
+				}
+				properties.add(new LockableResourceProperty(p.substring(0, eq).trim(), p.substring(eq + 1)));
+			}
+		}
+		LockableResource r;
+		try {
+			r = new LockableResource(LockableResource.generateUniqueID(), name,
+					req.getParameter("description"), req.getParameter("labels"), "", properties);
+		} catch (IllegalArgumentException e) {
+			rsp.sendError(400, e.getMessage());
+			return;
+		}
+		if (!LockableResourcesManager.get().registerEphemeral(r)) {
+			rsp.sendError(409, "Resource already exists " + name);
+			return;
+		}
+		rsp.setStatus(201);
+	}
+
+	/**
+	 * Deregisters an ephemeral resource: {@code ?resource=...}. One in use is removed when it is released.
+	 */
+	@RequirePOST
+	public void doDeregister(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
+		Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+		String name = req.getParameter("resource");
+		if (!LockableResourcesManager.get().deregisterEphemeral(name)) {
+			rsp.sendError(404, "Ephemeral resource not found " + name);
+			return;
+		}
+		rsp.setStatus(200);
+	}
+
+	private static InventoryFormat inventoryFormat(StaplerRequest req) {
+		String format = req.getParameter("format");
+		return InventoryFormat.fromName(format == null ? InventoryFormat.JSONL.name() : format);
+	}
+
 	public void doUnlock(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
 		Jenkins.getInstance().checkPermission(UNLOCK);
 
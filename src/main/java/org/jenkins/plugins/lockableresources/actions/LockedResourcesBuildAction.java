@@ -30,6 +30,22 @@ public class LockedResourcesBuildAction implements Action {
 
 	public final transient Map<String, LockableResourcesStruct> matchedResourcesMap = new HashMap<>();
 
+	/**
+	 * For a matrix build locking the resources of all its configurations: the resources selected for
+	 * each configuration, by combination. Resources for the matrix as a whole are under the empty key.
+	 */
+	public final transient Map<String, List<String>> gangResources = new HashMap<>();
+
+	/**
+	 * True if the resources were locked by the parent matrix build, not by this build.
+	 */
+	public transient boolean borrowed = false;
+
+	/**
+	 * The variables the locked resources contribute to the build environment, resolved at lock time.
+	 */
+	public transient Map<String, String> environment;
+
 	public List<ResourcePOJO> getLockedResources() {
 		return lockedResources;
 	}
@@ -56,6 +72,17 @@ public class LockedResourcesBuildAction implements Action {
 		}
 	}
 
+	/**
+	 * Lists the resources a matrix configuration uses from its parent build, which locked them.
+	 */
+	public void populateBorrowedResources() {
+		LockableResourcesManager manager = LockableResourcesManager.get();
+		lockedResources.clear();
+		for ( String rName : matchedResources ) {
+			lockedResources.add(new ResourcePOJO(manager.fromName(rName)));
+		}
+	}
+
 	public static class ResourcePOJO {
 
 		public final String name;
@@ -0,0 +1,71 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.allocation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Plain description of one resource request: which resources may be used and how many
+ * of them are needed.
+ */
+public class AllocationRequest {
+
+	private final List<String> candidates;
+	private final int requiredNumber;
+	private final boolean usePercentMatching;
+	private final Set<String> matchLabels;
+
+	/**
+	 * @param candidates         names of the resources which may satisfy this request, in preference order
+	 * @param requiredNumber     number of resources needed, 0 or less means all the candidates
+	 * @param usePercentMatching prefer the candidates whose labels match {@code matchLabels} the closest
+	 * @param matchLabels        the requested labels for percent matching, null if the request
+	 *                           cannot be expressed as labels (e.g. a groovy expression)
+	 */
+	public AllocationRequest(Collection<String> candidates, int requiredNumber,
+	                         boolean usePercentMatching, Collection<String> matchLabels) {
+		this.candidates = Collections.unmodifiableList(new ArrayList<>(candidates));
+		this.requiredNumber = requiredNumber;
+		this.usePercentMatching = usePercentMatching;
+		this.matchLabels = matchLabels == null ? null : Collections.unmodifiableSet(new LinkedHashSet<>(matchLabels));
+	}
+
+	public List<String> getCandidates() {
+		return candidates;
+	}
+
+	public int getRequiredNumber() {
+		return requiredNumber;
+	}
+
+	/**
+	 * @return the number of resources to select, taking "all" into account
+	 */
+	public int getNumberToSelect() {
+		return requiredNumber <= 0 ? candidates.size() : requiredNumber;
+	}
+
+	public boolean isUsePercentMatching() {
+		return usePercentMatching;
+	}
+
+	public Set<String> getMatchLabels() {
+		return matchLabels;
+	}
+
+	@Override
+	public String toString() {
+		return "Candidates: " + candidates +
+			", Number of resources: " + requiredNumber +
+			", Match labels: " + matchLabels;
+	}
+}
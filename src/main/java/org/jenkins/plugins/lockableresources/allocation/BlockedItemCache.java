@@ -0,0 +1,163 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.allocation;
+
+import java.util.*;
+
+/**
+ * Remembers why queue items could not get their resources, until something they depend on changes.
+ * <p>
+ * Every pool of resources (identified by a key, e.g. a label) remembers when its resources last changed
+ * state, as a tick of a counter shared by all pools. A failed attempt records the tick it was made at:
+ * as long as none of the pools it looked at changed after that tick, trying again would fail the same
+ * way. Checking an entry is immediate when nothing changed at all since it was recorded, and otherwise
+ * stops at the first pool which changed.
+ * <p>
+ * The pools no resource belongs to anymore are forgotten with {@link #retain(Collection)} or
+ * {@link #forget(Collection)}. A pool without a known change counts as changed at the last change of the
+ * pools forgotten so far, so the entries depending on a forgotten pool are not kept by mistake.
+ * <p>
+ * Entries also expire after a while, for the state changes which are not notified (e.g. the timeout
+ * of queued resources).
+ * <p>
+ * Not thread safe, callers synchronize.
+ *
+ * @param <T> the type of the cached result
+ */
+public class BlockedItemCache<T> {
+
+	private final Map<String, Long> changedAt = new HashMap<>();
+	private final Map<Long, Entry<T>> entries = new HashMap<>();
+	private final long timeToLive;
+	private long tick;
+	private long allChangedAt;
+	private long forgottenAt;
+
+	/**
+	 * @param timeToLive maximum age of an entry in milliseconds
+	 */
+	public BlockedItemCache(long timeToLive) {
+		this.timeToLive = timeToLive;
+	}
+
+	/**
+	 * Notes a state change in the given pools.
+	 */
+	public void changed(Collection<String> keys) {
+		tick++;
+		for (String key : keys) {
+			changedAt.put(key, tick);
+		}
+	}
+
+	/**
+	 * Notes a change which may affect any pool, e.g. a configuration change.
+	 */
+	public void changedAll() {
+		allChangedAt = ++tick;
+	}
+
+	/**
+	 * Forgets the pools which are not among the given ones.
+	 */
+	public void retain(Collection<String> keys) {
+		Set<String> retained = keys instanceof Set ? (Set<String>) keys : new HashSet<>(keys);
+		for (Iterator<Map.Entry<String, Long>> it = changedAt.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<String, Long> e = it.next();
+			if (!retained.contains(e.getKey())) {
+				forgottenAt = Math.max(forgottenAt, e.getValue());
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Forgets the given pools, e.g. the labels of a removed resource no other resource has. The removal
+	 * itself is to be noted with {@link #changed(Collection)} first.
+	 */
+	public void forget(Collection<String> keys) {
+		for (String key : keys) {
+			Long at = changedAt.remove(key);
+			if (at != null) forgottenAt = Math.max(forgottenAt, at);
+		}
+	}
+
+	/**
+	 * Records a failed attempt, the result is attached with {@link #put(long, Object)}.
+	 *
+	 * @param itemId the queue item id
+	 * @param keys   the pools the attempt depended on
+	 * @param now    current time
+	 */
+	public void blocked(long itemId, Collection<String> keys, long now) {
+		entries.put(itemId, new Entry<T>(keys.toArray(new String[keys.size()]), tick, now + timeToLive));
+	}
+
+	/**
+	 * Attaches the result to the last failed attempt of the item, if it is still valid.
+	 */
+	public void put(long itemId, T result) {
+		Entry<T> e = entries.get(itemId);
+		if (e != null && e.result == null) {
+			e.result = result;
+		}
+	}
+
+	/**
+	 * @return the result of the last failed attempt if nothing it depended on changed since, null otherwise
+	 */
+	public T get(long itemId, long now) {
+		Entry<T> e = entries.get(itemId);
+		if (e == null || e.result == null) {
+			return null;
+		}
+		if (now > e.expires || changedSince(e)) {
+			entries.remove(itemId);
+			return null;
+		}
+		return e.result;
+	}
+
+	public void remove(long itemId) {
+		entries.remove(itemId);
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the number of pools with a known last change
+	 */
+	public int getPoolCount() {
+		return changedAt.size();
+	}
+
+	private boolean changedSince(Entry<T> e) {
+		if (e.recorded == tick) return false;
+		if (allChangedAt > e.recorded) return true;
+		for (String key : e.keys) {
+			Long at = changedAt.get(key);
+			// a pool without a known change either never changed, or was forgotten
+			if ((at != null ? at : forgottenAt) > e.recorded) return true;
+		}
+		return false;
+	}
+
+	private static final class Entry<T> {
+		private final String[] keys;
+		private final long recorded;
+		private final long expires;
+		private T result;
+
+		Entry(String[] keys, long recorded, long expires) {
+			this.keys = keys;
+			this.recorded = recorded;
+			this.expires = expires;
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.allocation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.function.ToLongFunction;
+
+/**
+ * Group of candidates the allocator picks from, one at a time.
+ *
+ * Each implementation removes the picked candidate as part of the pick, so the
+ * allocator never has to search the group again.
+ */
+abstract class CandidateQueue {
+
+	abstract boolean isEmpty();
+
+	abstract int size();
+
+	/**
+	 * Removes and returns the next candidate to use.
+	 */
+	abstract String poll();
+
+	static CandidateQueue create(ResourceSelectionMode mode, Collection<String> candidates,
+	                             ResourcePool pool, Random rand) {
+		switch (mode) {
+			case RANDOM:
+				return new RandomQueue(candidates, rand);
+			case LEAST_RECENTLY_USED:
+				return new HeapQueue(candidates, pool::getLastReleased);
+			case LEAST_HELD:
+				return new HeapQueue(candidates, pool::getTotalHeld);
+			case FIRST:
+			default:
+				return new OrderedQueue(candidates);
+		}
+	}
+
+	/**
+	 * Configuration order, O(1) per pick.
+	 */
+	private static class OrderedQueue extends CandidateQueue {
+		private final List<String> candidates;
+		private int next = 0;
+
+		OrderedQueue(Collection<String> candidates) {
+			this.candidates = new ArrayList<>(candidates);
+		}
+
+		boolean isEmpty() {
+			return next >= candidates.size();
+		}
+
+		int size() {
+			return candidates.size() - next;
+		}
+
+		String poll() {
+			return candidates.get(next++);
+		}
+
+		@Override
+		public String toString() {
+			return candidates.subList(next, candidates.size()).toString();
+		}
+	}
+
+	/**
+	 * Random pick, the last candidate fills the hole so each pick is O(1).
+	 */
+	private static class RandomQueue extends CandidateQueue {
+		private final List<String> candidates;
+		private final Random rand;
+
+		RandomQueue(Collection<String> candidates, Random rand) {
+			this.candidates = new ArrayList<>(candidates);
+			this.rand = rand;
+		}
+
+		boolean isEmpty() {
+			return candidates.isEmpty();
+		}
+
+		int size() {
+			return candidates.size();
+		}
+
+		String poll() {
+			int i = rand.nextInt(candidates.size());
+			String picked = candidates.get(i);
+			String last = candidates.remove(candidates.size() - 1);
+			if (i < candidates.size()) candidates.set(i, last);
+			return picked;
+		}
+
+		@Override
+		public String toString() {
+			return candidates.toString();
+		}
+	}
+
+	/**
+	 * Usage ordered pick, O(log n) per pick. Ties keep the configuration order.
+	 */
+	private static class HeapQueue extends CandidateQueue {
+		private final PriorityQueue<Entry> heap;
+
+		HeapQueue(Collection<String> candidates, ToLongFunction<String> usage) {
+			heap = new PriorityQueue<>(Math.max(1, candidates.size()));
+			int index = 0;
+			for (String name : candidates) {
+				// read the usage once, the pool lookup is not repeated on each comparison
+				heap.add(new Entry(name, usage.applyAsLong(name), index++));
+			}
+		}
+
+		boolean isEmpty() {
+			return heap.isEmpty();
+		}
+
+		int size() {
+			return heap.size();
+		}
+
+		String poll() {
+			return heap.poll().name;
+		}
+
+		@Override
+		public String toString() {
+			return heap.toString();
+		}
+
+		private static class Entry implements Comparable<Entry> {
+			final String name;
+			final long usage;
+			final int index;
+
+			Entry(String name, long usage, int index) {
+				this.name = name;
+				this.usage = usage;
+				this.index = index;
+			}
+
+			public int compareTo(Entry o) {
+				int c = Long.compare(usage, o.usage);
+				return c != 0 ? c : Integer.compare(index, o.index);
+			}
+
+			@Override
+			public String toString() {
+				return name;
+			}
+		}
+	}
+}
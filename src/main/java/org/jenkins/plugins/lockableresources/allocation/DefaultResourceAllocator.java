@@ -0,0 +1,309 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.allocation;
+
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The allocation strategy used by the plugin: load balancing labels first, then
+ * percent matching, then the plain candidate order.
+ */
+public class DefaultResourceAllocator implements ResourceAllocator {
+
+	private static final Logger LOGGER = Logger.getLogger(DefaultResourceAllocator.class.getName());
+
+	private final ResourceSelectionMode selectionMode;
+	private final Random rand;
+
+	public DefaultResourceAllocator(boolean useResourcesEvenly) {
+		this(useResourcesEvenly ? ResourceSelectionMode.RANDOM : ResourceSelectionMode.FIRST);
+	}
+
+	public DefaultResourceAllocator(ResourceSelectionMode selectionMode) {
+		this(selectionMode, new Random());
+	}
+
+	public DefaultResourceAllocator(ResourceSelectionMode selectionMode, Random rand) {
+		this.selectionMode = selectionMode == null ? ResourceSelectionMode.FIRST : selectionMode;
+		this.rand = rand;
+	}
+
+	@Override
+	public Map<String, AllocationRequest> allocate(List<AllocationRequest> requests, ResourcePool inventory) {
+		// selections are tracked on a scratch view, the inventory itself is only read
+		ScratchPool pool = new ScratchPool(inventory);
+		// the almighty overall selected, all resources sent back will be in here
+		Map<String, AllocationRequest> overallSelected = new LinkedHashMap<>();
+		int overallTotalNumRequired = 0;
+
+		for (AllocationRequest request : requests) {
+			List<String> tmpSelectedQueue = new ArrayList<>();
+			int numRequired = request.getNumberToSelect();
+			overallTotalNumRequired += numRequired;
+
+			if (numRequired <= 0) {
+				LOGGER.log(Level.FINE, "Required resources already queued: {0}", tmpSelectedQueue);
+			} else {
+				List<String> availableCandidates = new ArrayList<>();
+				for (String name : request.getCandidates()) {
+					if (pool.isAvailable(name))
+						availableCandidates.add(name);
+					else
+						LOGGER.log(Level.FINE, "Removing unavailable resource: {0}", name);
+				}
+				LOGGER.log(Level.FINEST, "Available candidates*: {0}", availableCandidates);
+
+				// only use fancy logic if we don't need to lock all of them
+				if (numRequired < availableCandidates.size()) {
+					LOGGER.log(Level.FINEST, "Selecting {0} resources from {1} available",
+							new Object[]{numRequired, availableCandidates.size()});
+					Collection<String> loadBalancingLabels = pool.getLoadBalancingLabels();
+					if (loadBalancingLabels.size() > 1) {
+						selectBalanced(availableCandidates, numRequired, pool, tmpSelectedQueue);
+					} else {
+						selectMatching(request, availableCandidates, numRequired, pool, tmpSelectedQueue);
+					}
+				} else {
+					LOGGER.log(Level.FINER, "Selecting all available specified resources.");
+					tmpSelectedQueue.addAll(availableCandidates);
+				}
+
+				LOGGER.log(Level.FINE, "Selected resources: {0}", tmpSelectedQueue);
+			}
+
+			for (String name : tmpSelectedQueue) {
+				if (overallSelected.containsKey(name)) {
+					LOGGER.log(Level.FINE, "Trying to lock the same resource already selected: {0}", name);
+					continue;
+				}
+				overallSelected.put(name, request);
+				pool.take(name);
+			}
+		}
+		// if did not get wanted amount or did not get all
+		if (overallSelected.size() != overallTotalNumRequired) {
+			LOGGER.log(Level.FINEST, "Found {0} resource(s). Waiting for correct amount: {1}.",
+					new Object[]{overallSelected.size(), overallTotalNumRequired});
+			return null;
+		}
+		return overallSelected;
+	}
+
+	/**
+	 * Repeatedly selects a candidate from the load balancing group with the lowest current usage.
+	 */
+	private void selectBalanced(List<String> availableCandidates, int numRequired, ScratchPool pool,
+	                            List<String> tmpSelectedQueue) {
+		Collection<String> loadBalancingLabels = pool.getLoadBalancingLabels();
+		LOGGER.log(Level.FINEST, "Load balancing labels: {0}", loadBalancingLabels);
+		// first break our available candidates into a list for each LB label
+		Map<String, List<String>> members = new LinkedHashMap<>(loadBalancingLabels.size() + 1);
+		for (String name : availableCandidates) {
+			String group = null;
+			Set<String> labels = pool.getLabels(name);
+			for (String label : loadBalancingLabels) {
+				if (labels.contains(label)) {
+					group = label;
+					break;
+				}
+			}
+			members.computeIfAbsent(group, k -> new ArrayList<>()).add(name);
+		}
+		Map<String, CandidateQueue> groups = new LinkedHashMap<>(members.size());
+		for (Map.Entry<String, List<String>> group : members.entrySet()) {
+			groups.put(group.getKey(), CandidateQueue.create(selectionMode, group.getValue(), pool, rand));
+		}
+		LOGGER.log(Level.FINER, "Load Balancing Groups: {0}", groups);
+		boolean resourcesLeft = true;
+		while (tmpSelectedQueue.size() < numRequired && resourcesLeft) {
+			resourcesLeft = false;
+			double lowestUsage = 2;
+			String lowestUsageLabel = null;
+			for (Map.Entry<String, CandidateQueue> group : groups.entrySet()) {
+				if (!group.getValue().isEmpty()) {
+					double usage = pool.getLoadBalancingUsage(group.getKey());
+					if (usage < lowestUsage) {
+						resourcesLeft = true;
+						lowestUsage = usage;
+						lowestUsageLabel = group.getKey();
+					}
+				}
+			}
+			LOGGER.log(Level.FINEST, "Lowest usage label: {0}", lowestUsageLabel);
+			if (resourcesLeft) {
+				String name = groups.get(lowestUsageLabel).poll();
+				tmpSelectedQueue.add(name);
+				pool.take(name);
+				LOGGER.log(Level.FINER, "Selected lb resource: {0}", name);
+			}
+		}
+	}
+
+	/**
+	 * Selects candidates starting with the ones matching the most requested labels.
+	 */
+	private void selectMatching(AllocationRequest request, List<String> availableCandidates, int numRequired,
+	                            ScratchPool pool, List<String> tmpSelectedQueue) {
+		List<List<String>> buckets;
+		if (request.isUsePercentMatching()) {
+			LOGGER.log(Level.FINEST, "Using percent matching...");
+			buckets = bucketByMatch(availableCandidates, request.getMatchLabels(), pool);
+		} else {
+			LOGGER.log(Level.FINEST, "Not using percent matching...");
+			buckets = Collections.singletonList(availableCandidates);
+		}
+		LOGGER.log(Level.FINEST, "Available candidates buckets*: {0}", buckets);
+		for (List<String> candidates : buckets) {
+			CandidateQueue bucket = CandidateQueue.create(selectionMode, candidates, pool, rand);
+			while (tmpSelectedQueue.size() < numRequired && !bucket.isEmpty()) {
+				String name = bucket.poll();
+				tmpSelectedQueue.add(name);
+				LOGGER.log(Level.FINER, "Selected resource: {0}", name);
+			}
+			// hard check to see if we got everything
+			if (tmpSelectedQueue.size() >= numRequired) {
+				LOGGER.log(Level.FINEST, "Found all needed resources [{0}/{1}]: {2}",
+						new Object[]{tmpSelectedQueue.size(), numRequired, tmpSelectedQueue});
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Groups the candidates by the fraction of their labels that were requested, best match first and
+	 * candidate order kept within a group. Falls back to a single group when a candidate does not
+	 * match any requested label.
+	 */
+	static List<List<String>> bucketByMatch(List<String> candidates, Set<String> matchLabels, ResourcePool pool) {
+		int n = candidates.size();
+		// one sort key per candidate: the inverted score in the upper half, the position in the lower
+		// half, so a plain sort orders by best match and keeps the candidate order for equal scores
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++) {
+			Set<String> labels = pool.getLabels(candidates.get(i));
+			int total = labels.size();
+			int matched = countMatchedLabels(labels, matchLabels);
+			if (matched == 0 || total == 0 || matched > total) {
+				// there was a matched name or groovy script, lets not use this
+				LOGGER.log(Level.FINEST, "Resource {0} has an incompatibility with label matching, skipping...",
+						candidates.get(i));
+				return Collections.singletonList(candidates);
+			}
+			keys[i] = ((long) (MATCH_SCALE - matchScore(matched, total)) << 32) | i;
+		}
+		Arrays.sort(keys);
+		List<List<String>> buckets = new ArrayList<>();
+		List<String> bucket = null;
+		long previous = -1;
+		for (long key : keys) {
+			long score = key >>> 32;
+			if (score != previous) {
+				bucket = new ArrayList<>();
+				buckets.add(bucket);
+				previous = score;
+			}
+			bucket.add(candidates.get((int) key));
+		}
+		return buckets;
+	}
+
+	/**
+	 * Scale of the match scores, chosen so that different fractions get different scores as long as
+	 * resources have no more than 1024 labels.
+	 */
+	private static final int MATCH_SCALE = 1 << 20;
+
+	static int matchScore(int matched, int total) {
+		return (int) (((long) matched * MATCH_SCALE) / total);
+	}
+
+	private static int countMatchedLabels(Set<String> labels, Set<String> matchLabels) {
+		if (matchLabels == null) return 0;
+		// probe the larger set with the smaller one
+		Set<String> probe = labels.size() < matchLabels.size() ? labels : matchLabels;
+		Set<String> target = probe == labels ? matchLabels : labels;
+		int numMatches = 0;
+		for (String label : probe) {
+			if (target.contains(label)) {
+				numMatches++;
+			}
+		}
+		return numMatches;
+	}
+
+	/**
+	 * The inventory plus the resources selected so far by the current call.
+	 */
+	private static final class ScratchPool implements ResourcePool {
+		private final ResourcePool inventory;
+		private final Set<String> taken = new HashSet<>();
+		private final Map<String, Integer> takenPerGroup = new HashMap<>();
+
+		ScratchPool(ResourcePool inventory) {
+			this.inventory = inventory;
+		}
+
+		void take(String name) {
+			if (!taken.add(name)) return;
+			Collection<String> loadBalancingLabels = inventory.getLoadBalancingLabels();
+			if (loadBalancingLabels.size() > 1) {
+				String group = null;
+				Set<String> labels = inventory.getLabels(name);
+				for (String label : loadBalancingLabels) {
+					if (labels.contains(label)) {
+						group = label;
+						break;
+					}
+				}
+				takenPerGroup.merge(group, 1, Integer::sum);
+			}
+		}
+
+		@Override
+		public boolean isAvailable(String name) {
+			return !taken.contains(name) && inventory.isAvailable(name);
+		}
+
+		@Override
+		public Set<String> getLabels(String name) {
+			return inventory.getLabels(name);
+		}
+
+		@Override
+		public Collection<String> getLoadBalancingLabels() {
+			return inventory.getLoadBalancingLabels();
+		}
+
+		@Override
+		public double getLoadBalancingUsage(String label) {
+			double usage = inventory.getLoadBalancingUsage(label);
+			Integer taken = takenPerGroup.get(label);
+			int size = inventory.getLoadBalancingGroupSize(label);
+			if (taken != null && size > 0) {
+				usage += (double) taken / size;
+			}
+			return usage;
+		}
+
+		@Override
+		public int getLoadBalancingGroupSize(String label) {
+			return inventory.getLoadBalancingGroupSize(label);
+		}
+
+		@Override
+		public long getLastReleased(String name) {
+			return inventory.getLastReleased(name);
+		}
+
+		@Override
+		public long getTotalHeld(String name) {
+			return inventory.getTotalHeld(name);
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.allocation;
+
+import java.util.*;
+
+/**
+ * Ordered list of the queue items waiting for resources, oldest first.
+ * <p>
+ * Once a waiter has waited longer than the aging threshold it becomes the owner of the free
+ * resources it could use, up to the number it needs: those resources are held back from the
+ * waiters behind it, so a large request is not starved by a stream of small ones.
+ * <p>
+ * Not thread safe, callers synchronize.
+ */
+public class FairWaitQueue {
+
+	/**
+	 * Waiters not seen for this long are considered gone (e.g. cancelled without notice).
+	 */
+	private static final long STALE_TIMEOUT = 5 * 60 * 1000;
+
+	private final Map<Long, Waiter> waiters = new HashMap<>();
+	private final TreeSet<Waiter> ordered = new TreeSet<>();
+	private long agingThreshold;
+
+	/**
+	 * @param agingThreshold time in milliseconds a waiter must wait before resources are held for it,
+	 *                       0 or less disables holding
+	 */
+	public FairWaitQueue(long agingThreshold) {
+		this.agingThreshold = agingThreshold;
+	}
+
+	public long getAgingThreshold() {
+		return agingThreshold;
+	}
+
+	public void setAgingThreshold(long agingThreshold) {
+		this.agingThreshold = agingThreshold;
+	}
+
+	/**
+	 * Records that an item could not get its resources.
+	 *
+	 * @param itemId     the queue item id
+	 * @param waitingSince when the item started waiting, it keeps its place on later calls
+	 * @param requests   what the item asked for
+	 * @param now        current time
+	 */
+	public void waiting(long itemId, long waitingSince, List<AllocationRequest> requests, long now) {
+		Waiter w = waiters.get(itemId);
+		if (w == null) {
+			w = new Waiter(itemId, waitingSince);
+			waiters.put(itemId, w);
+			ordered.add(w);
+		}
+		w.requests = requests;
+		w.lastSeen = now;
+	}
+
+	/**
+	 * Forgets an item, because it got its resources or left the queue.
+	 */
+	public void remove(long itemId) {
+		Waiter w = waiters.remove(itemId);
+		if (w != null) {
+			ordered.remove(w);
+		}
+	}
+
+	public boolean isEmpty() {
+		return waiters.isEmpty();
+	}
+
+	public int size() {
+		return waiters.size();
+	}
+
+	/**
+	 * Computes the resources held for aged waiters ahead of the given item.
+	 *
+	 * @param itemId the item about to allocate, may not be waiting yet
+	 * @param pool   the current resource state
+	 * @param now    current time
+	 * @return the names the item must not take
+	 */
+	public Set<String> getHeld(long itemId, ResourcePool pool, long now) {
+		if (agingThreshold <= 0 || waiters.isEmpty()) {
+			return Collections.emptySet();
+		}
+		expire(now);
+		Waiter self = waiters.get(itemId);
+		Set<String> held = new HashSet<>();
+		for (Waiter w : ordered) {
+			if (w == self || now - w.waitingSince < agingThreshold) {
+				// waiters are ordered by age, nobody further down has aged
+				break;
+			}
+			for (AllocationRequest request : w.requests) {
+				int toHold = request.getNumberToSelect();
+				for (String name : request.getCandidates()) {
+					if (toHold <= 0) break;
+					if (!held.contains(name) && pool.isAvailable(name)) {
+						held.add(name);
+						toHold--;
+					}
+				}
+			}
+		}
+		return held;
+	}
+
+	/**
+	 * @return the 1-based position of the item among the waiters competing for the same resources,
+	 * 0 if it is not waiting
+	 */
+	public int getPosition(long itemId) {
+		Waiter self = waiters.get(itemId);
+		if (self == null) return 0;
+		Set<String> wanted = self.getCandidates();
+		int position = 1;
+		for (Waiter w : ordered) {
+			if (w == self) break;
+			if (!Collections.disjoint(wanted, w.getCandidates())) {
+				position++;
+			}
+		}
+		return position;
+	}
+
+	private void expire(long now) {
+		Iterator<Waiter> it = ordered.iterator();
+		while (it.hasNext()) {
+			Waiter w = it.next();
+			if (now - w.lastSeen > STALE_TIMEOUT) {
+				it.remove();
+				waiters.remove(w.itemId);
+			}
+		}
+	}
+
+	private static final class Waiter implements Comparable<Waiter> {
+		private final long itemId;
+		private final long waitingSince;
+		private List<AllocationRequest> requests = Collections.emptyList();
+		private long lastSeen;
+
+		Waiter(long itemId, long waitingSince) {
+			this.itemId = itemId;
+			this.waitingSince = waitingSince;
+		}
+
+		Set<String> getCandidates() {
+			Set<String> candidates = new HashSet<>();
+			for (AllocationRequest request : requests) {
+				candidates.addAll(request.getCandidates());
+			}
+			return candidates;
+		}
+
+		@Override
+		public int compareTo(Waiter o) {
+			int c = Long.compare(waitingSince, o.waitingSince);
+			return c != 0 ? c : Long.compare(itemId, o.itemId);
+		}
+	}
+}
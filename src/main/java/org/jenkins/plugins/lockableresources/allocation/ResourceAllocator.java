@@ -0,0 +1,31 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.allocation;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides which resources satisfy a set of requests.
+ *
+ * Implementations only work on resource names, labels and {@link AllocationRequest}s,
+ * they never touch the Jenkins queue or builds. The {@link ResourcePool} gives them
+ * the current state of the inventory. Allocating has no side effects: the caller marks
+ * the returned resources as queued, and a failed attempt leaves the pool as it was.
+ */
+public interface ResourceAllocator {
+
+	/**
+	 * Selects resources for all the given requests at once.
+	 *
+	 * @param requests the requests to satisfy, all of them must be satisfied for a result
+	 * @param pool     the inventory to select from
+	 * @return the selected resource names (in selection order) mapped to the request they
+	 *         were selected for, or {@code null} if the requests cannot be satisfied right now
+	 */
+	Map<String, AllocationRequest> allocate(List<AllocationRequest> requests, ResourcePool pool);
+}
@@ -0,0 +1,57 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.allocation;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Read only view of the resource inventory as seen by a {@link ResourceAllocator}.
+ */
+public interface ResourcePool {
+
+	/**
+	 * @return true if the resource is neither reserved, locked nor queued
+	 */
+	boolean isAvailable(String name);
+
+	/**
+	 * @return the labels of the resource, never null
+	 */
+	Set<String> getLabels(String name);
+
+	/**
+	 * @return the labels used to spread selections over groups of resources
+	 */
+	Collection<String> getLoadBalancingLabels();
+
+	/**
+	 * @param label a load balancing label, or null for resources without any of them
+	 * @return the ratio of resources in use for the given load balancing group
+	 */
+	double getLoadBalancingUsage(String label);
+
+	/**
+	 * @param label a load balancing label, or null for resources without any of them
+	 * @return the number of resources in the given load balancing group
+	 */
+	int getLoadBalancingGroupSize(String label);
+
+	/**
+	 * @return when the resource was last unlocked, in milliseconds since the epoch, 0 if never
+	 */
+	default long getLastReleased(String name) {
+		return 0;
+	}
+
+	/**
+	 * @return for how long the resource has been locked in total, in milliseconds
+	 */
+	default long getTotalHeld(String name) {
+		return 0;
+	}
+}
@@ -0,0 +1,39 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.allocation;
+
+/**
+ * How to pick among equally suitable candidates.
+ */
+public enum ResourceSelectionMode {
+	/**
+	 * Always take the first candidate, in configuration order.
+	 */
+	FIRST("First in list"),
+	/**
+	 * Take a random candidate (the former "use resources evenly" setting).
+	 */
+	RANDOM("Random"),
+	/**
+	 * Take the candidate released the longest time ago.
+	 */
+	LEAST_RECENTLY_USED("Least recently used"),
+	/**
+	 * Take the candidate with the lowest cumulative lock time (wear leveling).
+	 */
+	LEAST_HELD("Least total lock time");
+
+	private final String displayName;
+
+	ResourceSelectionMode(String displayName) {
+		this.displayName = displayName;
+	}
+
+	public String getDisplayName() {
+		return displayName;
+	}
+}
@@ -0,0 +1,143 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.metrics;
+
+import java.util.*;
+
+/**
+ * The last hold durations of every resource and label, to estimate when locked resources get free.
+ * <p>
+ * Each resource and label keeps a fixed number of durations, older ones are overwritten.
+ * <p>
+ * Not thread safe, callers synchronize.
+ */
+public class HoldTimeHistory {
+
+	private final int capacity;
+	private final Map<String, Ring> rings = new HashMap<>();
+
+	/**
+	 * @param capacity number of durations kept per resource and per label
+	 */
+	public HoldTimeHistory(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Records that a resource was held for the given time.
+	 */
+	public void record(String name, Collection<String> labels, long millis) {
+		if (millis < 0) return;
+		ring(name).add(millis);
+		for (String label : labels) {
+			ring(label).add(millis);
+		}
+	}
+
+	/**
+	 * @return the median hold duration of the resource or label, -1 if there is no history
+	 */
+	public long getTypical(String key) {
+		Ring ring = rings.get(key);
+		return ring == null ? -1 : ring.residual(0);
+	}
+
+	/**
+	 * @return the median hold duration of every resource and label with a history
+	 */
+	public Map<String, Long> getTypicals() {
+		Map<String, Long> typicals = new TreeMap<>();
+		for (Map.Entry<String, Ring> e : rings.entrySet()) {
+			typicals.put(e.getKey(), e.getValue().residual(0));
+		}
+		return typicals;
+	}
+
+	/**
+	 * Estimates how much longer a resource stays held, from the past holds which lasted longer
+	 * than the current one. The history of the resource is used first, then the one of its labels.
+	 *
+	 * @param elapsed how long the resource has been held so far
+	 * @return the estimated remaining time in milliseconds, -1 if unknown
+	 */
+	public long estimateRemaining(String name, Collection<String> labels, long elapsed) {
+		Ring ring = rings.get(name);
+		long remaining = ring == null ? -1 : ring.residual(elapsed);
+		for (Iterator<String> it = labels.iterator(); remaining < 0 && it.hasNext(); ) {
+			ring = rings.get(it.next());
+			remaining = ring == null ? -1 : ring.residual(elapsed);
+		}
+		return remaining;
+	}
+
+	/**
+	 * Drops the history of resources and labels which are gone.
+	 */
+	public void retain(Collection<String> keys) {
+		rings.keySet().retainAll(keys);
+	}
+
+	/**
+	 * Drops the history of the given resources and labels.
+	 */
+	public void forget(Collection<String> keys) {
+		rings.keySet().removeAll(keys);
+	}
+
+	/**
+	 * @param needed    number of resources which must get free
+	 * @param remaining estimated remaining time of the resources which may get free, -1 if unknown
+	 * @return the time until enough resources are free, -1 if unknown
+	 */
+	public static long estimateWait(int needed, Collection<Long> remaining) {
+		if (needed <= 0) return 0;
+		long[] known = new long[remaining.size()];
+		int n = 0;
+		for (long r : remaining) {
+			if (r >= 0) known[n++] = r;
+		}
+		if (n < needed) return -1;
+		Arrays.sort(known, 0, n);
+		return known[needed - 1];
+	}
+
+	private Ring ring(String key) {
+		return rings.computeIfAbsent(key, k -> new Ring(capacity));
+	}
+
+	private static final class Ring {
+		private final long[] durations;
+		private int next;
+		private int size;
+
+		Ring(int capacity) {
+			durations = new long[capacity];
+		}
+
+		void add(long millis) {
+			durations[next] = millis;
+			next = (next + 1) % durations.length;
+			size = Math.min(size + 1, durations.length);
+		}
+
+		/**
+		 * @return the median remaining time of the holds at least as long as elapsed, -1 if there is none
+		 */
+		long residual(long elapsed) {
+			long[] longer = new long[size];
+			int n = 0;
+			for (int i = 0; i < size; i++) {
+				if (durations[i] >= elapsed) {
+					longer[n++] = durations[i] - elapsed;
+				}
+			}
+			if (n == 0) return -1;
+			Arrays.sort(longer, 0, n);
+			return longer[n / 2];
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.metrics;
+
+import hudson.Util;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Audit trail of the locks taken back from builds which stopped renewing their lease.
+ * <p>
+ * Only the last entries are kept, the counters cover every reclaim since startup.
+ */
+@ExportedBean(defaultVisibility = 999)
+public class ReclaimLog {
+
+	private final Entry[] entries;
+	private int next;
+	private int size;
+	private long reclaimedCount;
+	private long reclaimedStaleMillis;
+
+	/**
+	 * @param capacity number of entries kept
+	 */
+	public ReclaimLog(int capacity) {
+		this.entries = new Entry[capacity];
+	}
+
+	public synchronized void record(Entry entry) {
+		entries[next] = entry;
+		next = (next + 1) % entries.length;
+		size = Math.min(size + 1, entries.length);
+		reclaimedCount++;
+		reclaimedStaleMillis += entry.staleMillis;
+	}
+
+	/**
+	 * @return the number of locks reclaimed
+	 */
+	@Exported
+	public synchronized long getReclaimedCount() {
+		return reclaimedCount;
+	}
+
+	/**
+	 * @return the accumulated time the reclaimed locks had outlived their last renewal, in milliseconds
+	 */
+	@Exported
+	public synchronized long getReclaimedStaleMillis() {
+		return reclaimedStaleMillis;
+	}
+
+	/**
+	 * @return the kept entries, newest first
+	 */
+	@Exported
+	public synchronized List<Entry> getEntries() {
+		List<Entry> result = new ArrayList<>(size);
+		for (int i = 1; i <= size; i++) {
+			result.add(entries[(next - i + entries.length) % entries.length]);
+		}
+		return result;
+	}
+
+	@ExportedBean(defaultVisibility = 999)
+	public static final class Entry {
+		private final long time;
+		private final String resource;
+		private final String build;
+		private final long heldMillis;
+		private final long staleMillis;
+
+		/**
+		 * @param time        when the lock was reclaimed
+		 * @param resource    the resource name
+		 * @param build       the display name of the build which held it
+		 * @param heldMillis  how long the build held it
+		 * @param staleMillis how long it was held since the last renewal of its lease
+		 */
+		public Entry(long time, String resource, String build, long heldMillis, long staleMillis) {
+			this.time = time;
+			this.resource = resource;
+			this.build = build;
+			this.heldMillis = heldMillis;
+			this.staleMillis = staleMillis;
+		}
+
+		@Exported
+		public long getTime() {
+			return time;
+		}
+
+		@Exported
+		public String getResource() {
+			return resource;
+		}
+
+		@Exported
+		public String getBuild() {
+			return build;
+		}
+
+		@Exported
+		public long getHeldMillis() {
+			return heldMillis;
+		}
+
+		@Exported
+		public long getStaleMillis() {
+			return staleMillis;
+		}
+
+		public Date getDate() {
+			return new Date(time);
+		}
+
+		public String getHeldDuration() {
+			return Util.getTimeSpanString(heldMillis);
+		}
+
+		public String getStaleDuration() {
+			return Util.getTimeSpanString(staleMillis);
+		}
+	}
+}
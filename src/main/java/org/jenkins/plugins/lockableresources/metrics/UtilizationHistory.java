@@ -0,0 +1,164 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.metrics;
+
+import java.util.*;
+
+/**
+ * The state of every resource sampled at a fixed interval, over a fixed number of samples.
+ * <p>
+ * All resources share the same sampling times. A sample takes two bits, packed in a ring of longs
+ * per resource, so the footprint is about {@code slots / 4} bytes per resource whatever happens.
+ * <p>
+ * Not thread safe, callers synchronize.
+ */
+public class UtilizationHistory {
+
+	public enum State {
+		FREE, QUEUED, LOCKED, RESERVED
+	}
+
+	private static final State[] STATES = State.values();
+	private static final char[] SPARKS = {'\u2581', '\u2582', '\u2583', '\u2584', '\u2585', '\u2586', '\u2587', '\u2588'};
+
+	private final int slots;
+	private final long interval;
+	private final Map<String, Series> series = new HashMap<>();
+	/** slot of the next sample */
+	private int head;
+	private long lastSample;
+
+	/**
+	 * @param slots    number of samples kept per resource
+	 * @param interval time between two samples in milliseconds
+	 */
+	public UtilizationHistory(int slots, long interval) {
+		this.slots = slots;
+		this.interval = interval;
+	}
+
+	public int getSlots() {
+		return slots;
+	}
+
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @return when the last sample was taken, 0 if none was
+	 */
+	public long getLastSample() {
+		return lastSample;
+	}
+
+	public Set<String> getNames() {
+		return Collections.unmodifiableSet(series.keySet());
+	}
+
+	/**
+	 * Records the current state of all resources. Intervals missed since the last sample, e.g.
+	 * because the sampling thread was busy, get the current states too. Resources which are not
+	 * given are forgotten.
+	 */
+	public void sample(long now, Map<String, State> states) {
+		int steps = 1;
+		if (lastSample > 0) {
+			steps = (int) Math.max(1, Math.min(slots, (now - lastSample + interval / 2) / interval));
+		}
+		series.keySet().retainAll(states.keySet());
+		for (Map.Entry<String, State> e : states.entrySet()) {
+			Series s = series.computeIfAbsent(e.getKey(), k -> new Series(slots));
+			for (int i = 0; i < steps; i++) {
+				s.set((head + i) % slots, e.getValue().ordinal());
+			}
+			s.count = Math.min(slots, s.count + steps);
+		}
+		head = (head + steps) % slots;
+		lastSample = now;
+	}
+
+	/**
+	 * @return the samples of the resource, oldest first, null if it was never sampled
+	 */
+	public State[] getSamples(String name) {
+		Series s = series.get(name);
+		if (s == null) return null;
+		State[] samples = new State[s.count];
+		for (int i = 0; i < s.count; i++) {
+			samples[i] = STATES[s.get(slot(s.count - i))];
+		}
+		return samples;
+	}
+
+	/**
+	 * @return the fraction of the samples of the resource where it was not free, 0 if never sampled
+	 */
+	public double getBusyFraction(String name) {
+		Series s = series.get(name);
+		if (s == null || s.count == 0) return 0;
+		int busy = 0;
+		for (int i = 1; i <= s.count; i++) {
+			if (s.get(slot(i)) != State.FREE.ordinal()) busy++;
+		}
+		return (double) busy / s.count;
+	}
+
+	/**
+	 * Renders the busy fraction of the resource over the whole history as block characters,
+	 * oldest first. Periods before the resource was first sampled are blank, so the sparklines
+	 * of all resources line up.
+	 *
+	 * @param buckets number of characters
+	 */
+	public String getSparkline(String name, int buckets) {
+		Series s = series.get(name);
+		int count = s == null ? 0 : s.count;
+		buckets = Math.min(buckets, slots);
+		StringBuilder sb = new StringBuilder(buckets);
+		for (int b = 0; b < buckets; b++) {
+			// samples ago covered by this bucket, counting from the oldest slot
+			int from = slots - (int) ((long) b * slots / buckets);
+			int to = slots - (int) ((long) (b + 1) * slots / buckets);
+			int sampled = 0;
+			int busy = 0;
+			for (int ago = from; ago > to; ago--) {
+				if (ago <= count) {
+					sampled++;
+					if (s.get(slot(ago)) != State.FREE.ordinal()) busy++;
+				}
+			}
+			sb.append(sampled == 0 ? ' ' : SPARKS[busy * (SPARKS.length - 1) / sampled]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the slot of the sample taken the given number of samples ago, 1 being the last one
+	 */
+	private int slot(int ago) {
+		return ((head - ago) % slots + slots) % slots;
+	}
+
+	private static final class Series {
+		private final long[] bits;
+		private int count;
+
+		Series(int slots) {
+			bits = new long[(slots * 2 + 63) / 64];
+		}
+
+		int get(int slot) {
+			return (int) (bits[slot >> 5] >>> ((slot & 31) << 1)) & 3;
+		}
+
+		void set(int slot, int state) {
+			int shift = (slot & 31) << 1;
+			bits[slot >> 5] = (bits[slot >> 5] & ~(3L << shift)) | ((long) state << shift);
+		}
+	}
+}
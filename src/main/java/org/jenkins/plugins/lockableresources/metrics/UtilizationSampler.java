@@ -0,0 +1,28 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.metrics;
+
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+import org.jenkins.plugins.lockableresources.LockableResourcesManager;
+
+/**
+ * Samples the state of the resources into their utilization history.
+ */
+@Extension
+public class UtilizationSampler extends PeriodicWork {
+
+	@Override
+	public long getRecurrencePeriod() {
+		return LockableResourcesManager.UTILIZATION_INTERVAL;
+	}
+
+	@Override
+	protected void doRun() {
+		LockableResourcesManager.get().sampleUtilization();
+	}
+}
@@ -0,0 +1,173 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.queue;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.*;
+
+/**
+ * Why a queue item cannot get its resources, as of a given state of the resources.
+ */
+@ExportedBean(defaultVisibility = 999)
+public class BlockageReport {
+
+	private final List<Entry> entries;
+	private final long generation;
+	private final long computedAt;
+	private final long estimatedFreeAt;
+
+	/**
+	 * @param generation      the state of the resources the report was computed from
+	 * @param computedAt      when it was computed
+	 * @param estimatedFreeAt when the resources are expected to be free, -1 if unknown
+	 */
+	public BlockageReport(List<Entry> entries, long generation, long computedAt, long estimatedFreeAt) {
+		this.entries = Collections.unmodifiableList(new ArrayList<>(entries));
+		this.generation = generation;
+		this.computedAt = computedAt;
+		this.estimatedFreeAt = estimatedFreeAt;
+	}
+
+	/**
+	 * @return one entry per requirement of the item
+	 */
+	@Exported
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	public long getGeneration() {
+		return generation;
+	}
+
+	@Exported
+	public long getComputedAt() {
+		return computedAt;
+	}
+
+	/**
+	 * @return when the resources are expected to be free, -1 if unknown
+	 */
+	@Exported
+	public long getEstimatedFreeAt() {
+		return estimatedFreeAt;
+	}
+
+	/**
+	 * The state of the resources matching one requirement.
+	 */
+	@ExportedBean(defaultVisibility = 999)
+	public static class Entry {
+		private final String resources;
+		private final int needed;
+		private int free;
+		private int queued;
+		private int heldElsewhere;
+		private final Map<String, List<String>> lockedBy = new TreeMap<>();
+		private final Map<String, List<String>> reservedBy = new TreeMap<>();
+
+		/**
+		 * @param resources the requested resource names or labels
+		 * @param needed    the number of resources needed
+		 */
+		public Entry(String resources, int needed) {
+			this.resources = resources;
+			this.needed = needed;
+		}
+
+		public void addFree() {
+			free++;
+		}
+
+		public void addQueued() {
+			queued++;
+		}
+
+		public void addHeldElsewhere() {
+			heldElsewhere++;
+		}
+
+		public void addLocked(String build, String resource) {
+			lockedBy.computeIfAbsent(build, k -> new ArrayList<>()).add(resource);
+		}
+
+		public void addReserved(String user, String resource) {
+			reservedBy.computeIfAbsent(user, k -> new ArrayList<>()).add(resource);
+		}
+
+		@Exported
+		public String getResources() {
+			return resources;
+		}
+
+		@Exported
+		public int getNeeded() {
+			return needed;
+		}
+
+		/**
+		 * @return the number of matching resources free for the item
+		 */
+		@Exported
+		public int getFree() {
+			return free;
+		}
+
+		/**
+		 * @return the number of matching resources queued by other items
+		 */
+		@Exported
+		public int getQueued() {
+			return queued;
+		}
+
+		/**
+		 * @return the number of matching resources held by other controllers
+		 */
+		@Exported
+		public int getHeldElsewhere() {
+			return heldElsewhere;
+		}
+
+		/**
+		 * @return the matching resources locked, per build
+		 */
+		@Exported
+		public Map<String, List<String>> getLockedBy() {
+			return Collections.unmodifiableMap(lockedBy);
+		}
+
+		/**
+		 * @return the matching resources reserved, per user
+		 */
+		@Exported
+		public Map<String, List<String>> getReservedBy() {
+			return Collections.unmodifiableMap(reservedBy);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(resources);
+			sb.append(" (").append(free).append('/').append(needed).append(" free");
+			if (queued > 0) {
+				sb.append(", ").append(queued).append(" queued by other builds");
+			}
+			if (!lockedBy.isEmpty()) {
+				sb.append(", locked by ").append(String.join(", ", lockedBy.keySet()));
+			}
+			if (!reservedBy.isEmpty()) {
+				sb.append(", reserved by ").append(String.join(", ", reservedBy.keySet()));
+			}
+			if (heldElsewhere > 0) {
+				sb.append(", ").append(heldElsewhere).append(" held by other controllers");
+			}
+			return sb.append(')').toString();
+		}
+	}
+}
@@ -0,0 +1,33 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.queue;
+
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+import org.jenkins.plugins.lockableresources.LockableResourcesManager;
+
+/**
+ * Renews the lock leases of the running builds and reclaims the expired ones, and lets the waiting
+ * {@link LockableResourcesManager#acquire} calls try again.
+ */
+@Extension
+public class LockLeaseMonitor extends PeriodicWork {
+
+	static final long RECURRENCE = 15 * 1000;
+
+	@Override
+	public long getRecurrencePeriod() {
+		return RECURRENCE;
+	}
+
+	@Override
+	protected void doRun() {
+		LockableResourcesManager manager = LockableResourcesManager.get();
+		manager.checkLeases();
+		manager.retryLockWaiters();
+	}
+}
@@ -11,23 +11,28 @@ package org.jenkins.plugins.lockableresources.queue;
 
 import hudson.EnvVars;
 import hudson.Extension;
+import hudson.FilePath;
 import hudson.Launcher;
-import hudson.matrix.MatrixBuild;
 import hudson.model.*;
 import hudson.model.listeners.RunListener;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
 import org.jenkins.plugins.lockableresources.LockableResource;
-import org.jenkins.plugins.lockableresources.LockableResourceProperty;
 import org.jenkins.plugins.lockableresources.LockableResourcesManager;
 import org.jenkins.plugins.lockableresources.actions.LockedResourcesBuildAction;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import static org.jenkins.plugins.lockableresources.Constants.MANIFEST_FILE;
+import static org.jenkins.plugins.lockableresources.Constants.MANIFEST_VARIABLE;
+
 @Extension
 public class LockRunListener extends RunListener<AbstractBuild<?, ?>> {
 
@@ -36,18 +41,25 @@ public class LockRunListener extends RunListener<AbstractBuild<?, ?>> {
 
 	@Override
 	public void onStarted(AbstractBuild<?, ?> build, TaskListener listener) {
-		// Skip locking for multiple configuration projects,
-		// only the child jobs will actually lock resources.
-		if (build instanceof MatrixBuild)
-			return;
-
+		// Multiple configuration projects only have resources to lock
+		// when locking for all their configurations at once.
 		AbstractProject<?, ?> proj = Utils.getProject(build);
         // Line below seems to get all the resources
 		LockedResourcesBuildAction requiredResourcesAction = build.getAction(LockedResourcesBuildAction.class);
+		if ( requiredResourcesAction != null && requiredResourcesAction.borrowed ) {
+			// locked by the parent matrix build
+			requiredResourcesAction.populateBorrowedResources();
+			requiredResourcesAction.environment = resolveEnvironment(requiredResourcesAction, !usesManifest(build));
+			listener.getLogger().printf("%s using %s locked by the matrix build", LOG_PREFIX,
+					requiredResourcesAction.matchedResources);
+			listener.getLogger().println();
+			return;
+		}
 		if ( proj != null && requiredResourcesAction != null && !requiredResourcesAction.matchedResources.isEmpty() ) {
 			List<String> required = requiredResourcesAction.matchedResources;
 			if (LockableResourcesManager.get().lock(required, build)) {
 				requiredResourcesAction.populateLockedResources(build);
+				requiredResourcesAction.environment = resolveEnvironment(requiredResourcesAction, !usesManifest(build));
 				listener.getLogger().printf("%s acquired lock on %s", LOG_PREFIX, required);
 				listener.getLogger().println();
 				LOGGER.log(Level.FINE, "{0} acquired lock on {1}",
@@ -70,57 +82,115 @@ public class LockRunListener extends RunListener<AbstractBuild<?, ?>> {
             throw new Run.RunnerAbortedException();
 
 		LockedResourcesBuildAction requiredResourcesAction = build.getAction(LockedResourcesBuildAction.class);
-		EnvVars env = new EnvVars();
-		if (requiredResourcesAction != null) {
-            // TODO: if no resource is found -> error out build
-			// add environment variable
-			Map<LockableResourcesStruct, Integer> indexes = new HashMap<>();
-			for (String matched : requiredResourcesAction.matchedResources) {
-				LockableResourcesStruct s = requiredResourcesAction.matchedResourcesMap.get(matched);
-				String prefix = null;
-				if (s != null) {
-					if (indexes.get(s) != null) {
-						indexes.put(s, indexes.get(s) + 1);
-					} else {
-						indexes.put(s, 1);
-					}
-					if (s.requiredVar != null) {
-						if (env.get(s.requiredVar, null) != null) {
-                            // its been added before logic, so append the newly found
-							env.put(s.requiredVar, env.get(s.requiredVar) + " " + matched);
-						} else {
-							env.put(s.requiredVar, matched);
-						}
-                        // add a unique instance of it
-                        env.put(s.requiredVar + indexes.get(s).toString(), matched);
-					}
-					if (s.resourceVarsPrefix != null)
-						prefix = s.resourceVarsPrefix;
-                    // if prefix is still null, use required var
-                    if (prefix == null || prefix.isEmpty())
-                        prefix = s.requiredVar;
+		final EnvVars env = new EnvVars();
+		if (requiredResourcesAction == null) {
+			return Environment.create(env);
+		}
+        // TODO: if no resource is found -> error out build
+		boolean manifest = usesManifest(build);
+		Map<String, String> resolved = requiredResourcesAction.environment;
+		if (resolved == null) {
+			resolved = resolveEnvironment(requiredResourcesAction, !manifest);
+		}
+		env.putAll(resolved);
+		if (!manifest) {
+			return Environment.create(env);
+		}
+		final FilePath manifestFile = writeManifest(build, requiredResourcesAction);
+		env.put(MANIFEST_VARIABLE, manifestFile.getRemote());
+		return new Environment() {
+			@Override
+			public void buildEnvVars(Map<String, String> vars) {
+				vars.putAll(env);
+			}
+
+			@Override
+			public boolean tearDown(AbstractBuild build, BuildListener listener) throws IOException, InterruptedException {
+				manifestFile.delete();
+				return true;
+			}
+		};
+	}
+
+	private static boolean usesManifest(AbstractBuild<?, ?> build) {
+		return Utils.isResourceManifest(Utils.getProject(build));
+	}
+
+	/**
+	 * Writes the description of the locked resources in the temporary directory of the workspace.
+	 *
+	 * @return the written file
+	 */
+	static FilePath writeManifest(AbstractBuild<?, ?> build, LockedResourcesBuildAction requiredResourcesAction)
+			throws IOException, InterruptedException {
+		FilePath workspace = build.getWorkspace();
+		if (workspace == null) {
+			throw new IOException("No workspace to write the resource manifest of " + build.getFullDisplayName());
+		}
+		LockableResourcesManager manager = LockableResourcesManager.get();
+		JSONArray resources = new JSONArray();
+		for (String matched : requiredResourcesAction.matchedResources) {
+			LockableResource r = manager.fromName(matched);
+			if (r == null) continue;
+			JSONObject resource = new JSONObject();
+			resource.element("name", r.getName());
+			resource.element("description", r.getDescription());
+			resource.element("labels", new ArrayList<>(r.getLabelSet()));
+			resource.element("properties", r.getPropertiesAsMap());
+			resources.element(resource);
+		}
+		JSONObject json = new JSONObject();
+		json.element("build", build.getFullDisplayName());
+		json.element("resources", resources);
+		FilePath tmp = workspace.sibling(workspace.getName() + "@tmp");
+		tmp.mkdirs();
+		FilePath manifestFile = tmp.child(MANIFEST_FILE);
+		manifestFile.write(json.toString(2), "UTF-8");
+		return manifestFile;
+	}
+
+	/**
+	 * Computes the variables the locked resources contribute to the build environment.
+	 *
+	 * @param resourceVariables false to leave out the descriptions, labels and properties of the resources
+	 */
+	static Map<String, String> resolveEnvironment(LockedResourcesBuildAction requiredResourcesAction,
+	                                              boolean resourceVariables) {
+		LockableResourcesManager manager = LockableResourcesManager.get();
+		Map<String, String> env = new EnvVars();
+		Map<LockableResourcesStruct, Integer> indexes = new HashMap<>();
+		for (String matched : requiredResourcesAction.matchedResources) {
+			LockableResourcesStruct s = requiredResourcesAction.matchedResourcesMap.get(matched);
+			String prefix = null;
+			if (s != null) {
+				indexes.merge(s, 1, Integer::sum);
+				if (s.requiredVar != null) {
+					String all = env.get(s.requiredVar);
+					// its been added before logic, so append the newly found
+					env.put(s.requiredVar, all != null ? all + " " + matched : matched);
+					// add a unique instance of it
+					env.put(s.requiredVar + indexes.get(s), matched);
 				}
-				LockableResource r = LockableResourcesManager.get().fromName(matched);
-                env.putIfNotNull(prefix + indexes.get(s).toString() + "_desc", r.getDescription());
-                env.putIfNotNull(prefix + indexes.get(s).toString() + "_labels", r.getLabels());
-                List<LockableResourceProperty> envProps = r.getProperties();
-                for (LockableResourceProperty prop : envProps) {
-                    LOGGER.log(Level.FINEST, "{0} added environment variable [{1}]",
-                            new Object[]{r.getName(), prop.toString()});
-                    env.put(prefix + indexes.get(s).toString() + "_" + prop.getName(), prop.getValue());
-                }
+				if (s.resourceVarsPrefix != null)
+					prefix = s.resourceVarsPrefix;
+				// if prefix is still null, use required var
+				if (prefix == null || prefix.isEmpty())
+					prefix = s.requiredVar;
+			}
+			ResourceEnvironment resourceEnv = resourceVariables ? manager.getEnvironment(matched) : null;
+			if (resourceEnv != null) {
+				resourceEnv.addTo(env, prefix + indexes.get(s));
 			}
 		}
-		return Environment.create(env);
+		LOGGER.log(Level.FINEST, "Resolved {0} environment variables for {1}",
+				new Object[]{env.size(), requiredResourcesAction.matchedResources});
+		return env;
 	}
 
 	@Override
 	public void onCompleted(AbstractBuild<?, ?> build, @Nonnull TaskListener listener) {
-		// Skip unlocking for multiple configuration projects,
-		// only the child jobs will actually unlock resources.
-		if (build instanceof MatrixBuild)
-			return;
-
+		// Multiple configuration projects only hold resources when locking
+		// for all their configurations, the child jobs then hold none.
 		// obviously project name cannot be obtained here
 		List<LockableResource> required = LockableResourcesManager.get()
 				.getResourcesFromBuild(build);
@@ -136,11 +206,6 @@ public class LockRunListener extends RunListener<AbstractBuild<?, ?>> {
 
 	@Override
 	public void onDeleted(AbstractBuild<?, ?> build) {
-		// Skip unlocking for multiple configuration projects,
-		// only the child jobs will actually unlock resources.
-		if (build instanceof MatrixBuild)
-			return;
-
 		List<LockableResource> required = LockableResourcesManager.get()
 				.getResourcesFromBuild(build);
 		if (required.size() > 0) {
@@ -0,0 +1,36 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.queue;
+
+import hudson.Extension;
+import hudson.model.Queue;
+import hudson.model.queue.QueueListener;
+import org.jenkins.plugins.lockableresources.LockableResourcesManager;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Removes items leaving the queue from the line of items waiting for resources.
+ */
+@Extension
+public class LockableResourcesQueueListener extends QueueListener {
+
+	static final Logger LOGGER = Logger.getLogger(LockableResourcesQueueListener.class.getName());
+
+	@Override
+	public void onLeft(Queue.LeftItem li) {
+		LockableResourcesManager rm = LockableResourcesManager.get();
+		if (rm != null) {
+			LOGGER.log(Level.FINEST, "Queue item {0} left the queue", li.getId());
+			rm.dequeue(li.getId());
+			if (li.isCancelled()) {
+				rm.cancelQueued(li.getId());
+			}
+		}
+	}
+}
@@ -11,6 +11,9 @@ package org.jenkins.plugins.lockableresources.queue;
 
 import hudson.EnvVars;
 import hudson.Extension;
+import hudson.Util;
+import hudson.matrix.MatrixBuild;
+import hudson.matrix.MatrixConfiguration;
 import hudson.matrix.MatrixProject;
 import hudson.model.*;
 import hudson.model.queue.CauseOfBlockage;
@@ -18,9 +21,13 @@ import hudson.model.queue.QueueTaskDispatcher;
 import org.jenkins.plugins.lockableresources.LockableResource;
 import org.jenkins.plugins.lockableresources.LockableResourcesManager;
 import org.jenkins.plugins.lockableresources.RequiredResourcesParameterValue;
+import org.jenkins.plugins.lockableresources.actions.LockedResourcesBuildAction;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,8 +40,9 @@ public class LockableResourcesQueueTaskDispatcher extends QueueTaskDispatcher {
 	@Override
 	public CauseOfBlockage canRun(Queue.Item item) {
 		// Skip locking for multiple configuration projects,
-		// only the child jobs will actually lock resources.
-		if (item.task instanceof MatrixProject)
+		// only the child jobs will actually lock resources,
+		// unless the matrix locks for all its configurations.
+		if (item.task instanceof MatrixProject && !Utils.isMatrixGangAllocation((MatrixProject) item.task))
 			return null;
 
 		try {
@@ -42,18 +50,44 @@ public class LockableResourcesQueueTaskDispatcher extends QueueTaskDispatcher {
 			if (project == null)
 				return null;
 
+			if (project instanceof MatrixConfiguration && borrowFromMatrix(item, (MatrixConfiguration) project)) {
+				LOGGER.log(Level.FINEST, "{0} uses resources locked by its matrix build", project.getFullName());
+				return null;
+			}
+
+			LockableResourcesManager rm = LockableResourcesManager.get();
+			if (rm != null) {
+				// nothing changed for the resources it waits for since the last attempt
+				CauseOfBlockage cached = rm.getCachedBlockage(item.getId());
+				if (cached != null) {
+					return cached;
+				}
+			}
+
 			EnvVars env = new EnvVars();
 			ArrayList<LockableResourcesStruct> resources = new ArrayList<>();
 			for ( ParametersAction pa : item.getActions(ParametersAction.class) ) {
 				for ( ParameterValue pv : pa.getParameters() ) {
 					if ( pv instanceof RequiredResourcesParameterValue ) {
-						resources.add(new LockableResourcesStruct((RequiredResourcesParameterValue)pv));
+						resources.add(new LockableResourcesStruct((RequiredResourcesParameterValue)pv, project.getFullName()));
 					} else if (pv instanceof StringParameterValue) {
 						env.put(pv.getName(), pv.getValue().toString());
 					}
 				}
 			}
-			resources.addAll(Utils.requiredResources(project, env));
+			// the configuration each request comes from, when queuing for a whole matrix
+			Map<LockableResourcesStruct, String> combinations = null;
+			if (project instanceof MatrixProject) {
+				combinations = new IdentityHashMap<>();
+				for (MatrixConfiguration c : ((MatrixProject) project).getActiveConfigurations()) {
+					for (LockableResourcesStruct s : Utils.requiredResources(c, new EnvVars(env))) {
+						resources.add(s);
+						combinations.put(s, c.getCombination().toString());
+					}
+				}
+			} else {
+				resources.addAll(Utils.requiredResources(project, env));
+			}
 			boolean isOk = true;
 			for (LockableResourcesStruct r : resources) {
 				if (r.required == null) {
@@ -68,7 +102,6 @@ public class LockableResourcesQueueTaskDispatcher extends QueueTaskDispatcher {
 			LOGGER.log(Level.FINEST, "{0} trying to get resources with these details: {1}",
 					new Object[]{project.getFullName(), resources});
 
-			LockableResourcesManager rm = LockableResourcesManager.get();
 			//resources.add(new LockableResourcesStruct(new RequiredResourcesProperty("sta", "ACQUIRED_STA", "2"), new EnvVars()));
 			Collection<LockableResource> selected = null;
 			if (rm != null) {
@@ -78,10 +111,23 @@ public class LockableResourcesQueueTaskDispatcher extends QueueTaskDispatcher {
 			if (selected != null) {
 				LOGGER.log(Level.FINEST, "{0} reserved resources {1}",
 						new Object[]{project.getFullName(), selected});
+				if (combinations != null) {
+					LockedResourcesBuildAction action = item.getAction(LockedResourcesBuildAction.class);
+					action.gangResources.clear();
+					for (String name : action.matchedResources) {
+						String combination = combinations.get(action.matchedResourcesMap.get(name));
+						action.gangResources.computeIfAbsent(combination == null ? "" : combination,
+								k -> new ArrayList<>()).add(name);
+					}
+				}
 				return null;
 			} else {
 				LOGGER.log(Level.FINEST, "{0} waiting for resources", project.getFullName());
-				return new BecauseResourcesLocked(resources, env);
+				CauseOfBlockage cause = new BecauseResourcesLocked(resources, env, item.getId());
+				if (rm != null) {
+					rm.cacheBlockage(item.getId(), cause);
+				}
+				return cause;
 			}
 		}
 		catch ( RuntimeException ex ) {
@@ -90,31 +136,140 @@ public class LockableResourcesQueueTaskDispatcher extends QueueTaskDispatcher {
 		}
 	}
 
+	/**
+	 * Gives a matrix configuration the resources its parent build locked for it.
+	 *
+	 * @return false if the parent build did not lock resources for the configuration
+	 */
+	private static boolean borrowFromMatrix(Queue.Item item, MatrixConfiguration configuration) {
+		if (!Utils.isMatrixGangAllocation(configuration.getParent()))
+			return false;
+		MatrixConfiguration.ParentBuildAction parentBuildAction = item.getAction(MatrixConfiguration.ParentBuildAction.class);
+		if (parentBuildAction == null || parentBuildAction.parent == null)
+			return false;
+		MatrixBuild parent = parentBuildAction.parent;
+		LockedResourcesBuildAction parentAction = parent.getAction(LockedResourcesBuildAction.class);
+		if (parentAction == null || parentAction.gangResources.isEmpty())
+			return false;
+
+		List<String> lent = new ArrayList<>();
+		List<String> own = parentAction.gangResources.get(configuration.getCombination().toString());
+		if (own != null) lent.addAll(own);
+		List<String> shared = parentAction.gangResources.get("");
+		if (shared != null) lent.addAll(shared);
+		LockableResourcesManager rm = LockableResourcesManager.get();
+		for (String name : lent) {
+			LockableResource r = rm.fromName(name);
+			if (r == null || r.getBuild() != parent) {
+				LOGGER.log(Level.WARNING, "{0} was not locked by {1}, {2} will wait for resources on its own",
+						new Object[]{name, parent.getFullDisplayName(), configuration.getFullName()});
+				return false;
+			}
+		}
+
+		LockedResourcesBuildAction action = item.getAction(LockedResourcesBuildAction.class);
+		if (action == null) {
+			action = new LockedResourcesBuildAction();
+			item.addAction(action);
+		}
+		action.matchedResources.clear();
+		action.matchedResources.addAll(lent);
+		for (String name : lent) {
+			action.matchedResourcesMap.put(name, parentAction.matchedResourcesMap.get(name));
+		}
+		action.borrowed = true;
+		return true;
+	}
+
 	public static class BecauseResourcesLocked extends CauseOfBlockage {
 
+		/**
+		 * Maximum age of a report, for the state changes which are not notified (e.g. the timeout
+		 * of queued resources).
+		 */
+		private static final long REPORT_TTL = 30 * 1000;
+
 		private final ArrayList<LockableResourcesStruct> rscStruct;
 		private final EnvVars env;
+		private final long queueItemId;
+		private volatile BlockageReport report;
 
 		public BecauseResourcesLocked(ArrayList<LockableResourcesStruct> r) {
-			this.rscStruct = r;
-			this.env = new EnvVars();
+			this(r, new EnvVars());
 		}
 
 		public BecauseResourcesLocked(ArrayList<LockableResourcesStruct> r, EnvVars env) {
+			this(r, env, -1);
+		}
+
+		public BecauseResourcesLocked(ArrayList<LockableResourcesStruct> r, EnvVars env, long queueItemId) {
 			this.rscStruct = r;
 			this.env = env;
+			this.queueItemId = queueItemId;
+		}
+
+		/**
+		 * @return the state of the resources the item waits for, computed again only once they changed
+		 */
+		public BlockageReport getReport() {
+			LockableResourcesManager rm = LockableResourcesManager.get();
+			if (rm == null) return null;
+			BlockageReport r = report;
+			if (r == null || r.getGeneration() != rm.getGeneration()
+					|| System.currentTimeMillis() - r.getComputedAt() > REPORT_TTL) {
+				r = rm.getBlockageReport(rscStruct, env, queueItemId);
+				report = r;
+			}
+			return r;
+		}
+
+		/**
+		 * @return the position of the item in the line for its resources, 0 if unknown
+		 */
+		public int getQueuePosition() {
+			if (queueItemId < 0) return 0;
+			LockableResourcesManager rm = LockableResourcesManager.get();
+			return rm == null ? 0 : rm.getQueuePosition(queueItemId);
+		}
+
+		/**
+		 * @return the estimated time until the resources are free in milliseconds, -1 if unknown
+		 */
+		public long getEstimatedWait() {
+			BlockageReport r = getReport();
+			if (r == null || r.getEstimatedFreeAt() < 0) return -1;
+			return Math.max(0, r.getEstimatedFreeAt() - System.currentTimeMillis());
 		}
 
 		@Override
 		public String getShortDescription() {
 			StringBuilder sb = new StringBuilder("Waiting for resources: ");
+			BlockageReport r = getReport();
 			boolean first = true;
-			for (LockableResourcesStruct r : rscStruct) {
-				if (!first) {
-					sb.append(", ");
+			if (r != null) {
+				for (BlockageReport.Entry entry : r.getEntries()) {
+					if (!first) {
+						sb.append(", ");
+					}
+					first = false;
+					sb.append(entry);
 				}
-				first = false;
-				sb.append(env.expand(r.requiredNames));
+			} else {
+				for (LockableResourcesStruct rs : rscStruct) {
+					if (!first) {
+						sb.append(", ");
+					}
+					first = false;
+					sb.append(env.expand(rs.requiredNames));
+				}
+			}
+			int position = getQueuePosition();
+			if (position > 0) {
+				sb.append(" (position ").append(position).append(" in line)");
+			}
+			long wait = getEstimatedWait();
+			if (wait > 0) {
+				sb.append(", estimated wait ").append(Util.getTimeSpanString(wait));
 			}
 			return sb.toString();
 		}
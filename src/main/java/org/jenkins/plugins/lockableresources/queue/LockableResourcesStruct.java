@@ -29,32 +29,50 @@ public class LockableResourcesStruct {
     public final EnvVars env;
 
 	public LockableResourcesStruct(RequiredResourcesParameterValue param) {
-		this(param.value, null, "1", null, false, new EnvVars());
+		this(param, null);
+	}
+	/**
+	 * @param itemFullName the job needing the resources, names and labels are resolved in its folders
+	 */
+	public LockableResourcesStruct(RequiredResourcesParameterValue param, String itemFullName) {
+		this(param.value, null, "1", null, false, new EnvVars(), itemFullName);
 	}
 	public LockableResourcesStruct(RequiredResourcesProperty.Resource resource, EnvVars env) {
-		this(resource.resourceNames, resource.resourceNamesVar, resource.resourceNumber, resource.resourceVarsPrefix, resource.usePercentMatching, env);
+		this(resource, env, null);
+	}
+	/**
+	 * @param itemFullName the job needing the resources, names and labels are resolved in its folders
+	 */
+	public LockableResourcesStruct(RequiredResourcesProperty.Resource resource, EnvVars env, String itemFullName) {
+		this(resource.resourceNames, resource.resourceNamesVar, resource.resourceNumber, resource.resourceVarsPrefix, resource.usePercentMatching, env, itemFullName);
 	}
-	private LockableResourcesStruct(String requiredNames, String requiredVar, String requiredNumber, String varsPrefix, boolean usePercentMatching, EnvVars env) {
+	private LockableResourcesStruct(String requiredNames, String requiredVar, String requiredNumber, String varsPrefix, boolean usePercentMatching, EnvVars env, String itemFullName) {
 		Set<LockableResource> required = new LinkedHashSet<>();
 		requiredNames = Util.fixEmptyAndTrim(requiredNames);
         this.env = env;
 		if ( requiredNames != null ) {
 			if ( requiredNames.startsWith(Constants.GROOVY_LABEL_MARKER) ) {
                 LOGGER.finest("Trying to find groovy resource with: " + requiredNames);
-                required.addAll(LockableResourcesManager.get().getResourcesForExpression(requiredNames, this.env));
+                required.addAll(LockableResourcesManager.get().getResourcesForExpression(requiredNames, this.env, itemFullName));
             } else if ( requiredNames.startsWith(Constants.EXACT_LABEL_MARKER) ) {
                 LOGGER.finest("Trying to find exact label resource with: " + requiredNames);
-                required.addAll(LockableResourcesManager.get().getResourcesWithLabels(requiredNames, this.env));
+                required.addAll(LockableResourcesManager.get().getResourcesWithLabels(requiredNames, this.env, itemFullName));
+			} else if ( requiredNames.startsWith(Constants.LABEL_EXPRESSION_MARKER) ) {
+                LOGGER.finest("Trying to find resources by label expression with: " + requiredNames);
+                required.addAll(LockableResourcesManager.get().getResourcesForLabelExpression(requiredNames, this.env, itemFullName));
+			} else if ( requiredNames.startsWith(Constants.PROPERTY_MARKER) ) {
+                LOGGER.finest("Trying to find resources by properties with: " + requiredNames);
+                required.addAll(LockableResourcesManager.get().getResourcesWithProperties(requiredNames, this.env, itemFullName));
 			} else {
                 Set<String> requiredNamesList = Utils.getExpandedListOfVariables(new LinkedHashSet<>(Arrays.asList(requiredNames.split("\\s+"))), this.env);
 				for ( String name : requiredNamesList ) {
-					LockableResource r = LockableResourcesManager.get().fromName(name);
+					LockableResource r = LockableResourcesManager.get().fromName(name, itemFullName);
 					if (r != null) {
                         LOGGER.finest("Found resource with name: " + name);
 						required.add(r);
 					} else {
                         LOGGER.finest("Found resource with label: " + name);
-						required.addAll(LockableResourcesManager.get().getResourcesWithLabel(name));
+						required.addAll(LockableResourcesManager.get().getResourcesWithLabel(name, itemFullName));
 					}
 				}
 			}
@@ -0,0 +1,63 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.queue;
+
+import org.jenkins.plugins.lockableresources.LockableResource;
+import org.jenkins.plugins.lockableresources.LockableResourceProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The variables a locked resource contributes to the build environment, computed once per
+ * configuration change: the name suffixes and their values, the builds only add their prefix.
+ */
+public final class ResourceEnvironment {
+
+	private final String[] suffixes;
+	private final String[] values;
+
+	public ResourceEnvironment(LockableResource r) {
+		List<String> s = new ArrayList<>();
+		List<String> v = new ArrayList<>();
+		if (r.getDescription() != null) {
+			s.add("_desc");
+			v.add(r.getDescription());
+		}
+		if (r.getLabels() != null) {
+			s.add("_labels");
+			v.add(r.getLabels());
+		}
+		if (r.getProperties() != null) {
+			for (LockableResourceProperty prop : r.getProperties()) {
+				if (prop.getValue() != null) {
+					s.add("_" + prop.getName());
+					v.add(prop.getValue());
+				}
+			}
+		}
+		this.suffixes = s.toArray(new String[s.size()]);
+		this.values = v.toArray(new String[v.size()]);
+	}
+
+	/**
+	 * @return the number of variables
+	 */
+	public int size() {
+		return suffixes.length;
+	}
+
+	/**
+	 * Adds the variables, named after the prefix, e.g. {@code PREFIX1_desc}.
+	 */
+	public void addTo(Map<String, String> env, String prefix) {
+		for (int i = 0; i < suffixes.length; i++) {
+			env.put(prefix + suffixes[i], values[i]);
+		}
+	}
+}
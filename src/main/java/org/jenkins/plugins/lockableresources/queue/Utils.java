@@ -10,6 +10,7 @@ package org.jenkins.plugins.lockableresources.queue;
 
 import hudson.EnvVars;
 import hudson.matrix.MatrixConfiguration;
+import hudson.matrix.MatrixProject;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.Queue;
@@ -47,13 +48,33 @@ public class Utils {
 		if (property != null) {
 			List<LockableResourcesStruct> res = new ArrayList<>();
 			for (RequiredResourcesProperty.Resource r : property.resources) {
-				res.add(new LockableResourcesStruct(r, env));
+				res.add(new LockableResourcesStruct(r, env, project.getFullName()));
 			}
 			return res;
 		}
 		return Collections.emptyList();
 	}
 
+	/**
+	 * @return true if the project is a matrix whose builds lock the resources of all configurations at once
+	 */
+	public static boolean isMatrixGangAllocation(AbstractProject<?, ?> project) {
+		if (!(project instanceof MatrixProject))
+			return false;
+		RequiredResourcesProperty property = project.getProperty(RequiredResourcesProperty.class);
+		return property != null && property.isMatrixGangAllocation();
+	}
+
+	/**
+	 * @return true if the builds of the project get their resources described in a manifest file
+	 */
+	public static boolean isResourceManifest(AbstractProject<?, ?> project) {
+		if (project == null)
+			return false;
+		RequiredResourcesProperty property = project.getProperty(RequiredResourcesProperty.class);
+		return property != null && property.isResourceManifest();
+	}
+
 	public static String getExpandedVariables(String originalString, EnvVars env) {
 		return getExpandedVariables(originalString, env, 0);
 	}
@@ -71,52 +92,15 @@ public class Utils {
 		return returnString.toString().trim();
 	}
 
+	/**
+	 * @return the space separated words of the strings, with their variables expanded
+	 * @see VariableExpander
+	 */
 	public static Set<String> getExpandedListOfVariables(Set<String> requiredNamesList, EnvVars env) {
-		Set<String> newRequiredNamesList = new LinkedHashSet<>();
-		for (String initialNames : requiredNamesList) {
-            for (String name : initialNames.split("\\s+")) {
-                String tmpKey = expandVariable(name, env);
-                LOGGER.finest("Adding name[" + name + "]=expand[" + tmpKey + "]");
-                newRequiredNamesList.add(tmpKey);
-            }
-		}
-        // lets check for another recursion example, if the list is the same as it started
-        if (newRequiredNamesList.containsAll(requiredNamesList)) {
-            LOGGER.warning("Variables are the same after expanding, catch the infinite loop of doom!");
-            return newRequiredNamesList;
-        }
-		boolean isFullyExpanded = true;
-        for (String requiredName : newRequiredNamesList) {
-            if (requiredName.contains(" ")) {
-                // we need to split on the new space, break out and go again
-                isFullyExpanded = false;
-                break;
-            } else if ((requiredName.startsWith("${") && requiredName.endsWith("}")) || (requiredName.startsWith("%") && requiredName.endsWith("%"))) {
-                // lets check against some bad recursion waiting to happen
-                String tmpKey = expandVariable(requiredName, env);
-                LOGGER.finest("Checking name[" + requiredName + "]=expand[" + tmpKey + "]");
-                if (tmpKey.equals(requiredName)) {
-                    LOGGER.warning("Variable equals itself, catch the infinite loop of doom!");
-                    continue;
-                }
-                // we need to check if the variable exists or else this will never expand
-                int startIndex = 1;
-                if (requiredName.startsWith("${")) startIndex = 2;
-                LOGGER.finest("Checking required name[" + requiredName + "]");
-                if (env.containsKey(requiredName.substring(startIndex, requiredName.length() - 1))) {
-                    isFullyExpanded = false;
-                    break;
-                }
-            }
-        }
-		if (!isFullyExpanded) return getExpandedListOfVariables(newRequiredNamesList, env);
-		return newRequiredNamesList;
+		return VariableExpander.expandAll(requiredNamesList, env);
 	}
 
     public static String expandVariable(String name, EnvVars env) {
-        if (name.startsWith("%") && name.endsWith("%")){
-            name = "${" + name.substring(1, name.length() - 1) + "}";
-        }
-        return env.expand(name);
+        return VariableExpander.expand(name, env);
     }
 }
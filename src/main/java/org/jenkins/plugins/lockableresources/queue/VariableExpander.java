@@ -0,0 +1,204 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.queue;
+
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Expands {@code ${VAR}}, {@code $VAR} and {@code %VAR%} references in space separated lists of words.
+ * <p>
+ * Variable values are expanded in turn, and split into several words if they contain spaces. A word
+ * whose expansion refers back to a variable being expanded is left as written, with {@code %VAR%}
+ * normalized to {@code ${VAR}}, as are references to unknown variables.
+ * <p>
+ * Words are parsed once. Their expansions are remembered along with the variable values they were
+ * computed from, and reused as long as those values do not change.
+ */
+public final class VariableExpander {
+
+	private static final Logger LOGGER = Logger.getLogger(VariableExpander.class.getName());
+
+	private static final int CACHE_SIZE = 512;
+	private static final int EXPANSIONS_PER_WORD = 4;
+
+	private static final Map<String, Template> TEMPLATES = lru(CACHE_SIZE);
+	private static final Map<String, List<Expansion>> EXPANSIONS = lru(CACHE_SIZE);
+
+	private VariableExpander() {
+	}
+
+	/**
+	 * @return the words of the text once expanded, in order, without duplicates
+	 */
+	public static Set<String> expandAll(Collection<String> texts, Map<String, String> env) {
+		Set<String> words = new LinkedHashSet<>();
+		for (String text : texts) {
+			for (String word : text.split("\\s+")) {
+				Collections.addAll(words, expand(word, env).split("\\s+"));
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * @return the word once expanded, which may contain spaces if a variable value does
+	 */
+	public static String expand(String word, Map<String, String> env) {
+		Template template = template(word);
+		if (template.names.length == 0) {
+			return word;
+		}
+		synchronized (EXPANSIONS) {
+			List<Expansion> known = EXPANSIONS.get(word);
+			if (known != null) {
+				for (Expansion e : known) {
+					if (e.isValid(env)) return e.result;
+				}
+			}
+		}
+		Expansion e = new Expansion();
+		try {
+			e.result = expand(template, env, new ArrayDeque<>(), e.used);
+		} catch (CycleException cycle) {
+			LOGGER.log(Level.WARNING, "Variables of {0} refer to themselves: {1}", new Object[]{word, cycle.getMessage()});
+			e.result = template.unexpanded();
+		}
+		synchronized (EXPANSIONS) {
+			List<Expansion> known = EXPANSIONS.computeIfAbsent(word, k -> new LinkedList<>());
+			known.add(0, e);
+			if (known.size() > EXPANSIONS_PER_WORD) known.remove(EXPANSIONS_PER_WORD);
+		}
+		return e.result;
+	}
+
+	private static String expand(Template template, Map<String, String> env, Deque<String> expanding,
+	                             Map<String, String> used) throws CycleException {
+		StringBuilder sb = new StringBuilder(template.literals[0]);
+		for (int i = 0; i < template.names.length; i++) {
+			String name = template.names[i];
+			String value = env.get(name);
+			used.put(name, value);
+			if (value == null) {
+				sb.append(template.references[i]);
+			} else {
+				if (expanding.contains(name)) {
+					throw new CycleException(String.join(" -> ", expanding) + " -> " + name);
+				}
+				expanding.addLast(name);
+				String[] words = value.split("\\s+");
+				for (int w = 0; w < words.length; w++) {
+					if (w > 0) sb.append(' ');
+					sb.append(expand(template(words[w]), env, expanding, used));
+				}
+				expanding.removeLast();
+			}
+			sb.append(template.literals[i + 1]);
+		}
+		return sb.toString();
+	}
+
+	private static Template template(String word) {
+		synchronized (TEMPLATES) {
+			Template t = TEMPLATES.get(word);
+			if (t == null) {
+				t = new Template(word);
+				TEMPLATES.put(word, t);
+			}
+			return t;
+		}
+	}
+
+	private static <V> Map<String, V> lru(final int size) {
+		return new LinkedHashMap<String, V>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+				return size() > size;
+			}
+		};
+	}
+
+	/**
+	 * A word split into literal text and variable references: {@code literals[0] names[0] literals[1] ...}.
+	 */
+	private static final class Template {
+		final String[] literals;
+		final String[] names;
+		final String[] references;
+
+		Template(String word) {
+			List<String> l = new ArrayList<>();
+			List<String> n = new ArrayList<>();
+			List<String> r = new ArrayList<>();
+			if (word.length() > 2 && word.startsWith("%") && word.endsWith("%")) {
+				word = "${" + word.substring(1, word.length() - 1) + "}";
+			}
+			int start = 0;
+			int i = word.indexOf('$');
+			while (i >= 0 && i < word.length() - 1) {
+				int end;
+				String name;
+				if (word.charAt(i + 1) == '{') {
+					end = word.indexOf('}', i + 2);
+					name = end < 0 ? null : word.substring(i + 2, end);
+					end++;
+				} else {
+					end = i + 1;
+					while (end < word.length() && isNameChar(word.charAt(end))) end++;
+					name = word.substring(i + 1, end);
+				}
+				if (name == null || name.isEmpty()) {
+					i = word.indexOf('$', i + 1);
+					continue;
+				}
+				l.add(word.substring(start, i));
+				n.add(name);
+				r.add(word.substring(i, end));
+				start = end;
+				i = word.indexOf('$', end);
+			}
+			l.add(word.substring(start));
+			this.literals = l.toArray(new String[l.size()]);
+			this.names = n.toArray(new String[n.size()]);
+			this.references = r.toArray(new String[r.size()]);
+		}
+
+		String unexpanded() {
+			StringBuilder sb = new StringBuilder(literals[0]);
+			for (int i = 0; i < names.length; i++) {
+				sb.append(references[i]).append(literals[i + 1]);
+			}
+			return sb.toString();
+		}
+
+		private static boolean isNameChar(char c) {
+			return Character.isLetterOrDigit(c) || c == '_';
+		}
+	}
+
+	/**
+	 * An expansion of a word, with the values of the variables it was computed from.
+	 */
+	private static final class Expansion {
+		final Map<String, String> used = new HashMap<>();
+		String result;
+
+		boolean isValid(Map<String, String> env) {
+			for (Map.Entry<String, String> e : used.entrySet()) {
+				if (!Objects.equals(e.getValue(), env.get(e.getKey()))) return false;
+			}
+			return true;
+		}
+	}
+
+	private static final class CycleException extends Exception {
+		CycleException(String message) {
+			super(message, null, false, false);
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.store;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Store on a directory shared by all the controllers, one lease file per resource.
+ * <p>
+ * A lease file holds the id of the controller holding the resource and when the lease expires.
+ * Every read-modify-write of a lease file happens under an exclusive file lock on it, so the
+ * check and the update are atomic across processes. The directory must be on a file system
+ * supporting file locks between its clients.
+ */
+public class FileResourceStateStore implements ResourceStateStore {
+
+	private static final String SUFFIX = ".lease";
+
+	/**
+	 * A JVM may not lock the same file twice, serialize the stores of this JVM first.
+	 */
+	private static final ConcurrentMap<Path, ReentrantLock> LOCAL_LOCKS = new ConcurrentHashMap<>();
+
+	private final Path directory;
+	private final String controllerId;
+
+	public FileResourceStateStore(Path directory, String controllerId) throws IOException {
+		this.directory = Files.createDirectories(directory);
+		this.controllerId = controllerId;
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	@Override
+	public String getControllerId() {
+		return controllerId;
+	}
+
+	@Override
+	public boolean acquire(String resource, long leaseMillis) throws IOException {
+		return update(resource, lease -> {
+			if (lease != null && !lease.holder.equals(controllerId)) {
+				return null;
+			}
+			long expiry = leaseMillis > 0 ? System.currentTimeMillis() + leaseMillis : 0;
+			return new Lease(controllerId, expiry);
+		});
+	}
+
+	@Override
+	public void release(String resource) throws IOException {
+		update(resource, lease -> lease == null || lease.holder.equals(controllerId) ? Lease.FREE : null);
+	}
+
+	@Override
+	public String getHolder(String resource) throws IOException {
+		Path file = fileFor(resource);
+		if (!Files.exists(file)) {
+			return null;
+		}
+		String[] holder = new String[1];
+		update(resource, lease -> {
+			holder[0] = lease == null ? null : lease.holder;
+			return null;
+		});
+		return holder[0];
+	}
+
+	@Override
+	public Set<String> getHeldByOthers() throws IOException {
+		Set<String> held = new HashSet<>();
+		long now = System.currentTimeMillis();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+			for (Path file : files) {
+				Lease lease = readShared(file);
+				if (lease != null && !lease.isExpired(now) && !lease.holder.equals(controllerId)) {
+					String name = file.getFileName().toString();
+					held.add(URLDecoder.decode(name.substring(0, name.length() - SUFFIX.length()), "UTF-8"));
+				}
+			}
+		}
+		return held;
+	}
+
+	/**
+	 * Reads a lease under a shared file lock, only excluding the updates.
+	 */
+	private static Lease readShared(Path file) throws IOException {
+		ReentrantLock local = LOCAL_LOCKS.computeIfAbsent(file, k -> new ReentrantLock());
+		local.lock();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		     FileLock ignored = channel.lock(0, Long.MAX_VALUE, true)) {
+			return read(channel);
+		} catch (NoSuchFileException e) {
+			return null;
+		} finally {
+			local.unlock();
+		}
+	}
+
+	/**
+	 * Applies a change to the lease of a resource atomically.
+	 *
+	 * @param change gets the current lease (null if free or expired), returns the new lease,
+	 *               {@link Lease#FREE} to free the resource or null to leave it as it is
+	 * @return true if the lease was changed
+	 */
+	private boolean update(String resource, LeaseChange change) throws IOException {
+		Path file = fileFor(resource);
+		ReentrantLock local = LOCAL_LOCKS.computeIfAbsent(file, k -> new ReentrantLock());
+		local.lock();
+		try (FileChannel channel = FileChannel.open(file,
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		     FileLock ignored = channel.lock()) {
+			Lease current = read(channel);
+			if (current != null && current.isExpired(System.currentTimeMillis())) {
+				current = null;
+			}
+			Lease next = change.apply(current);
+			if (next == null) {
+				return false;
+			}
+			write(channel, next);
+			return true;
+		} finally {
+			local.unlock();
+		}
+	}
+
+	private Path fileFor(String resource) throws IOException {
+		return directory.resolve(URLEncoder.encode(resource, "UTF-8") + SUFFIX);
+	}
+
+	private static Lease read(FileChannel channel) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size(), 4096));
+		channel.read(buffer, 0);
+		String content = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8).trim();
+		if (content.isEmpty()) {
+			return null;
+		}
+		String[] parts = content.split("\n");
+		try {
+			return new Lease(parts[0], parts.length > 1 ? Long.parseLong(parts[1].trim()) : 0);
+		} catch (NumberFormatException e) {
+			throw new IOException("Corrupt lease file content: " + content, e);
+		}
+	}
+
+	private static void write(FileChannel channel, Lease lease) throws IOException {
+		channel.truncate(0);
+		if (lease != Lease.FREE) {
+			channel.write(ByteBuffer.wrap((lease.holder + "\n" + lease.expiry + "\n").getBytes(StandardCharsets.UTF_8)), 0);
+		}
+		channel.force(false);
+	}
+
+	private interface LeaseChange {
+		Lease apply(Lease current);
+	}
+
+	private static final class Lease {
+		static final Lease FREE = new Lease("", 0);
+
+		final String holder;
+		final long expiry;
+
+		Lease(String holder, long expiry) {
+			this.holder = holder;
+			this.expiry = expiry;
+		}
+
+		boolean isExpired(long now) {
+			return expiry > 0 && expiry < now;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.store;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The resources other controllers hold, read from a {@link ResourceStateStore} at most once per time to live.
+ * <p>
+ * Callers never wait for the store: a stale answer is refreshed on the given executor and answered
+ * meanwhile. This only serves to skip the resources which are likely taken, taking a resource in the
+ * store stays the authoritative check.
+ */
+public class HeldElsewhereCache {
+
+	private static final Logger LOGGER = Logger.getLogger(HeldElsewhereCache.class.getName());
+
+	private final ResourceStateStore store;
+	private final long timeToLive;
+	private final Executor executor;
+	private final AtomicBoolean refreshing = new AtomicBoolean();
+	private volatile Set<String> held = Collections.emptySet();
+	private volatile long loaded;
+
+	/**
+	 * @param timeToLive how long an answer is used, in milliseconds
+	 * @param executor   runs the reads of the store
+	 */
+	public HeldElsewhereCache(ResourceStateStore store, long timeToLive, Executor executor) {
+		this.store = store;
+		this.timeToLive = timeToLive;
+		this.executor = executor;
+	}
+
+	public ResourceStateStore getStore() {
+		return store;
+	}
+
+	/**
+	 * @return true if another controller held the resource when the store was last read
+	 */
+	public boolean isHeldElsewhere(String resource) {
+		if (System.currentTimeMillis() - loaded > timeToLive) {
+			refreshLater();
+		}
+		return held.contains(resource);
+	}
+
+	/**
+	 * Reads the store again without waiting for it, e.g. after failing to take a resource.
+	 */
+	public void refreshLater() {
+		if (!refreshing.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			executor.execute(this::refresh);
+		} catch (RejectedExecutionException e) {
+			refreshing.set(false);
+			LOGGER.log(Level.WARNING, "Unable to read the shared state store", e);
+		}
+	}
+
+	/**
+	 * Reads the store now.
+	 */
+	public void refresh() {
+		try {
+			held = store.getHeldByOthers();
+			loaded = System.currentTimeMillis();
+		} catch (IOException e) {
+			LOGGER.log(Level.SEVERE, "Unable to read the shared state store", e);
+		} finally {
+			refreshing.set(false);
+		}
+	}
+}
@@ -0,0 +1,55 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.store;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Store for a single controller, which never competes with anybody: only remembers the leases.
+ */
+public class LocalResourceStateStore implements ResourceStateStore {
+
+	private final String controllerId;
+	private final Map<String, Long> leases = new ConcurrentHashMap<>();
+
+	public LocalResourceStateStore(String controllerId) {
+		this.controllerId = controllerId;
+	}
+
+	@Override
+	public String getControllerId() {
+		return controllerId;
+	}
+
+	@Override
+	public boolean acquire(String resource, long leaseMillis) {
+		leases.put(resource, leaseMillis > 0 ? System.currentTimeMillis() + leaseMillis : 0L);
+		return true;
+	}
+
+	@Override
+	public void release(String resource) {
+		leases.remove(resource);
+	}
+
+	@Override
+	public String getHolder(String resource) {
+		Long expiry = leases.get(resource);
+		if (expiry == null || (expiry > 0 && expiry < System.currentTimeMillis())) {
+			return null;
+		}
+		return controllerId;
+	}
+
+	@Override
+	public Set<String> getHeldByOthers() {
+		return Collections.emptySet();
+	}
+}
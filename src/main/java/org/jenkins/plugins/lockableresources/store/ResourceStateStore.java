@@ -0,0 +1,51 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.store;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Records which controller holds each resource, so that several controllers sharing the
+ * same resources never use one at the same time.
+ * <p>
+ * A controller takes a resource when it queues, locks or reserves it and gives it back
+ * when the resource becomes free again. Within a controller the state kept by
+ * {@link org.jenkins.plugins.lockableresources.LockableResourcesManager} stays authoritative.
+ */
+public interface ResourceStateStore {
+
+	/**
+	 * @return the id of this controller in the store
+	 */
+	String getControllerId();
+
+	/**
+	 * Takes the resource for this controller, or extends the lease if it already holds it.
+	 *
+	 * @param leaseMillis how long the resource stays taken without being renewed, 0 for no expiry
+	 * @return false if another controller holds the resource
+	 */
+	boolean acquire(String resource, long leaseMillis) throws IOException;
+
+	/**
+	 * Gives back the resource, if this controller holds it.
+	 */
+	void release(String resource) throws IOException;
+
+	/**
+	 * @return the id of the controller holding the resource, null if it is free or its lease expired
+	 */
+	String getHolder(String resource) throws IOException;
+
+	/**
+	 * Reads the whole store at once, cheaper than {@link #getHolder(String)} for every resource.
+	 *
+	 * @return the resources other controllers hold
+	 */
+	Set<String> getHeldByOthers() throws IOException;
+}
@@ -0,0 +1,195 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.store;
+
+import org.jenkins.plugins.lockableresources.InventoryDiff;
+import org.jenkins.plugins.lockableresources.InventoryFormat;
+import org.jenkins.plugins.lockableresources.LockableResource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Loads the resource definitions from a file, and again every time the file changes.
+ * <p>
+ * The file is in one of the {@link InventoryFormat}s, CSV if its name ends with {@code .csv}, JSON Lines
+ * otherwise. It is parsed in full on the watcher thread before anything is applied, so an invalid file
+ * leaves the resources as they were; only the resources which differ are then updated. The error is kept
+ * for display until the next valid file.
+ */
+public class ResourcesFileWatcher implements Closeable {
+
+	private static final Logger LOGGER = Logger.getLogger(ResourcesFileWatcher.class.getName());
+
+	/**
+	 * Writers often save a file in several steps, wait for them to be done.
+	 */
+	static final long SETTLE_MILLIS = 500;
+
+	private final Path file;
+	private final Function<List<LockableResource>, InventoryDiff> apply;
+	private WatchService watchService;
+	private Thread thread;
+
+	private volatile long lastLoaded;
+	private volatile InventoryDiff lastDiff;
+	private volatile int lastCount;
+	private volatile String lastError;
+
+	/**
+	 * @param apply applies the resources of a valid file, returns what changed, or null if it did not apply
+	 *              them because this watcher is stale
+	 */
+	public ResourcesFileWatcher(Path file, Function<List<LockableResource>, InventoryDiff> apply) {
+		this.file = file.toAbsolutePath();
+		this.apply = apply;
+	}
+
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * Loads the file, then watches it for changes on a daemon thread. The directory of the file must exist.
+	 */
+	public synchronized void start() throws IOException {
+		Path directory = file.getParent();
+		watchService = directory.getFileSystem().newWatchService();
+		directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+				StandardWatchEventKinds.OVERFLOW);
+		reload();
+		thread = new Thread(this::watch, "Lockable resources file watcher for " + file);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+		if (watchService != null) {
+			watchService.close();
+			watchService = null;
+		}
+	}
+
+	private void watch() {
+		WatchService ws;
+		synchronized (this) {
+			ws = watchService;
+		}
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				WatchKey key = ws.take();
+				boolean changed = pollChanged(key);
+				// let the writer finish, one reload for a burst of events
+				for (key = ws.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS); key != null;
+				     key = ws.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) {
+					changed |= pollChanged(key);
+				}
+				if (changed) {
+					reload();
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			LOGGER.log(Level.FINE, "Stopped watching {0}", file);
+		}
+	}
+
+	private boolean pollChanged(WatchKey key) {
+		boolean changed = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			changed |= event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context());
+		}
+		key.reset();
+		return changed;
+	}
+
+	/**
+	 * Reads the file and applies it if it is valid.
+	 *
+	 * @return true if the file was valid and applied
+	 */
+	public boolean reload() {
+		if (!Files.isRegularFile(file)) {
+			fail("File not found, keeping the current resources");
+			return false;
+		}
+		InventoryFormat format = file.getFileName().toString().toLowerCase().endsWith(".csv")
+				? InventoryFormat.CSV : InventoryFormat.JSONL;
+		List<LockableResource> resources;
+		try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			resources = format.readAll(in);
+		} catch (IOException | IllegalArgumentException e) {
+			fail(e.getMessage());
+			return false;
+		}
+		InventoryDiff diff = apply.apply(resources);
+		if (diff == null) {
+			LOGGER.log(Level.FINE, "Not applying {0}, the watcher was stopped", file);
+			return false;
+		}
+		lastCount = resources.size();
+		lastDiff = diff;
+		lastError = null;
+		lastLoaded = System.currentTimeMillis();
+		LOGGER.log(Level.INFO, "Loaded {0} resources from {1}: {2}", new Object[]{resources.size(), file, diff});
+		return true;
+	}
+
+	private void fail(String message) {
+		lastError = message;
+		LOGGER.log(Level.WARNING, "Cannot load resources from {0}: {1}", new Object[]{file, message});
+	}
+
+	/**
+	 * @return when the file was last applied, 0 if never
+	 */
+	public long getLastLoaded() {
+		return lastLoaded;
+	}
+
+	/**
+	 * @return when the file was last applied, null if never
+	 */
+	public Date getLastLoadedDate() {
+		long loaded = lastLoaded;
+		return loaded == 0 ? null : new Date(loaded);
+	}
+
+	/**
+	 * @return the number of resources in the file last applied
+	 */
+	public int getLastCount() {
+		return lastCount;
+	}
+
+	/**
+	 * @return what changed when the file was last applied, null if never
+	 */
+	public InventoryDiff getLastDiff() {
+		return lastDiff;
+	}
+
+	/**
+	 * @return why the file could not be applied the last time it changed, null if it was applied
+	 */
+	public String getLastError() {
+		return lastError;
+	}
+}
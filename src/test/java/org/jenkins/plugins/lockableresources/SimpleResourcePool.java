@@ -0,0 +1,158 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources;
+
+import org.jenkins.plugins.lockableresources.allocation.ResourcePool;
+
+import java.util.*;
+
+/**
+ * In-memory {@link ResourcePool} which does not need a running Jenkins.
+ */
+public class SimpleResourcePool implements ResourcePool {
+
+	private final Map<String, Set<String>> labels = new LinkedHashMap<>();
+	private final Set<String> reserved = new HashSet<>();
+	private final Set<String> locked = new HashSet<>();
+	private final Set<String> queued = new HashSet<>();
+	private final List<String> loadBalancingLabels = new ArrayList<>();
+	private final Map<String, long[]> usage = new HashMap<>();
+	private Set<String> held = Collections.emptySet();
+
+	public SimpleResourcePool add(String name, String... resourceLabels) {
+		labels.put(name, new LinkedHashSet<>(Arrays.asList(resourceLabels)));
+		return this;
+	}
+
+	public SimpleResourcePool addRange(String prefix, int count, String... resourceLabels) {
+		for (int i = 0; i < count; i++) {
+			add(prefix + i, resourceLabels);
+		}
+		return this;
+	}
+
+	public SimpleResourcePool setLoadBalancingLabels(String... lbLabels) {
+		loadBalancingLabels.clear();
+		loadBalancingLabels.addAll(Arrays.asList(lbLabels));
+		return this;
+	}
+
+	public List<String> getNames() {
+		return new ArrayList<>(labels.keySet());
+	}
+
+	public List<String> getNamesWithLabel(String label) {
+		List<String> names = new ArrayList<>();
+		for (Map.Entry<String, Set<String>> e : labels.entrySet()) {
+			if (e.getValue().contains(label)) names.add(e.getKey());
+		}
+		return names;
+	}
+
+	public SimpleResourcePool setUsage(String name, long lastReleased, long totalHeld) {
+		usage.put(name, new long[]{lastReleased, totalHeld});
+		return this;
+	}
+
+	/**
+	 * Hides the given resources from allocations, like the manager does for resources held for waiters.
+	 */
+	public SimpleResourcePool setHeld(Set<String> held) {
+		this.held = held;
+		return this;
+	}
+
+	public void reserve(String name) {
+		reserved.add(name);
+	}
+
+	public void lock(String name) {
+		queued.remove(name);
+		locked.add(name);
+	}
+
+	public void unlock(String name) {
+		locked.remove(name);
+	}
+
+	public boolean isQueued(String name) {
+		return queued.contains(name);
+	}
+
+	public boolean isLocked(String name) {
+		return locked.contains(name);
+	}
+
+	@Override
+	public boolean isAvailable(String name) {
+		return labels.containsKey(name) && !held.contains(name) && !reserved.contains(name) && !locked.contains(name) && !queued.contains(name);
+	}
+
+	@Override
+	public Set<String> getLabels(String name) {
+		Set<String> l = labels.get(name);
+		return l == null ? Collections.<String>emptySet() : l;
+	}
+
+	@Override
+	public Collection<String> getLoadBalancingLabels() {
+		return loadBalancingLabels;
+	}
+
+	@Override
+	public double getLoadBalancingUsage(String label) {
+		int used = 0;
+		int total = 0;
+		for (Map.Entry<String, Set<String>> e : labels.entrySet()) {
+			boolean inGroup;
+			if (label == null) {
+				inGroup = Collections.disjoint(e.getValue(), loadBalancingLabels);
+			} else {
+				inGroup = e.getValue().contains(label);
+			}
+			if (inGroup) {
+				total++;
+				if (!isAvailable(e.getKey())) used++;
+			}
+		}
+		return total == 0 ? 0 : (double) used / total;
+	}
+
+	@Override
+	public long getLastReleased(String name) {
+		long[] u = usage.get(name);
+		return u == null ? 0 : u[0];
+	}
+
+	@Override
+	public long getTotalHeld(String name) {
+		long[] u = usage.get(name);
+		return u == null ? 0 : u[1];
+	}
+
+	@Override
+	public int getLoadBalancingGroupSize(String label) {
+		int total = 0;
+		for (Set<String> resourceLabels : labels.values()) {
+			if (label == null ? Collections.disjoint(resourceLabels, loadBalancingLabels) : resourceLabels.contains(label)) {
+				total++;
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Marks the resource as queued, like the manager does with a successful selection.
+	 */
+	public void queue(String name) {
+		queued.add(name);
+	}
+
+	public void unqueue(String name) {
+		queued.remove(name);
+	}
+}
@@ -0,0 +1,71 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources;
+
+import org.jenkins.plugins.lockableresources.store.FileResourceStateStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Plays one controller competing for resources in a shared state directory, run in its own JVM.
+ * <p>
+ * While holding a resource it keeps an "in use" marker file created with CREATE_NEW: finding the
+ * marker already there means two controllers held the resource at once. Prints the acquisition
+ * latencies in nanoseconds, sorted, on the last line.
+ */
+public class StoreContender {
+
+	public static void main(String[] args) throws Exception {
+		Path directory = Paths.get(args[0]);
+		String controllerId = args[1];
+		int cycles = Integer.parseInt(args[2]);
+		int resources = Integer.parseInt(args[3]);
+		FileResourceStateStore store = new FileResourceStateStore(directory, controllerId);
+		Random random = new Random(controllerId.hashCode());
+		long[] latencies = new long[cycles];
+		for (int i = 0; i < cycles; i++) {
+			String name = "r" + random.nextInt(resources);
+			long start = System.nanoTime();
+			while (!store.acquire(name, 10000)) {
+				Thread.yield();
+			}
+			latencies[i] = System.nanoTime() - start;
+			Path marker = directory.resolve(name + ".inuse");
+			try {
+				Files.createFile(marker);
+			} catch (FileAlreadyExistsException e) {
+				System.out.println("DOUBLE BOOKING of " + name + " by " + controllerId);
+				System.exit(1);
+			}
+			Files.delete(marker);
+			store.release(name);
+		}
+		Arrays.sort(latencies);
+		StringBuilder sb = new StringBuilder();
+		for (long l : latencies) {
+			sb.append(l).append(' ');
+		}
+		System.out.println(sb.toString().trim());
+	}
+
+	/**
+	 * Starts a contender in a new JVM with the current class path.
+	 */
+	public static Process start(Path directory, String controllerId, int cycles, int resources) throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), StoreContender.class.getName(),
+				directory.toString(), controllerId, String.valueOf(cycles), String.valueOf(resources))
+				.redirectErrorStream(true).start();
+	}
+}
@@ -0,0 +1,381 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources;
+
+import org.jenkins.plugins.lockableresources.allocation.AllocationRequest;
+import org.jenkins.plugins.lockableresources.allocation.ResourceAllocator;
+import org.jenkins.plugins.lockableresources.allocation.ResourcePool;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Offline concurrency stress harness for the allocation core.
+ *
+ * Worker threads play simulated queue items and builds: each one submits a request,
+ * retries {@code queue} until it is granted, locks the resources, holds them for a while
+ * and unlocks them. The simulated manager follows the same queued / locked / unlocked
+ * state machine as {@link LockableResourcesManager}, including the expiry of queued claims,
+ * but runs on a {@link FakeClock} so no Jenkins instance is needed.
+ *
+ * The harness checks that no resource is ever given to two owners, that no queued claim
+ * is leaked and that no item waits longer than the configured bound, and reports the
+ * throughput and latency distribution of the {@code queue} calls.
+ */
+public class StressHarness {
+
+	/**
+	 * Logical clock, every simulated step advances it by one tick.
+	 */
+	public static class FakeClock {
+		private final AtomicLong now = new AtomicLong();
+
+		public long millis() {
+			return now.get();
+		}
+
+		public long advance(long ticks) {
+			return now.addAndGet(ticks);
+		}
+	}
+
+	/**
+	 * A request shape used by the workers.
+	 */
+	public static class Workload {
+		final int number;
+		final String label;
+
+		/**
+		 * @param number number of resources to request
+		 * @param label  label of the candidates, null for the whole inventory
+		 */
+		public Workload(int number, String label) {
+			this.number = number;
+			this.label = label;
+		}
+	}
+
+	private final SimpleResourcePool inventory;
+	private final Supplier<ResourceAllocator> allocatorFactory;
+	private final List<Workload> workloads = new ArrayList<>();
+	private int workers = 8;
+	private int cyclesPerWorker = 500;
+	private int minHoldTicks = 5;
+	private int maxHoldTicks = 50;
+	private double abandonRate = 0.0;
+	private long queueTimeoutTicks = 10000;
+	private long seed = 42;
+
+	public StressHarness(SimpleResourcePool inventory, Supplier<ResourceAllocator> allocatorFactory) {
+		this.inventory = inventory;
+		this.allocatorFactory = allocatorFactory;
+	}
+
+	public StressHarness workload(int number, String label) {
+		workloads.add(new Workload(number, label));
+		return this;
+	}
+
+	public StressHarness workers(int workers) {
+		this.workers = workers;
+		return this;
+	}
+
+	public StressHarness cyclesPerWorker(int cycles) {
+		this.cyclesPerWorker = cycles;
+		return this;
+	}
+
+	public StressHarness holdTicks(int min, int max) {
+		this.minHoldTicks = min;
+		this.maxHoldTicks = max;
+		return this;
+	}
+
+	/**
+	 * @param rate ratio of granted items which leave the queue without ever locking
+	 */
+	public StressHarness abandonRate(double rate) {
+		this.abandonRate = rate;
+		return this;
+	}
+
+	public StressHarness queueTimeoutTicks(long ticks) {
+		this.queueTimeoutTicks = ticks;
+		return this;
+	}
+
+	public StressHarness seed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	public Report run() throws InterruptedException {
+		if (workloads.isEmpty()) workload(1, null);
+		final FakeClock clock = new FakeClock();
+		final SimulatedManager manager = new SimulatedManager(clock, allocatorFactory.get());
+		final AtomicLong itemIds = new AtomicLong();
+		final AtomicLong grants = new AtomicLong();
+		final Report report = new Report();
+		final List<long[]> latencies = Collections.synchronizedList(new ArrayList<>());
+
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		long wallStart = System.nanoTime();
+		for (int w = 0; w < workers; w++) {
+			final Random rand = new Random(seed + w);
+			futures.add(executor.submit(() -> {
+				long[] workerLatencies = new long[cyclesPerWorker * 4];
+				int calls = 0;
+				start.await();
+				for (int cycle = 0; cycle < cyclesPerWorker; cycle++) {
+					Workload workload = workloads.get(rand.nextInt(workloads.size()));
+					List<String> candidates = workload.label == null
+							? inventory.getNames() : inventory.getNamesWithLabel(workload.label);
+					AllocationRequest request = new AllocationRequest(candidates, workload.number, false, null);
+					long itemId = itemIds.incrementAndGet();
+					long submitted = clock.millis();
+					long grantsAtSubmit = grants.get();
+					Map<String, AllocationRequest> selected = null;
+					while (selected == null) {
+						long t0 = System.nanoTime();
+						selected = manager.queue(itemId, Collections.singletonList(request));
+						long elapsed = System.nanoTime() - t0;
+						if (calls == workerLatencies.length) workerLatencies = Arrays.copyOf(workerLatencies, calls * 2);
+						workerLatencies[calls++] = elapsed;
+						clock.advance(1);
+						if (selected == null) Thread.yield();
+					}
+					grants.incrementAndGet();
+					report.recordWait(clock.millis() - submitted, grants.get() - grantsAtSubmit - 1);
+					if (rand.nextDouble() < abandonRate) {
+						// the item left the queue, its claims are only freed by the queue timeout
+						report.abandoned.incrementAndGet();
+						continue;
+					}
+					long buildId = itemId;
+					if (!manager.lock(itemId, buildId, selected.keySet())) {
+						report.failedLocks.incrementAndGet();
+						manager.unqueue(itemId);
+						continue;
+					}
+					long holdUntil = clock.millis() + minHoldTicks + rand.nextInt(maxHoldTicks - minHoldTicks + 1);
+					while (clock.millis() < holdUntil) {
+						clock.advance(1);
+						Thread.yield();
+					}
+					manager.unlock(buildId, selected.keySet());
+					report.cycles.incrementAndGet();
+				}
+				latencies.add(Arrays.copyOf(workerLatencies, calls));
+				return null;
+			}));
+		}
+		start.countDown();
+		executor.shutdown();
+		for (Future<?> f : futures) {
+			try {
+				f.get();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("Worker failed", e.getCause());
+			}
+		}
+		report.wallNanos = System.nanoTime() - wallStart;
+
+		// let every remaining claim expire, nothing should stay queued or locked afterwards
+		clock.advance(queueTimeoutTicks + 1);
+		report.leakedClaims = manager.countQueued();
+		report.leakedLocks = manager.countLocked();
+		report.doubleAllocations = manager.doubleAllocations.get();
+
+		int total = 0;
+		for (long[] l : latencies) total += l.length;
+		report.queueLatencies = new long[total];
+		int pos = 0;
+		for (long[] l : latencies) {
+			System.arraycopy(l, 0, report.queueLatencies, pos, l.length);
+			pos += l.length;
+		}
+		Arrays.sort(report.queueLatencies);
+		return report;
+	}
+
+	/**
+	 * Result of a harness run.
+	 */
+	public static class Report {
+		public final AtomicInteger cycles = new AtomicInteger();
+		public final AtomicInteger abandoned = new AtomicInteger();
+		public final AtomicInteger failedLocks = new AtomicInteger();
+		public int doubleAllocations;
+		public int leakedClaims;
+		public int leakedLocks;
+		public long wallNanos;
+		public long[] queueLatencies;
+		private long maxWaitTicks;
+		private long maxOvertakes;
+
+		synchronized void recordWait(long ticks, long overtakes) {
+			maxWaitTicks = Math.max(maxWaitTicks, ticks);
+			maxOvertakes = Math.max(maxOvertakes, overtakes);
+		}
+
+		public synchronized long getMaxWaitTicks() {
+			return maxWaitTicks;
+		}
+
+		/**
+		 * @return the highest number of grants given to other items while one item was waiting
+		 */
+		public synchronized long getMaxOvertakes() {
+			return maxOvertakes;
+		}
+
+		public double getThroughput() {
+			return (cycles.get() + abandoned.get()) / (wallNanos / 1e9);
+		}
+
+		public long getLatencyPercentile(double percentile) {
+			if (queueLatencies.length == 0) return 0;
+			int index = (int) Math.ceil(percentile / 100.0 * queueLatencies.length) - 1;
+			return queueLatencies[Math.max(0, Math.min(index, queueLatencies.length - 1))];
+		}
+
+		@Override
+		public String toString() {
+			return String.format("cycles=%d abandoned=%d queue calls=%d throughput=%.0f cycles/s"
+					+ " queue latency p50=%dus p99=%dus p99.9=%dus max=%dus"
+					+ " max wait=%d ticks max overtakes=%d"
+					+ " double allocations=%d leaked claims=%d leaked locks=%d failed locks=%d",
+					cycles.get(), abandoned.get(), queueLatencies.length, getThroughput(),
+					getLatencyPercentile(50) / 1000, getLatencyPercentile(99) / 1000,
+					getLatencyPercentile(99.9) / 1000, getLatencyPercentile(100) / 1000,
+					getMaxWaitTicks(), getMaxOvertakes(),
+					doubleAllocations, leakedClaims, leakedLocks, failedLocks.get());
+		}
+	}
+
+	/**
+	 * Same state machine as {@link LockableResourcesManager} and {@link LockableResource},
+	 * on plain names.
+	 */
+	class SimulatedManager {
+		private final FakeClock clock;
+		private final ResourceAllocator allocator;
+		private final Map<String, Long> queuedBy = new HashMap<>();
+		private final Map<String, Long> queuedAt = new HashMap<>();
+		private final Map<String, Long> lockedBy = new HashMap<>();
+		final AtomicInteger doubleAllocations = new AtomicInteger();
+
+		SimulatedManager(FakeClock clock, ResourceAllocator allocator) {
+			this.clock = clock;
+			this.allocator = allocator;
+		}
+
+		private Long getQueuedBy(String name) {
+			Long started = queuedAt.get(name);
+			if (started != null && clock.millis() - started > queueTimeoutTicks) {
+				queuedBy.remove(name);
+				queuedAt.remove(name);
+			}
+			return queuedBy.get(name);
+		}
+
+		synchronized Map<String, AllocationRequest> queue(final long itemId, List<AllocationRequest> requests) {
+			unqueue(itemId);
+			Map<String, AllocationRequest> selected = allocator.allocate(requests, new ResourcePool() {
+				@Override
+				public boolean isAvailable(String name) {
+					return inventory.isAvailable(name) && !lockedBy.containsKey(name) && getQueuedBy(name) == null;
+				}
+
+				@Override
+				public Set<String> getLabels(String name) {
+					return inventory.getLabels(name);
+				}
+
+				@Override
+				public Collection<String> getLoadBalancingLabels() {
+					return inventory.getLoadBalancingLabels();
+				}
+
+				@Override
+				public double getLoadBalancingUsage(String label) {
+					return 0;
+				}
+
+				@Override
+				public int getLoadBalancingGroupSize(String label) {
+					return inventory.getLoadBalancingGroupSize(label);
+				}
+			});
+			if (selected == null) return null;
+			for (String name : selected.keySet()) {
+				Long owner = getQueuedBy(name);
+				if (lockedBy.containsKey(name) || (owner != null && owner != itemId)) {
+					doubleAllocations.incrementAndGet();
+				}
+				queuedBy.put(name, itemId);
+				queuedAt.put(name, clock.millis());
+			}
+			return selected;
+		}
+
+		synchronized void unqueue(long itemId) {
+			Iterator<Map.Entry<String, Long>> it = queuedBy.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<String, Long> e = it.next();
+				if (e.getValue() == itemId) {
+					queuedAt.remove(e.getKey());
+					it.remove();
+				}
+			}
+		}
+
+		synchronized boolean lock(long itemId, long buildId, Collection<String> names) {
+			for (String name : names) {
+				if (lockedBy.containsKey(name)) return false;
+			}
+			for (String name : names) {
+				Long owner = getQueuedBy(name);
+				if (owner != null && owner != itemId) {
+					doubleAllocations.incrementAndGet();
+				}
+				queuedBy.remove(name);
+				queuedAt.remove(name);
+				lockedBy.put(name, buildId);
+			}
+			return true;
+		}
+
+		synchronized void unlock(long buildId, Collection<String> names) {
+			for (String name : names) {
+				Long owner = lockedBy.get(name);
+				if (owner != null && owner == buildId) {
+					lockedBy.remove(name);
+				}
+			}
+		}
+
+		synchronized int countQueued() {
+			int queued = 0;
+			for (String name : new ArrayList<>(queuedBy.keySet())) {
+				if (getQueuedBy(name) != null) queued++;
+			}
+			return queued;
+		}
+
+		synchronized int countLocked() {
+			return lockedBy.size();
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.api;
+
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.jenkins.plugins.lockableresources.SimpleResourcePool;
+import org.jenkins.plugins.lockableresources.StressHarness;
+import org.jenkins.plugins.lockableresources.allocation.DefaultResourceAllocator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Concurrent queue / lock / unlock cycles against the allocation core.
+ * NOTE: these tests do not start Jenkins, the report is logged for comparing scaling changes.
+ */
+public class AllocationStressTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(AllocationStressTest.class.getName());
+
+	public AllocationStressTest() {
+		super();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+	}
+
+	/**
+	 * Maximum number of grants to other items while one item waits.
+	 */
+	private static final int STARVATION_BOUND = 1000;
+
+	private static void assertInvariants(StressHarness.Report report) {
+		assertEquals("Resources given to two owners", 0, report.doubleAllocations);
+		assertEquals("Queued claims leaked", 0, report.leakedClaims);
+		assertEquals("Locks leaked", 0, report.leakedLocks);
+		assertTrue("An item waited too long: " + report.getMaxOvertakes(), report.getMaxOvertakes() <= STARVATION_BOUND);
+	}
+
+	@Test
+	public void testSingleResourceRequests() throws Exception {
+		SimpleResourcePool pool = new SimpleResourcePool().addRange("r", 16, "pool");
+		StressHarness.Report report = new StressHarness(pool, () -> new DefaultResourceAllocator(false))
+				.workers(8).cyclesPerWorker(500)
+				.workload(1, "pool")
+				.run();
+		LOGGER.info("single resource requests: " + report);
+		assertInvariants(report);
+		assertEquals(8 * 500, report.cycles.get());
+	}
+
+	@Test
+	public void testMixedRequestsWithEvenUse() throws Exception {
+		SimpleResourcePool pool = new SimpleResourcePool()
+				.addRange("a", 8, "pool", "site-a")
+				.addRange("b", 8, "pool", "site-b");
+		StressHarness.Report report = new StressHarness(pool, () -> new DefaultResourceAllocator(true))
+				.workers(12).cyclesPerWorker(300)
+				.workload(1, "pool").workload(2, "site-a").workload(3, "pool")
+				.run();
+		LOGGER.info("mixed requests: " + report);
+		assertInvariants(report);
+	}
+
+	@Test
+	public void testAbandonedItemsDoNotLeakClaims() throws Exception {
+		SimpleResourcePool pool = new SimpleResourcePool().addRange("r", 32, "pool");
+		StressHarness.Report report = new StressHarness(pool, () -> new DefaultResourceAllocator(false))
+				.workers(8).cyclesPerWorker(250)
+				.workload(2, "pool")
+				.abandonRate(0.01).queueTimeoutTicks(200)
+				.run();
+		LOGGER.info("abandoned items: " + report);
+		assertInvariants(report);
+	}
+}
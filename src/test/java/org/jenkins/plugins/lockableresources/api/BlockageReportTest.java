@@ -0,0 +1,70 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.api;
+
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.jenkins.plugins.lockableresources.queue.BlockageReport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the blockage report of queue items, no Jenkins instance needed.
+ */
+public class BlockageReportTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(BlockageReportTest.class.getName());
+
+	public BlockageReportTest() {
+		super();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+	}
+
+	@Test
+	public void testEntry() {
+		LOGGER.info("entry");
+		BlockageReport.Entry entry = new BlockageReport.Entry("label1", 3);
+		entry.addFree();
+		entry.addQueued();
+		entry.addLocked("job #2", "r2");
+		entry.addLocked("job #1", "r3");
+		entry.addLocked("job #1", "r4");
+		entry.addReserved("bob", "r5");
+		assertEquals(1, entry.getFree());
+		assertEquals(Arrays.asList("r3", "r4"), entry.getLockedBy().get("job #1"));
+		assertEquals(Collections.singletonList("r5"), entry.getReservedBy().get("bob"));
+		assertEquals("label1 (1/3 free, 1 queued by other builds, locked by job #1, job #2, reserved by bob)",
+				entry.toString());
+	}
+
+	@Test
+	public void testFreeOnly() {
+		LOGGER.info("freeOnly");
+		BlockageReport.Entry entry = new BlockageReport.Entry("r1 r2", 2);
+		entry.addFree();
+		entry.addHeldElsewhere();
+		assertEquals("r1 r2 (1/2 free, 1 held by other controllers)", entry.toString());
+		BlockageReport report = new BlockageReport(Collections.singletonList(entry), 7, 100, -1);
+		assertEquals(7, report.getGeneration());
+		assertEquals(1, report.getEntries().size());
+	}
+}
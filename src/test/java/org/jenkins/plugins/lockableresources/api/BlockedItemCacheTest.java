@@ -0,0 +1,100 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.api;
+
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.jenkins.plugins.lockableresources.allocation.BlockedItemCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the cache of blocked queue items, no Jenkins instance needed.
+ */
+public class BlockedItemCacheTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(BlockedItemCacheTest.class.getName());
+
+	private BlockedItemCache<String> cache;
+
+	public BlockedItemCacheTest() {
+		super();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		cache = new BlockedItemCache<>(1000);
+		cache.blocked(1, Arrays.asList("l1", "l2"), 0);
+		cache.put(1, "blocked");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+	}
+
+	@Test
+	public void testUnrelatedChange() {
+		LOGGER.info("unrelatedChange");
+		cache.changed(Collections.singleton("l3"));
+		assertEquals("blocked", cache.get(1, 10));
+	}
+
+	@Test
+	public void testRelatedChange() {
+		LOGGER.info("relatedChange");
+		cache.changed(Collections.singleton("l2"));
+		assertNull(cache.get(1, 10));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testGlobalChangeAndExpiry() {
+		LOGGER.info("globalChangeAndExpiry");
+		assertNull("Entries expire", cache.get(1, 2000));
+		cache.blocked(1, Collections.singleton("l1"), 0);
+		assertNull("No result attached yet", cache.get(1, 10));
+		cache.put(1, "blocked");
+		cache.changedAll();
+		assertNull(cache.get(1, 10));
+	}
+
+	@Test
+	public void testRetain() {
+		LOGGER.info("retain");
+		cache.changed(Collections.singleton("l3"));
+		cache.changed(Arrays.asList("l1", "l2"));
+		cache.blocked(1, Arrays.asList("l1", "l2"), 0);
+		cache.put(1, "blocked again");
+		assertEquals(3, cache.getPoolCount());
+		cache.retain(Arrays.asList("l1", "l2"));
+		assertEquals(2, cache.getPoolCount());
+		assertEquals("l3 did not change after the attempt", "blocked again", cache.get(1, 10));
+	}
+
+	@Test
+	public void testForgottenPoolInvalidates() {
+		LOGGER.info("forgottenPoolInvalidates");
+		cache.changed(Collections.singleton("l2"));
+		cache.forget(Collections.singleton("l2"));
+		assertEquals(0, cache.getPoolCount());
+		assertNull("Changed before it was forgotten", cache.get(1, 10));
+
+		cache.blocked(1, Arrays.asList("l1", "l2"), 0);
+		cache.put(1, "blocked again");
+		assertEquals("Forgotten before the attempt", "blocked again", cache.get(1, 10));
+		cache.changed(Collections.singleton("l2"));
+		assertNull(cache.get(1, 10));
+	}
+}
@@ -0,0 +1,140 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.api;
+
+import org.jenkins.plugins.lockableresources.LabelExpression;
+import org.jenkins.plugins.lockableresources.LabelIndex;
+import org.jenkins.plugins.lockableresources.LockableResource;
+import org.jenkins.plugins.lockableresources.LockableResourceProperty;
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.jenkins.plugins.lockableresources.PropertyIndex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the removal of single resources from the indexes, as done for ephemeral resources,
+ * no Jenkins instance needed.
+ */
+public class EphemeralResourcesTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(EphemeralResourcesTest.class.getName());
+
+	public EphemeralResourcesTest() {
+		super();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+	}
+
+	private static LockableResource resource(String name, String labels, String... properties) {
+		LockableResourceProperty[] props = new LockableResourceProperty[properties.length];
+		for (int i = 0; i < properties.length; i++) {
+			String[] p = properties[i].split("=", 2);
+			props[i] = new LockableResourceProperty(p[0], p[1]);
+		}
+		return new LockableResource("ID-" + name, name, "", labels, "", Arrays.asList(props));
+	}
+
+	private static List<LockableResource> select(LabelIndex index, String expression) {
+		return index.select(LabelExpression.parse(expression).evaluate(index, Function.identity()));
+	}
+
+	@Test
+	public void testLabelIndexRemove() {
+		LOGGER.info("labelIndexRemove");
+		LabelIndex index = new LabelIndex();
+		LockableResource r1 = resource("r1", "linux");
+		LockableResource r2 = resource("r2", "linux device");
+		LockableResource r3 = resource("r3", "mac");
+		index.add(r1);
+		index.add(r2);
+		index.add(r3);
+		assertTrue(index.remove(r2));
+		assertFalse(index.remove(r2));
+		assertFalse(index.contains("r2"));
+		assertFalse(index.contains("device"));
+		assertEquals(Collections.singletonList(r1), select(index, "linux"));
+		// the free position must not be selected
+		assertEquals(Arrays.asList(r1, r3), select(index, "!device"));
+
+		LockableResource r4 = resource("r4", "device");
+		index.add(r4);
+		assertEquals(3, index.size());
+		assertEquals(Arrays.asList(r1, r4, r3), select(index, "!linux || linux"));
+		assertEquals(Collections.singletonList(r4), select(index, "device"));
+	}
+
+	@Test
+	public void testLabelIndexRemoveOtherInstance() {
+		LOGGER.info("labelIndexRemoveOtherInstance");
+		LabelIndex index = new LabelIndex();
+		index.add(resource("r1", "linux"));
+		assertFalse(index.remove(resource("r1", "linux")));
+		assertTrue(index.contains("r1"));
+	}
+
+	@Test
+	public void testPropertyIndexRemove() {
+		LOGGER.info("propertyIndexRemove");
+		PropertyIndex index = new PropertyIndex();
+		LockableResource r1 = resource("r1", null, "os=linux", "ip=10.0.0.1");
+		LockableResource r2 = resource("r2", null, "os=linux", "ip=10.0.0.2");
+		index.add(r1);
+		index.add(r2);
+		index.remove(r1);
+		assertEquals(Collections.singletonList(r2), index.find(Collections.singletonList("os=linux")));
+		assertTrue(index.find(Collections.singletonList("ip=10.0.0.1")).isEmpty());
+		index.remove(r2);
+		assertTrue(index.find(Collections.singletonList("os")).isEmpty());
+		index.add(r1);
+		assertEquals(Collections.singletonList(r1), index.find(Arrays.asList("os", "ip=10.0.0.1")));
+	}
+
+	@Test
+	public void testNotEphemeralByDefault() {
+		LOGGER.info("notEphemeralByDefault");
+		assertFalse(resource("r1", "linux").isEphemeral());
+	}
+
+	@Test
+	public void testManyRegistrations() {
+		LOGGER.info("manyRegistrations");
+		LabelIndex labels = new LabelIndex();
+		PropertyIndex properties = new PropertyIndex();
+		LockableResource[] live = new LockableResource[100];
+		for (int i = 0; i < 100000; i++) {
+			int slot = i % live.length;
+			if (live[slot] != null) {
+				assertTrue(labels.remove(live[slot]));
+				properties.remove(live[slot]);
+			}
+			live[slot] = resource("device-" + i, "device pool-" + slot, "pool=" + slot);
+			labels.add(live[slot]);
+			properties.add(live[slot]);
+		}
+		// removed positions are reused, the index does not grow with the number of registrations
+		assertEquals(live.length, labels.size());
+		assertEquals(live.length, select(labels, "device").size());
+		assertEquals(Collections.singletonList(live[7]), properties.find(Collections.singletonList("pool=7")));
+	}
+}
@@ -0,0 +1,102 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.api;
+
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.jenkins.plugins.lockableresources.SimpleResourcePool;
+import org.jenkins.plugins.lockableresources.allocation.AllocationRequest;
+import org.jenkins.plugins.lockableresources.allocation.DefaultResourceAllocator;
+import org.jenkins.plugins.lockableresources.allocation.FairWaitQueue;
+import org.jenkins.plugins.lockableresources.allocation.ResourceAllocator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the line of items waiting for resources, no Jenkins instance needed.
+ */
+public class FairWaitQueueTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(FairWaitQueueTest.class.getName());
+
+	private SimpleResourcePool pool;
+	private ResourceAllocator allocator;
+
+	public FairWaitQueueTest() {
+		super();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		pool = new SimpleResourcePool().addRange("r", 4, "pool");
+		pool.lock("r0");
+		pool.lock("r1");
+		pool.lock("r2");
+		allocator = new DefaultResourceAllocator(false);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+	}
+
+	/**
+	 * Mimics one round of the manager: allocate around the held resources, wait on failure.
+	 */
+	private Map<String, AllocationRequest> attempt(FairWaitQueue queue, long itemId, long since, int number, long now) {
+		List<AllocationRequest> requests = Collections.singletonList(
+				new AllocationRequest(pool.getNamesWithLabel("pool"), number, false, null));
+		pool.setHeld(queue.getHeld(itemId, pool, now));
+		Map<String, AllocationRequest> selected = allocator.allocate(requests, pool);
+		pool.setHeld(Collections.<String>emptySet());
+		if (selected == null) {
+			queue.waiting(itemId, since, requests, now);
+		} else {
+			queue.remove(itemId);
+			selected.keySet().forEach(pool::lock);
+		}
+		return selected;
+	}
+
+	@Test
+	public void testAgedWaiterGetsReleasedResources() {
+		LOGGER.info("agedWaiterGetsReleasedResources");
+		FairWaitQueue queue = new FairWaitQueue(1000);
+		assertNull(attempt(queue, 1, 0, 4, 0));
+		assertEquals(1, queue.getPosition(1));
+		// not aged yet, the small item may overtake
+		assertNotNull(attempt(queue, 2, 500, 1, 500));
+
+		pool.unlock("r0");
+		assertNull("r0 is held for the aged item", attempt(queue, 3, 2000, 1, 2000));
+		assertEquals(1, queue.getPosition(1));
+		assertEquals(2, queue.getPosition(3));
+
+		pool.unlock("r1");
+		pool.unlock("r2");
+		pool.unlock("r3");
+		assertNotNull(attempt(queue, 1, 0, 4, 3000));
+		assertEquals(0, queue.getPosition(1));
+		assertEquals(1, queue.getPosition(3));
+	}
+
+	@Test
+	public void testDisabledAgingKeepsGreedyBehaviour() {
+		LOGGER.info("disabledAgingKeepsGreedyBehaviour");
+		FairWaitQueue queue = new FairWaitQueue(0);
+		assertNull(attempt(queue, 1, 0, 4, 0));
+		pool.unlock("r0");
+		assertNotNull(attempt(queue, 3, 2000, 1, 2000));
+		assertEquals(1, queue.getPosition(1));
+	}
+}
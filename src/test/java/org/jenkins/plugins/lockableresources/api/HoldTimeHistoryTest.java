@@ -0,0 +1,115 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.api;
+
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.jenkins.plugins.lockableresources.metrics.HoldTimeHistory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the hold duration history behind the wait estimates, no Jenkins instance needed.
+ */
+public class HoldTimeHistoryTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(HoldTimeHistoryTest.class.getName());
+
+	private HoldTimeHistory history;
+
+	public HoldTimeHistoryTest() {
+		super();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		history = new HoldTimeHistory(4);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+	}
+
+	@Test
+	public void testTypical() {
+		LOGGER.info("typical");
+		assertEquals(-1, history.getTypical("r1"));
+		history.record("r1", Collections.singleton("l1"), 10);
+		history.record("r1", Collections.singleton("l1"), 30);
+		history.record("r1", Collections.singleton("l1"), 20);
+		assertEquals(20, history.getTypical("r1"));
+		assertEquals(20, history.getTypical("l1"));
+	}
+
+	@Test
+	public void testBounded() {
+		LOGGER.info("bounded");
+		for (int i = 0; i < 4; i++) {
+			history.record("r1", Collections.<String>emptySet(), 10);
+		}
+		for (int i = 0; i < 4; i++) {
+			history.record("r1", Collections.<String>emptySet(), 100);
+		}
+		// the short holds were overwritten
+		assertEquals(100, history.getTypical("r1"));
+	}
+
+	@Test
+	public void testForget() {
+		LOGGER.info("forget");
+		history.record("r1", Arrays.asList("l1", "l2"), 10);
+		history.forget(Arrays.asList("r1", "l1"));
+		assertEquals(-1, history.getTypical("r1"));
+		assertEquals(-1, history.getTypical("l1"));
+		assertEquals(10, history.getTypical("l2"));
+		assertEquals(Collections.singleton("l2"), history.getTypicals().keySet());
+	}
+
+	@Test
+	public void testRemainingUsesLongerHolds() {
+		LOGGER.info("remainingUsesLongerHolds");
+		history.record("r1", Collections.<String>emptySet(), 10);
+		history.record("r1", Collections.<String>emptySet(), 20);
+		history.record("r1", Collections.<String>emptySet(), 100);
+		assertEquals(50, history.estimateRemaining("r1", Collections.<String>emptySet(), 50));
+		// held longer than ever before
+		assertEquals(-1, history.estimateRemaining("r1", Collections.<String>emptySet(), 200));
+	}
+
+	@Test
+	public void testRemainingFallsBackToLabels() {
+		LOGGER.info("remainingFallsBackToLabels");
+		history.record("r1", Collections.singleton("l1"), 60);
+		assertEquals(50, history.estimateRemaining("r2", Arrays.asList("l2", "l1"), 10));
+		assertEquals(-1, history.estimateRemaining("r2", Collections.singleton("l2"), 10));
+	}
+
+	@Test
+	public void testEstimateWait() {
+		LOGGER.info("estimateWait");
+		assertEquals(0, HoldTimeHistory.estimateWait(0, Collections.<Long>emptyList()));
+		assertEquals(30, HoldTimeHistory.estimateWait(2, Arrays.asList(50L, -1L, 10L, 30L)));
+		assertEquals(-1, HoldTimeHistory.estimateWait(4, Arrays.asList(50L, -1L, 10L, 30L)));
+	}
+
+	@Test
+	public void testRetain() {
+		LOGGER.info("retain");
+		history.record("r1", Collections.singleton("l1"), 10);
+		history.retain(Collections.singleton("l1"));
+		assertEquals(-1, history.getTypical("r1"));
+		assertEquals(10, history.getTypical("l1"));
+	}
+}
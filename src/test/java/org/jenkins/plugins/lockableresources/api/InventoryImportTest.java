@@ -0,0 +1,157 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.api;
+
+import org.jenkins.plugins.lockableresources.InventoryDiff;
+import org.jenkins.plugins.lockableresources.InventoryFormat;
+import org.jenkins.plugins.lockableresources.LabelIndex;
+import org.jenkins.plugins.lockableresources.LockableResource;
+import org.jenkins.plugins.lockableresources.LockableResourceProperty;
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.jenkins.plugins.lockableresources.PropertyIndex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the bulk export and import of resource definitions, no Jenkins instance needed.
+ */
+public class InventoryImportTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(InventoryImportTest.class.getName());
+
+	public InventoryImportTest() {
+		super();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+	}
+
+	private static LockableResource resource(String name, String description, String labels) {
+		return new LockableResource("ID-" + name, name, description, labels, "", null);
+	}
+
+	@Test
+	public void testCsvRoundTrip() throws Exception {
+		LOGGER.info("csvRoundTrip");
+		LockableResource r1 = new LockableResource("ID1", "r1", "a \"quoted\", description", "l1 l2", "",
+				Arrays.asList(new LockableResourceProperty("ip", "10.0.0.1"), new LockableResourceProperty("os", "linux")));
+		r1.setScope("team/a");
+		LockableResource r2 = resource("r2", "multi\nline", null);
+		StringWriter out = new StringWriter();
+		InventoryFormat.CSV.writeAll(Arrays.asList(r1, r2), out);
+		LOGGER.info(out.toString());
+		List<LockableResource> read = InventoryFormat.CSV.readAll(new StringReader(out.toString()));
+		assertEquals(2, read.size());
+		assertEquals("r1", read.get(0).getName());
+		assertTrue(read.get(0).hasSameDefinition(r1));
+		assertTrue(read.get(1).hasSameDefinition(r2));
+		assertEquals("multi\nline", read.get(1).getDescription());
+		assertNull(read.get(1).getLabels());
+	}
+
+	@Test
+	public void testCsvErrors() throws Exception {
+		LOGGER.info("csvErrors");
+		assertTrue(InventoryFormat.CSV.readAll(new StringReader("")).isEmpty());
+		assertEquals(1, InventoryFormat.CSV.readAll(new StringReader("labels,name\nl1,r1\n\n")).size());
+		for (String invalid : Arrays.asList("description\nd1\n", "name\nr1\nr1\n", "name,labels\n,l1\n",
+				"name,properties\nr1,=x\n", "name\n\"r1\n")) {
+			try {
+				InventoryFormat.CSV.readAll(new StringReader(invalid));
+				fail("expected an error for " + invalid);
+			} catch (IllegalArgumentException expected) {
+				LOGGER.info(expected.getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void testDiff() {
+		LOGGER.info("diff");
+		LockableResource same = resource("same", "d", "l1");
+		LockableResource changed = resource("changed", "d", "l1 l2");
+		LockableResource gone = resource("gone", null, null);
+		LockableResource reserved = resource("reserved", null, null);
+		reserved.setReservedBy("bob");
+		List<LockableResource> current = Arrays.asList(same, changed, gone, reserved);
+		List<LockableResource> imported = Arrays.asList(resource("same", "d", "l1"),
+				resource("changed", "d", "l2 l1"), resource("new", null, "l3"));
+
+		InventoryDiff diff = new InventoryDiff(current, imported, true);
+		assertEquals(Collections.singletonList("new"), diff.getAddedNames());
+		assertEquals(Collections.singletonList("changed"), diff.getChangedNames());
+		assertSame(changed, diff.getChanged().keySet().iterator().next());
+		assertEquals(Collections.singletonList("gone"), diff.getRemovedNames());
+		assertEquals(Collections.singletonList("reserved"), diff.getKeptNames());
+
+		InventoryDiff additive = new InventoryDiff(current, imported, false);
+		assertTrue(additive.getRemoved().isEmpty());
+		assertTrue(additive.getKept().isEmpty());
+		assertTrue(new InventoryDiff(current, current, true).isEmpty());
+	}
+
+	@Test
+	public void testUpdateInPlace() {
+		LOGGER.info("updateInPlace");
+		LockableResource r1 = new LockableResource("ID1", "r1", null, "l1", "",
+				Collections.singletonList(new LockableResourceProperty("os", "linux")));
+		LockableResource r2 = resource("r2", null, "l1 l2");
+		LockableResource r3 = new LockableResource("ID3", "r3", null, "l2", "",
+				Collections.singletonList(new LockableResourceProperty("os", "mac")));
+		LabelIndex index = new LabelIndex();
+		PropertyIndex properties = new PropertyIndex();
+		for (LockableResource r : Arrays.asList(r1, r2, r3)) {
+			index.add(r);
+			properties.add(r);
+		}
+		// the labels r1 had before: l2 is dropped, l1 kept, and r1 keeps its number
+		assertTrue(index.update(r1, Arrays.asList("l2")));
+		assertEquals(0, index.position("r1"));
+		assertEquals(Arrays.asList(r1, r2), index.select(index.get("l1")));
+		assertEquals(Arrays.asList(r2, r3), index.select(index.get("l2")));
+		assertFalse("Not the indexed instance", index.update(resource("r1", null, "l1"), Arrays.asList("l2")));
+
+		Set<LockableResource> set = new LinkedHashSet<>(Arrays.asList(r2, r3));
+		index.insertInOrder(set, r1);
+		assertEquals(Arrays.asList(r1, r2, r3), new ArrayList<>(set));
+		set = new LinkedHashSet<>(Arrays.asList(r1, r3));
+		index.insertInOrder(set, r2);
+		index.insertInOrder(set, r2);
+		assertEquals(Arrays.asList(r1, r2, r3), new ArrayList<>(set));
+
+		// the same resource with another property, as after LockableResource.updateDefinition
+		Map<String, String> oldProperties = new HashMap<>(r3.getPropertiesAsMap());
+		LockableResource r3Linux = new LockableResource("ID3", "r3", null, "l2", "",
+				Collections.singletonList(new LockableResourceProperty("os", "linux")));
+		properties.update(r3Linux, oldProperties, index);
+		assertEquals(Arrays.asList(r1, r3Linux), properties.find(Collections.singletonList("os=linux")));
+		assertTrue(properties.find(Collections.singletonList("os=mac")).isEmpty());
+		assertEquals(2, properties.find(Collections.singletonList("os")).size());
+	}
+}
@@ -0,0 +1,105 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.api;
+
+import org.jenkins.plugins.lockableresources.LabelExpression;
+import org.jenkins.plugins.lockableresources.LabelIndex;
+import org.jenkins.plugins.lockableresources.LockableResource;
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the boolean label expressions used by {@code expr:}, no Jenkins instance needed.
+ */
+public class LabelExpressionTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(LabelExpressionTest.class.getName());
+
+	private final LabelIndex index = new LabelIndex();
+	private LockableResource r1;
+	private LockableResource r2;
+	private LockableResource r3;
+
+	public LabelExpressionTest() {
+		super();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		r1 = new LockableResource("ID1", "r1", "", "linux arm", "", null);
+		r2 = new LockableResource("ID2", "r2", "", "linux x86 broken", "", null);
+		r3 = new LockableResource("ID3", "r3", "", "mac x86", "", null);
+		index.add(r1);
+		index.add(r2);
+		index.add(r3);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+	}
+
+	private List<LockableResource> select(String expression) {
+		return index.select(LabelExpression.parse(expression).evaluate(index, Function.identity()));
+	}
+
+	@Test
+	public void testOperators() {
+		LOGGER.info("operators");
+		assertEquals(Arrays.asList(r1, r2), select("linux"));
+		assertEquals(Collections.singletonList(r2), select("linux&&x86"));
+		assertEquals(Arrays.asList(r1, r3), select("arm || mac"));
+		assertEquals(Arrays.asList(r1, r3), select("!broken"));
+		assertEquals(Arrays.asList(r1, r3), select("(linux || mac) && !broken"));
+		assertEquals(Collections.singletonList(r3), select("r3 || unknown"));
+		assertTrue(select("linux && mac").isEmpty());
+	}
+
+	@Test
+	public void testPrecedence() {
+		LOGGER.info("precedence");
+		assertEquals("(arm || (x86 && !broken))", LabelExpression.parse("arm || x86 && !broken").toString());
+		assertEquals(Arrays.asList(r1, r3), select("arm || x86 && !broken"));
+		assertEquals(Collections.singletonList(r1), select("!(x86 || mac)"));
+		assertEquals(Arrays.asList("arm", "x86", "broken"),
+				new ArrayList<>(LabelExpression.parse("arm || x86 && !broken").getAtoms()));
+	}
+
+	@Test
+	public void testMapper() {
+		LOGGER.info("mapper");
+		List<LockableResource> found = index.select(LabelExpression.parse("${OS} && !broken")
+				.evaluate(index, atom -> atom.equals("${OS}") ? "linux" : atom));
+		assertEquals(Collections.singletonList(r1), found);
+	}
+
+	@Test
+	public void testSyntaxErrors() {
+		LOGGER.info("syntaxErrors");
+		for (String invalid : Arrays.asList("", "linux &&", "(linux", "linux)", "linux & x86", "|| mac", "linux mac")) {
+			try {
+				LabelExpression.parse(invalid);
+				fail("expected a syntax error for " + invalid);
+			} catch (IllegalArgumentException expected) {
+				LOGGER.info(expected.getMessage());
+			}
+		}
+		assertSame(LabelExpression.compile("linux && x86"), LabelExpression.compile("linux && x86"));
+	}
+}
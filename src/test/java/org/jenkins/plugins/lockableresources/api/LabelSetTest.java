@@ -0,0 +1,163 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.api;
+
+import org.jenkins.plugins.lockableresources.LabelSet;
+import org.jenkins.plugins.lockableresources.LabelSymbols;
+import org.jenkins.plugins.lockableresources.LockableResource;
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the compact label storage of resources, no Jenkins instance needed.
+ */
+public class LabelSetTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(LabelSetTest.class.getName());
+
+	public LabelSetTest() {
+		super();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+	}
+
+	@Test
+	public void testSetSemantics() {
+		LOGGER.info("setSemantics");
+		LabelSet labels = new LabelSet(Arrays.asList("zeta", "alpha", "zeta", "mid"));
+		assertEquals(Arrays.asList("zeta", "alpha", "mid"), new ArrayList<>(labels));
+		assertTrue(labels.contains("alpha"));
+		assertFalse(labels.contains("never-seen-label"));
+		assertFalse(labels.add("alpha"));
+		assertTrue(labels.remove("alpha"));
+		assertFalse(labels.remove("alpha"));
+		assertEquals(new LinkedHashSet<>(Arrays.asList("zeta", "mid")), labels);
+		assertEquals(new LinkedHashSet<>(Arrays.asList("mid", "zeta")).hashCode(), labels.hashCode());
+	}
+
+	@Test
+	public void testIteratorSnapshot() {
+		LOGGER.info("iteratorSnapshot");
+		LabelSet labels = new LabelSet(Arrays.asList("a1", "a2", "a3"));
+		Iterator<String> it = labels.iterator();
+		assertEquals("a1", it.next());
+		labels.add("a4");
+		it.remove();
+		assertEquals("a2", it.next());
+		assertEquals("a3", it.next());
+		assertFalse(it.hasNext());
+		assertEquals(Arrays.asList("a2", "a3", "a4"), new ArrayList<>(labels));
+	}
+
+	@Test
+	public void testSharedSymbols() {
+		LOGGER.info("sharedSymbols");
+		LockableResource r1 = new LockableResource("ID1", "r1", "", "shared-x unique-1", "", null);
+		LockableResource r2 = new LockableResource("ID2", "r2", "", "shared-x unique-2", "", null);
+		int id = LabelSymbols.lookup("shared-x");
+		assertTrue(id >= 0);
+		assertSame(LabelSymbols.name(id), r1.getLabelSet().iterator().next());
+		assertSame(r1.getLabelSet().iterator().next(), r2.getLabelSet().iterator().next());
+		assertEquals("shared-x unique-2", r2.getLabels());
+		assertTrue(r2.isValidLabelSet(Arrays.asList("unique-2", "shared-x")));
+	}
+
+	@Test
+	public void testRemovedLabelReleased() {
+		LOGGER.info("removedLabelReleased");
+		LabelSet first = new LabelSet(Arrays.asList("released-a", "kept-b"));
+		LabelSet second = new LabelSet(Arrays.asList("kept-b"));
+		int id = LabelSymbols.lookup("released-a");
+		assertTrue(id >= 0);
+		first.remove("released-a");
+		assertEquals(-1, LabelSymbols.lookup("released-a"));
+		first.clear();
+		assertTrue("Still used by the second set", LabelSymbols.lookup("kept-b") >= 0);
+		assertTrue(second.contains("kept-b"));
+
+		// the released number is given to the next new label
+		LabelSet third = new LabelSet(Arrays.asList("reused-c"));
+		assertEquals(id, LabelSymbols.lookup("reused-c"));
+		assertEquals(Arrays.asList("reused-c"), new ArrayList<>(third));
+		assertFalse(third.contains("released-a"));
+	}
+
+	@Test
+	public void testCollectedSetReleased() throws Exception {
+		LOGGER.info("collectedSetReleased");
+		int before = LabelSymbols.size();
+		for (int i = 0; i < 1000; i++) {
+			new LockableResource("ID" + i, "r" + i, "", "collected-" + i, "", null);
+		}
+		assertTrue(LabelSymbols.size() >= 1000);
+		for (int i = 0; i < 50 && LabelSymbols.size() > before; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		// labels of other tests may have been collected too
+		assertTrue(LabelSymbols.size() <= before);
+		assertEquals(-1, LabelSymbols.lookup("collected-1"));
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * @return the heap taken by the label sets of many resources, per resource
+	 */
+	private static long footprint(boolean compact) throws InterruptedException {
+		int resources = 10000;
+		Object[] kept = new Object[resources];
+		long before = usedHeap();
+		for (int r = 0; r < resources; r++) {
+			Set<String> labels = compact ? new LabelSet() : new LinkedHashSet<>();
+			for (int i = 0; i < 15; i++) {
+				// a new string for every resource, as read from the saved configuration
+				labels.add(new String(("footprint-" + (r * 7 + i * 31) % 500).toCharArray()));
+			}
+			kept[r] = labels;
+		}
+		long after = usedHeap();
+		assertEquals(resources, kept.length);
+		return (after - before) / resources;
+	}
+
+	@Test
+	public void testFootprint() throws Exception {
+		LOGGER.info("footprint");
+		long strings = footprint(false);
+		long compact = footprint(true);
+		LOGGER.info(String.format("heap per resource with 15 labels: LinkedHashSet of strings %d bytes, LabelSet %d bytes",
+				strings, compact));
+		assertTrue(compact * 2 < strings);
+	}
+}
@@ -239,4 +239,61 @@ public class LockableResourceTest extends LockableResourceTestBase {
         LOGGER.info("HASH: " + result);
         assertEquals(111073, result);
 	}
+
+	/**
+	 * Test of the properties of a resource defined without any.
+	 */
+	@Test
+	public void testNoProperties() {
+		LOGGER.info("noProperties");
+		assertTrue(instance.getProperties().isEmpty());
+		assertTrue(instance.getPropertiesAsMap().isEmpty());
+		assertNull(instance.getPropertyValue("key"));
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * @return the heap taken by many resources without properties, per resource
+	 */
+	private static long footprint(boolean queuedOnce) throws InterruptedException {
+		int resources = 10000;
+		LockableResource[] kept = new LockableResource[resources];
+		long before = usedHeap();
+		for (int r = 0; r < resources; r++) {
+			LockableResource resource = new LockableResource(LockableResource.generateUniqueID(),
+					"footprint-" + r, null, "", null, null);
+			resource.getPropertiesAsMap();
+			if (queuedOnce) {
+				resource.setQueued(r + 1, "project");
+				resource.unqueue();
+			}
+			kept[r] = resource;
+		}
+		long after = usedHeap();
+		assertEquals(resources, kept.length);
+		return (after - before) / resources;
+	}
+
+	/**
+	 * Test that a free resource keeps no queue nor lock state.
+	 */
+	@Test
+	public void testFootprint() throws Exception {
+		LOGGER.info("footprint");
+		// loads the classes and seeds the random unique ids first
+		footprint(false);
+		long fresh = footprint(false);
+		long queuedOnce = footprint(true);
+		LOGGER.info(String.format("heap per resource: %d bytes, %d bytes once queued and unqueued",
+				fresh, queuedOnce));
+		assertTrue(queuedOnce < fresh + 16);
+	}
 }
@@ -0,0 +1,88 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.api;
+
+import org.jenkins.plugins.lockableresources.LockableResource;
+import org.jenkins.plugins.lockableresources.LockableResourceProperty;
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.jenkins.plugins.lockableresources.PropertyIndex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the property index used by {@code prop:} expressions, no Jenkins instance needed.
+ */
+public class PropertyIndexTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(PropertyIndexTest.class.getName());
+
+	private final PropertyIndex index = new PropertyIndex();
+	private LockableResource r1;
+	private LockableResource r2;
+	private LockableResource r3;
+
+	public PropertyIndexTest() {
+		super();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		r1 = new LockableResource("ID1", "r1", "", "", "", Arrays.asList(
+				new LockableResourceProperty("os", "linux"), new LockableResourceProperty("arch", "arm")));
+		r2 = new LockableResource("ID2", "r2", "", "", "", Arrays.asList(
+				new LockableResourceProperty("os", "linux"), new LockableResourceProperty("arch", "x86")));
+		r3 = new LockableResource("ID3", "r3", "", "", "", Collections.singletonList(
+				new LockableResourceProperty("os", "windows")));
+		index.add(r1);
+		index.add(r2);
+		index.add(r3);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+	}
+
+	@Test
+	public void testFindByValue() {
+		LOGGER.info("findByValue");
+		assertEquals(Arrays.asList(r1, r2), index.find(Collections.singletonList("os=linux")));
+		assertEquals(Collections.singletonList(r2), index.find(Arrays.asList("os=linux", "arch=x86")));
+		assertTrue(index.find(Arrays.asList("os=windows", "arch=arm")).isEmpty());
+		assertTrue(index.find(Collections.singletonList("os=mac")).isEmpty());
+	}
+
+	@Test
+	public void testFindByName() {
+		LOGGER.info("findByName");
+		assertEquals(Arrays.asList(r1, r2), index.find(Collections.singletonList("arch")));
+		assertEquals(Collections.singletonList(r1), index.find(Arrays.asList("arch", "arch=arm")));
+		assertTrue(index.find(Collections.<String>emptyList()).isEmpty());
+	}
+
+	@Test
+	public void testPropertiesMapIsImmutable() {
+		LOGGER.info("propertiesMapIsImmutable");
+		assertEquals("linux", r1.getPropertiesAsMap().get("os"));
+		try {
+			r1.getPropertiesAsMap().put("os", "mac");
+			fail("the properties map must not be modifiable");
+		} catch (UnsupportedOperationException expected) {
+			// expected
+		}
+		index.clear();
+		assertTrue(index.find(Collections.singletonList("os")).isEmpty());
+	}
+}
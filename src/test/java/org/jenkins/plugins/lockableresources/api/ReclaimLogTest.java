@@ -0,0 +1,76 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.api;
+
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.jenkins.plugins.lockableresources.metrics.ReclaimLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the audit trail of reclaimed locks, no Jenkins instance needed.
+ */
+public class ReclaimLogTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(ReclaimLogTest.class.getName());
+
+	private ReclaimLog log;
+
+	public ReclaimLogTest() {
+		super();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		log = new ReclaimLog(2);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+	}
+
+	@Test
+	public void testEmpty() {
+		LOGGER.info("empty");
+		assertEquals(0, log.getReclaimedCount());
+		assertTrue(log.getEntries().isEmpty());
+	}
+
+	@Test
+	public void testNewestFirst() {
+		LOGGER.info("newestFirst");
+		log.record(new ReclaimLog.Entry(1, "r1", "job #1", 100, 10));
+		log.record(new ReclaimLog.Entry(2, "r2", "job #2", 200, 20));
+		List<ReclaimLog.Entry> entries = log.getEntries();
+		assertEquals(2, entries.size());
+		assertEquals("r2", entries.get(0).getResource());
+		assertEquals("r1", entries.get(1).getResource());
+	}
+
+	@Test
+	public void testBounded() {
+		LOGGER.info("bounded");
+		for (int i = 1; i <= 5; i++) {
+			log.record(new ReclaimLog.Entry(i, "r" + i, "job #" + i, 100, 10));
+		}
+		List<ReclaimLog.Entry> entries = log.getEntries();
+		assertEquals(2, entries.size());
+		assertEquals("r5", entries.get(0).getResource());
+		assertEquals("r4", entries.get(1).getResource());
+		// the counters cover the dropped entries too
+		assertEquals(5, log.getReclaimedCount());
+		assertEquals(50, log.getReclaimedStaleMillis());
+	}
+}
@@ -0,0 +1,167 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.api;
+
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.jenkins.plugins.lockableresources.SimpleResourcePool;
+import org.jenkins.plugins.lockableresources.allocation.AllocationRequest;
+import org.jenkins.plugins.lockableresources.allocation.DefaultResourceAllocator;
+import org.jenkins.plugins.lockableresources.allocation.ResourceAllocator;
+import org.jenkins.plugins.lockableresources.allocation.ResourceSelectionMode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the allocation core, no Jenkins instance needed.
+ */
+public class ResourceAllocatorTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(ResourceAllocatorTest.class.getName());
+
+	private SimpleResourcePool pool;
+	private ResourceAllocator allocator;
+
+	public ResourceAllocatorTest() {
+		super();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		pool = new SimpleResourcePool()
+				.add("r1", "l1", "l2")
+				.add("r2", "l1")
+				.add("r3", "l1", "l2", "l3");
+		allocator = new DefaultResourceAllocator(false);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+	}
+
+	private static AllocationRequest request(int number, String... candidates) {
+		return new AllocationRequest(Arrays.asList(candidates), number, false, null);
+	}
+
+	@Test
+	public void testAllocateAll() {
+		LOGGER.info("allocateAll");
+		AllocationRequest all = request(0, "r1", "r2", "r3");
+		Map<String, AllocationRequest> selected = allocator.allocate(Collections.singletonList(all), pool);
+		assertNotNull("All free resources should be selected", selected);
+		assertEquals(Arrays.asList("r1", "r2", "r3"), new ArrayList<>(selected.keySet()));
+	}
+
+	@Test
+	public void testAllocateAllWithOneTaken() {
+		LOGGER.info("allocateAllWithOneTaken");
+		pool.lock("r2");
+		Map<String, AllocationRequest> selected = allocator.allocate(
+				Collections.singletonList(request(0, "r1", "r2", "r3")), pool);
+		assertNull("Cannot get all resources while one is locked", selected);
+	}
+
+	@Test
+	public void testAllocateNumberInOrder() {
+		LOGGER.info("allocateNumberInOrder");
+		pool.reserve("r1");
+		Map<String, AllocationRequest> selected = allocator.allocate(
+				Collections.singletonList(request(1, "r1", "r2", "r3")), pool);
+		assertNotNull(selected);
+		assertEquals(Collections.singleton("r2"), selected.keySet());
+	}
+
+	@Test
+	public void testAllocateMultipleRequests() {
+		LOGGER.info("allocateMultipleRequests");
+		AllocationRequest first = request(1, "r1", "r2");
+		AllocationRequest second = request(1, "r1", "r2");
+		Map<String, AllocationRequest> selected = allocator.allocate(Arrays.asList(first, second), pool);
+		assertNotNull(selected);
+		assertEquals(2, selected.size());
+		assertSame(first, selected.get("r1"));
+		assertSame(second, selected.get("r2"));
+	}
+
+	@Test
+	public void testFailedAllocationReleasesClaims() {
+		LOGGER.info("failedAllocationReleasesClaims");
+		pool.lock("r3");
+		Map<String, AllocationRequest> selected = allocator.allocate(
+				Arrays.asList(request(1, "r1", "r2"), request(1, "r3")), pool);
+		assertNull(selected);
+		assertFalse("Claims must be released on failure", pool.isQueued("r1"));
+		assertFalse("Claims must be released on failure", pool.isQueued("r2"));
+	}
+
+	@Test
+	public void testPercentMatching() {
+		LOGGER.info("percentMatching");
+		AllocationRequest closest = new AllocationRequest(Arrays.asList("r3", "r1", "r2"), 1, true,
+				Collections.singleton("l1"));
+		Map<String, AllocationRequest> selected = allocator.allocate(Collections.singletonList(closest), pool);
+		assertNotNull(selected);
+		assertEquals("r2 only has the requested label", Collections.singleton("r2"), selected.keySet());
+	}
+
+	@Test
+	public void testPercentMatchingOrder() {
+		LOGGER.info("percentMatchingOrder");
+		pool.add("r4", "l1", "l2", "l5").add("r5", "l1", "l4");
+		// r1, r5 and r2 match all their labels, r3 and r4 two out of three => best matches first, candidate order within a score
+		AllocationRequest closest = new AllocationRequest(Arrays.asList("r3", "r4", "r1", "r5", "r2"), 4, true,
+				Arrays.asList("l1", "l2", "l4"));
+		Map<String, AllocationRequest> selected = allocator.allocate(Collections.singletonList(closest), pool);
+		assertNotNull(selected);
+		assertEquals(Arrays.asList("r1", "r5", "r2", "r3"), new ArrayList<>(selected.keySet()));
+	}
+
+	@Test
+	public void testLoadBalancing() {
+		LOGGER.info("loadBalancing");
+		pool = new SimpleResourcePool()
+				.addRange("a", 2, "site-a")
+				.addRange("b", 2, "site-b")
+				.setLoadBalancingLabels("site-a", "site-b");
+		pool.lock("a0");
+		Map<String, AllocationRequest> selected = allocator.allocate(
+				Collections.singletonList(request(2, "a0", "a1", "b0", "b1")), pool);
+		assertNotNull(selected);
+		assertTrue("The least used site should be picked first", selected.containsKey("b0"));
+		assertEquals(2, selected.size());
+	}
+
+	@Test
+	public void testLeastRecentlyUsed() {
+		LOGGER.info("leastRecentlyUsed");
+		pool.setUsage("r1", 300, 0).setUsage("r2", 100, 0).setUsage("r3", 200, 0);
+		allocator = new DefaultResourceAllocator(ResourceSelectionMode.LEAST_RECENTLY_USED);
+		Map<String, AllocationRequest> selected = allocator.allocate(
+				Collections.singletonList(request(2, "r1", "r2", "r3")), pool);
+		assertNotNull(selected);
+		assertEquals(Arrays.asList("r2", "r3"), new ArrayList<>(selected.keySet()));
+	}
+
+	@Test
+	public void testLeastHeld() {
+		LOGGER.info("leastHeld");
+		pool.setUsage("r1", 0, 50).setUsage("r2", 0, 900).setUsage("r3", 0, 50);
+		allocator = new DefaultResourceAllocator(ResourceSelectionMode.LEAST_HELD);
+		Map<String, AllocationRequest> selected = allocator.allocate(
+				Collections.singletonList(request(2, "r1", "r2", "r3")), pool);
+		assertNotNull(selected);
+		// ties keep the candidate order
+		assertEquals(Arrays.asList("r1", "r3"), new ArrayList<>(selected.keySet()));
+	}
+}
@@ -0,0 +1,67 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.api;
+
+import org.jenkins.plugins.lockableresources.LockableResource;
+import org.jenkins.plugins.lockableresources.LockableResourceProperty;
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.jenkins.plugins.lockableresources.queue.ResourceEnvironment;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the precomputed environment variables of resources, no Jenkins instance needed.
+ */
+public class ResourceEnvironmentTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(ResourceEnvironmentTest.class.getName());
+
+	public ResourceEnvironmentTest() {
+		super();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+	}
+
+	@Test
+	public void testAllVariables() {
+		LOGGER.info("allVariables");
+		LockableResource r = new LockableResource("ID1", "r1", "d1", "l1 l2", "", Arrays.asList(
+				new LockableResourceProperty("ip", "10.0.0.1"), new LockableResourceProperty("port", "")));
+		ResourceEnvironment env = new ResourceEnvironment(r);
+		assertEquals(4, env.size());
+		Map<String, String> vars = new LinkedHashMap<>();
+		env.addTo(vars, "DUT2");
+		assertEquals("d1", vars.get("DUT2_desc"));
+		assertEquals("l1 l2", vars.get("DUT2_labels"));
+		assertEquals("10.0.0.1", vars.get("DUT2_ip"));
+		assertEquals(" ", vars.get("DUT2_port"));
+	}
+
+	@Test
+	public void testNoDescriptionNorLabels() {
+		LOGGER.info("noDescriptionNorLabels");
+		LockableResource r = new LockableResource("ID1", "r1", null, null, "", null);
+		ResourceEnvironment env = new ResourceEnvironment(r);
+		assertEquals(0, env.size());
+	}
+}
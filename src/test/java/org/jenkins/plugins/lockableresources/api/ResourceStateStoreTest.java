@@ -0,0 +1,158 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.api;
+
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.jenkins.plugins.lockableresources.StoreContender;
+import org.jenkins.plugins.lockableresources.store.FileResourceStateStore;
+import org.jenkins.plugins.lockableresources.store.HeldElsewhereCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the shared state stores, no Jenkins instance needed.
+ */
+public class ResourceStateStoreTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(ResourceStateStoreTest.class.getName());
+
+	private Path directory;
+
+	public ResourceStateStoreTest() {
+		super();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		directory = Files.createTempDirectory("lockable-resources-store");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		File[] files = directory.toFile().listFiles();
+		if (files != null) {
+			for (File f : files) {
+				Files.delete(f.toPath());
+			}
+		}
+		Files.delete(directory);
+		super.tearDown();
+	}
+
+	@Test
+	public void testExclusion() throws Exception {
+		LOGGER.info("exclusion");
+		FileResourceStateStore c1 = new FileResourceStateStore(directory, "c1");
+		FileResourceStateStore c2 = new FileResourceStateStore(directory, "c2");
+		assertTrue(c1.acquire("r 1", 0));
+		assertTrue("Renewing is allowed", c1.acquire("r 1", 0));
+		assertFalse(c2.acquire("r 1", 0));
+		assertEquals("c1", c2.getHolder("r 1"));
+		c2.release("r 1");
+		assertEquals("Only the holder releases", "c1", c1.getHolder("r 1"));
+		c1.release("r 1");
+		assertNull(c2.getHolder("r 1"));
+		assertTrue(c2.acquire("r 1", 0));
+	}
+
+	@Test
+	public void testLeaseExpiry() throws Exception {
+		LOGGER.info("leaseExpiry");
+		FileResourceStateStore c1 = new FileResourceStateStore(directory, "c1");
+		FileResourceStateStore c2 = new FileResourceStateStore(directory, "c2");
+		assertTrue(c1.acquire("r1", 50));
+		assertFalse(c2.acquire("r1", 0));
+		Thread.sleep(100);
+		assertNull(c1.getHolder("r1"));
+		assertTrue("Expired leases can be taken", c2.acquire("r1", 0));
+	}
+
+	@Test
+	public void testHeldByOthers() throws Exception {
+		LOGGER.info("heldByOthers");
+		FileResourceStateStore c1 = new FileResourceStateStore(directory, "c1");
+		FileResourceStateStore c2 = new FileResourceStateStore(directory, "c2");
+		assertTrue(c1.acquire("r 1", 0));
+		assertTrue(c1.acquire("r2", 0));
+		assertTrue(c1.acquire("r3", 50));
+		assertTrue(c2.acquire("r4", 0));
+		Thread.sleep(100);
+		assertEquals("Names are decoded, expired leases left out",
+				new HashSet<>(Arrays.asList("r 1", "r2")), c2.getHeldByOthers());
+		assertEquals(Collections.singleton("r4"), c1.getHeldByOthers());
+		c1.release("r2");
+		assertEquals(Collections.singleton("r 1"), c2.getHeldByOthers());
+	}
+
+	@Test
+	public void testHeldElsewhereCache() throws Exception {
+		LOGGER.info("heldElsewhereCache");
+		FileResourceStateStore c1 = new FileResourceStateStore(directory, "c1");
+		FileResourceStateStore c2 = new FileResourceStateStore(directory, "c2");
+		List<Runnable> pending = new ArrayList<>();
+		HeldElsewhereCache cache = new HeldElsewhereCache(c2, 60 * 1000, pending::add);
+		assertTrue(c1.acquire("r1", 0));
+		assertFalse("Not read yet, the caller does not wait", cache.isHeldElsewhere("r1"));
+		assertEquals(1, pending.size());
+		cache.isHeldElsewhere("r1");
+		assertEquals("One reading at a time", 1, pending.size());
+		pending.remove(0).run();
+		assertTrue(cache.isHeldElsewhere("r1"));
+		assertTrue("Fresh answers do not read the store", pending.isEmpty());
+
+		c1.release("r1");
+		assertTrue("Answered from the last reading", cache.isHeldElsewhere("r1"));
+		cache.refreshLater();
+		pending.remove(0).run();
+		assertFalse(cache.isHeldElsewhere("r1"));
+	}
+
+	@Test
+	public void testControllersInSeparateProcesses() throws Exception {
+		LOGGER.info("controllersInSeparateProcesses");
+		int cycles = 200;
+		List<Process> processes = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			processes.add(StoreContender.start(directory, "controller" + i, cycles, 2));
+		}
+		List<Long> latencies = new ArrayList<>();
+		for (Process p : processes) {
+			String last = null;
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					last = line;
+				}
+			}
+			assertEquals("Contender failed: " + last, 0, p.waitFor());
+			for (String l : last.split(" ")) {
+				latencies.add(Long.parseLong(l));
+			}
+		}
+		latencies.sort(null);
+		LOGGER.info(String.format("acquisition latency over %d acquisitions: p50=%dus p99=%dus max=%dus",
+				latencies.size(), latencies.get(latencies.size() / 2) / 1000,
+				latencies.get(latencies.size() * 99 / 100) / 1000, latencies.get(latencies.size() - 1) / 1000));
+	}
+}
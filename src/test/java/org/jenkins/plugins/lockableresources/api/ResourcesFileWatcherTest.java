@@ -0,0 +1,159 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.api;
+
+import org.jenkins.plugins.lockableresources.InventoryDiff;
+import org.jenkins.plugins.lockableresources.LockableResource;
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.jenkins.plugins.lockableresources.store.ResourcesFileWatcher;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the loading of resources from a watched file, no Jenkins instance needed.
+ */
+public class ResourcesFileWatcherTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(ResourcesFileWatcherTest.class.getName());
+
+	private Path directory;
+	private Path file;
+	private final List<List<LockableResource>> applied = new CopyOnWriteArrayList<>();
+	private ResourcesFileWatcher watcher;
+
+	public ResourcesFileWatcherTest() {
+		super();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		directory = Files.createTempDirectory("resources-file");
+		file = directory.resolve("resources.csv");
+		watcher = new ResourcesFileWatcher(file, imported -> {
+			applied.add(imported);
+			return new InventoryDiff(Collections.<LockableResource>emptyList(), imported, true);
+		});
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		watcher.close();
+		List<Path> paths = new ArrayList<>();
+		Files.list(directory).forEach(paths::add);
+		for (Path p : paths) {
+			Files.delete(p);
+		}
+		Files.delete(directory);
+		super.tearDown();
+	}
+
+	private void write(String text) throws Exception {
+		Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static List<String> names(List<LockableResource> resources) {
+		List<String> names = new ArrayList<>();
+		for (LockableResource r : resources) {
+			names.add(r.getName());
+		}
+		return names;
+	}
+
+	@Test
+	public void testReload() throws Exception {
+		LOGGER.info("reload");
+		write("name,labels\nr1,l1 l2\nr2,l2\n");
+		assertTrue(watcher.reload());
+		assertEquals(1, applied.size());
+		assertEquals("[r1, r2]", names(applied.get(0)).toString());
+		assertEquals("l1 l2", applied.get(0).get(0).getLabels());
+		assertEquals(2, watcher.getLastCount());
+		assertNotNull(watcher.getLastLoadedDate());
+		assertEquals("[r1, r2]", watcher.getLastDiff().getAddedNames().toString());
+		assertNull(watcher.getLastError());
+	}
+
+	@Test
+	public void testInvalidFileKeepsResources() throws Exception {
+		LOGGER.info("invalidFileKeepsResources");
+		write("name\nr1\n");
+		assertTrue(watcher.reload());
+		write("name\nr1\nr1\n");
+		assertFalse(watcher.reload());
+		assertEquals(1, applied.size());
+		assertEquals(1, watcher.getLastCount());
+		assertTrue(watcher.getLastError(), watcher.getLastError().contains("Duplicate resource name"));
+		write("name\nr1\nr2\n");
+		assertTrue(watcher.reload());
+		assertEquals(2, applied.size());
+		assertNull(watcher.getLastError());
+	}
+
+	@Test
+	public void testMissingFile() throws Exception {
+		LOGGER.info("missingFile");
+		assertFalse(watcher.reload());
+		assertTrue(applied.isEmpty());
+		assertNotNull(watcher.getLastError());
+		assertNull(watcher.getLastLoadedDate());
+	}
+
+	@Test
+	public void testStaleWatcher() throws Exception {
+		LOGGER.info("staleWatcher");
+		write("name\nr1\n");
+		ResourcesFileWatcher stale = new ResourcesFileWatcher(file, imported -> null);
+		assertFalse(stale.reload());
+		assertEquals(0, stale.getLastCount());
+		assertNull(stale.getLastDiff());
+		assertNull(stale.getLastLoadedDate());
+	}
+
+	@Test
+	public void testMissingDirectory() throws Exception {
+		LOGGER.info("missingDirectory");
+		Path missing = directory.resolve("missing");
+		ResourcesFileWatcher other = new ResourcesFileWatcher(missing.resolve("resources.csv"), imported -> null);
+		try {
+			other.start();
+			fail("watching a missing directory");
+		} catch (IOException e) {
+			assertFalse(Files.exists(missing));
+		} finally {
+			other.close();
+		}
+	}
+
+	@Test
+	public void testWatchedChange() throws Exception {
+		LOGGER.info("watchedChange");
+		write("name\nr1\n");
+		watcher.start();
+		assertEquals(1, applied.size());
+		write("name\nr1\nr2\nr3\n");
+		// the watch service may poll, give it time
+		for (int i = 0; i < 300 && applied.size() < 2; i++) {
+			Thread.sleep(100);
+		}
+		assertEquals(2, applied.size());
+		assertEquals("[r1, r2, r3]", names(applied.get(1)).toString());
+	}
+}
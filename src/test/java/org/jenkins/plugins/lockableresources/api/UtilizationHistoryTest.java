@@ -0,0 +1,110 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.api;
+
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.jenkins.plugins.lockableresources.metrics.UtilizationHistory;
+import org.jenkins.plugins.lockableresources.metrics.UtilizationHistory.State;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the per resource utilization history, no Jenkins instance needed.
+ */
+public class UtilizationHistoryTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(UtilizationHistoryTest.class.getName());
+
+	private UtilizationHistory history;
+
+	public UtilizationHistoryTest() {
+		super();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		history = new UtilizationHistory(40, 10);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+	}
+
+	private void sample(long now, State r1, State r2) {
+		Map<String, State> states = new HashMap<>();
+		if (r1 != null) states.put("r1", r1);
+		if (r2 != null) states.put("r2", r2);
+		history.sample(now, states);
+	}
+
+	@Test
+	public void testSamplesOldestFirst() {
+		LOGGER.info("samplesOldestFirst");
+		sample(10, State.FREE, State.RESERVED);
+		sample(20, State.LOCKED, State.RESERVED);
+		sample(30, State.QUEUED, State.FREE);
+		assertArrayEquals(new State[]{State.FREE, State.LOCKED, State.QUEUED}, history.getSamples("r1"));
+		assertArrayEquals(new State[]{State.RESERVED, State.RESERVED, State.FREE}, history.getSamples("r2"));
+		assertEquals(2.0 / 3, history.getBusyFraction("r1"), 0.0001);
+		assertNull(history.getSamples("r3"));
+	}
+
+	@Test
+	public void testBounded() {
+		LOGGER.info("bounded");
+		// crosses the 32 samples of a long, and wraps around the ring
+		for (int i = 1; i <= 100; i++) {
+			sample(i * 10, i > 80 ? State.LOCKED : State.FREE, null);
+		}
+		State[] samples = history.getSamples("r1");
+		assertEquals(40, samples.length);
+		for (int i = 0; i < 40; i++) {
+			assertEquals(i >= 20 ? State.LOCKED : State.FREE, samples[i]);
+		}
+		assertEquals(0.5, history.getBusyFraction("r1"), 0.0001);
+	}
+
+	@Test
+	public void testMissedIntervals() {
+		LOGGER.info("missedIntervals");
+		sample(10, State.FREE, null);
+		sample(50, State.LOCKED, null);
+		assertArrayEquals(new State[]{State.FREE, State.LOCKED, State.LOCKED, State.LOCKED, State.LOCKED},
+				history.getSamples("r1"));
+	}
+
+	@Test
+	public void testNewAndRemovedResources() {
+		LOGGER.info("newAndRemovedResources");
+		sample(10, State.FREE, null);
+		sample(20, State.FREE, State.LOCKED);
+		assertEquals(1, history.getSamples("r2").length);
+		sample(30, State.FREE, null);
+		assertEquals(Collections.singleton("r1"), history.getNames());
+	}
+
+	@Test
+	public void testSparkline() {
+		LOGGER.info("sparkline");
+		for (int i = 1; i <= 20; i++) {
+			sample(i * 10, i > 10 ? State.LOCKED : State.FREE, null);
+		}
+		// the first half of the window was before the first sample
+		assertEquals("  \u2581\u2588", history.getSparkline("r1", 4));
+		assertEquals("    ", history.getSparkline("r3", 4));
+	}
+}
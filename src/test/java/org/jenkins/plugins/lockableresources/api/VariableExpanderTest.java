@@ -0,0 +1,80 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.api;
+
+import hudson.EnvVars;
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.jenkins.plugins.lockableresources.queue.VariableExpander;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the expansion of variables in resource names, no Jenkins instance needed.
+ */
+public class VariableExpanderTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(VariableExpanderTest.class.getName());
+
+	public VariableExpanderTest() {
+		super();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+	}
+
+	@Test
+	public void testEmbeddedAndSplit() {
+		LOGGER.info("embeddedAndSplit");
+		EnvVars env = new EnvVars();
+		env.put("BOARD", "imx6");
+		env.put("BOARDS", "%BOARD% ${BOARD}_b $BOARD.c");
+		assertEquals("dut-imx6-1", VariableExpander.expand("dut-${BOARD}-1", env));
+		assertEquals(Arrays.asList("imx6", "imx6_b", "imx6.c", "r1"),
+				new ArrayList<>(VariableExpander.expandAll(Arrays.asList("${BOARDS}", "r1 %BOARD%"), env)));
+		assertEquals("$-${UNKNOWN}x${", VariableExpander.expand("$-${UNKNOWN}x${", env));
+	}
+
+	@Test
+	public void testMemoizedPerValues() {
+		LOGGER.info("memoizedPerValues");
+		EnvVars env = new EnvVars();
+		env.put("A", "${B}");
+		env.put("B", "one");
+		assertEquals("one", VariableExpander.expand("${A}", env));
+		env.put("B", "two");
+		assertEquals("two", VariableExpander.expand("${A}", env));
+		env.put("B", "one");
+		assertEquals("one", VariableExpander.expand("${A}", env));
+	}
+
+	@Test
+	public void testCycle() {
+		LOGGER.info("cycle");
+		EnvVars env = new EnvVars();
+		env.put("A", "x ${B}");
+		env.put("B", "%A%");
+		env.put("C", "c");
+		assertEquals("pre-${A}", VariableExpander.expand("pre-${A}", env));
+		assertEquals(Arrays.asList("${A}", "c"),
+				new ArrayList<>(VariableExpander.expandAll(Collections.singletonList("${A} ${C}"), env)));
+	}
+}
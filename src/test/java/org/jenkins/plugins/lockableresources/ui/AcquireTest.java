@@ -0,0 +1,180 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.ui;
+
+import com.gargoylesoftware.htmlunit.html.HtmlForm;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import org.jenkins.plugins.lockableresources.LockableResource;
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.jenkins.plugins.lockableresources.RequiredResourcesProperty;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the resources acquired outside of builds with {@code acquire}.
+ */
+public class AcquireTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(AcquireTest.class.getName());
+
+	private LockableResource r1;
+
+	public AcquireTest() {
+		super();
+		j = new JenkinsRule();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		r1 = new LockableResource(generateUniqueID(), "r1", "", "l1", "", null);
+		addTestResource(r1);
+		r1 = manager.fromName("r1");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+		clearTestResources();
+	}
+
+	private void waitForNoLockWaiter() throws InterruptedException {
+		for (int i = 0; i < 100 && manager.getLockWaiterCount() > 0; i++) {
+			Thread.sleep(50);
+		}
+		assertEquals(0, manager.getLockWaiterCount());
+	}
+
+	@Test
+	public void testAcquireFreeResource() throws Exception {
+		LOGGER.info("acquireFreeResource");
+		List<LockableResource> acquired = manager.acquire("l1", 1, "me", 0, TimeUnit.SECONDS).get(10, TimeUnit.SECONDS);
+		assertEquals(Collections.singletonList(r1), acquired);
+		assertEquals("me", r1.getReservedBy());
+		manager.unreserve(acquired);
+		assertFalse(r1.isReserved());
+	}
+
+	@Test
+	public void testAcquireWaitsUntilUnreserved() throws Exception {
+		LOGGER.info("acquireWaitsUntilUnreserved");
+		assertTrue(manager.reserve(Collections.singletonList(r1), "other"));
+		CompletableFuture<List<LockableResource>> future = manager.acquire("r1", 1, "me", 0, TimeUnit.SECONDS);
+		Thread.sleep(500);
+		assertFalse(future.isDone());
+		assertEquals(1, manager.getLockWaiterCount());
+
+		manager.unreserve(Collections.singletonList(r1));
+		assertEquals(Collections.singletonList(r1), future.get(10, TimeUnit.SECONDS));
+		assertEquals("me", r1.getReservedBy());
+		waitForNoLockWaiter();
+	}
+
+	@Test
+	public void testWaitersServedInOrder() throws Exception {
+		LOGGER.info("waitersServedInOrder");
+		assertTrue(manager.reserve(Collections.singletonList(r1), "other"));
+		CompletableFuture<List<LockableResource>> first = manager.acquire("r1", 1, "first", 0, TimeUnit.SECONDS);
+		CompletableFuture<List<LockableResource>> second = manager.acquire("r1", 1, "second", 0, TimeUnit.SECONDS);
+
+		manager.unreserve(Collections.singletonList(r1));
+		first.get(10, TimeUnit.SECONDS);
+		assertEquals("first", r1.getReservedBy());
+		Thread.sleep(500);
+		assertFalse(second.isDone());
+
+		manager.unreserve(first.get());
+		second.get(10, TimeUnit.SECONDS);
+		assertEquals("second", r1.getReservedBy());
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		LOGGER.info("timeout");
+		assertTrue(manager.reserve(Collections.singletonList(r1), "other"));
+		CompletableFuture<List<LockableResource>> future = manager.acquire("r1", 1, "me", 200, TimeUnit.MILLISECONDS);
+		try {
+			future.get(10, TimeUnit.SECONDS);
+			fail("acquired a reserved resource");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		waitForNoLockWaiter();
+
+		manager.unreserve(Collections.singletonList(r1));
+		Thread.sleep(500);
+		assertFalse(r1.isReserved());
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		LOGGER.info("cancel");
+		assertTrue(manager.reserve(Collections.singletonList(r1), "other"));
+		CompletableFuture<List<LockableResource>> future = manager.acquire("r1", 1, "me", 0, TimeUnit.SECONDS);
+		assertTrue(future.cancel(true));
+		waitForNoLockWaiter();
+
+		manager.unreserve(Collections.singletonList(r1));
+		Thread.sleep(500);
+		assertFalse(r1.isReserved());
+	}
+
+	@Test
+	public void testGroovyExpressionRejected() throws Exception {
+		LOGGER.info("groovyExpressionRejected");
+		CompletableFuture<List<LockableResource>> future = manager.acquire("groovy:true", 1, "me", 0, TimeUnit.SECONDS);
+		assertTrue(future.isCompletedExceptionally());
+		try {
+			future.get();
+			fail("acquired with a groovy expression");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+		assertEquals(0, manager.getLockWaiterCount());
+	}
+
+	@Test
+	public void testWaitsBehindAgedQueueItem() throws Exception {
+		LOGGER.info("waitsBehindAgedQueueItem");
+		HtmlForm form = j.createWebClient().goTo("lockable-resources-manager").getFormByName("config");
+		form.getInputByName("_.waitQueueAgingSeconds").setValueAttribute("1");
+		j.submit(form);
+		r1 = manager.fromName("r1");
+
+		assertTrue(manager.reserve(Collections.singletonList(r1), "other"));
+		FreeStyleProject project = j.createFreeStyleProject();
+		project.addProperty(new RequiredResourcesProperty(Collections.singletonList(
+				new RequiredResourcesProperty.Resource("ID1", "r1", "1", "", "", false))));
+		Future<FreeStyleBuild> build = project.scheduleBuild2(0);
+		// let the queue item wait longer than the aging threshold
+		Thread.sleep(2000);
+		CompletableFuture<List<LockableResource>> future = manager.acquire("r1", 1, "me", 0, TimeUnit.SECONDS);
+		AtomicBoolean builtBefore = new AtomicBoolean();
+		future.whenComplete((result, failure) -> builtBefore.set(project.getLastBuild() != null));
+
+		manager.unreserve(Collections.singletonList(r1));
+		build.get(60, TimeUnit.SECONDS);
+		future.get(30, TimeUnit.SECONDS);
+		assertTrue("the waiter got the resource before the older queue item", builtBefore.get());
+		assertEquals("me", manager.fromName("r1").getReservedBy());
+	}
+}
@@ -0,0 +1,120 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.ui;
+
+import com.gargoylesoftware.htmlunit.FailingHttpStatusCodeException;
+import com.gargoylesoftware.htmlunit.WebRequestSettings;
+import hudson.model.FreeStyleProject;
+import hudson.model.Job;
+import hudson.model.Queue;
+import hudson.security.ACL;
+import hudson.security.AuthorizationStrategy;
+import hudson.security.Permission;
+import jenkins.model.Jenkins;
+import org.acegisecurity.Authentication;
+import org.jenkins.plugins.lockableresources.LockableResource;
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.jenkins.plugins.lockableresources.RequiredResourcesProperty;
+import org.jenkins.plugins.lockableresources.queue.LockableResourcesQueueTaskDispatcher.BecauseResourcesLocked;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the blockage reports of queue items are only served to users who can read their job.
+ */
+public class BlockageReportAccessTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(BlockageReportAccessTest.class.getName());
+
+	public BlockageReportAccessTest() {
+		super();
+		j = new JenkinsRule();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		addTestResource(new LockableResource(generateUniqueID(), "r1", "", "", "", null));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+		clearTestResources();
+	}
+
+	/**
+	 * Everybody can read Jenkins, only {@code admin} can read the jobs.
+	 */
+	private static class JobsReadByAdmin extends AuthorizationStrategy {
+
+		private static ACL acl(final boolean jenkinsReadable) {
+			return new ACL() {
+				@Override
+				public boolean hasPermission(Authentication a, Permission permission) {
+					return a == SYSTEM || "admin".equals(a.getName()) || (jenkinsReadable && permission == Jenkins.READ);
+				}
+			};
+		}
+
+		@Override
+		public ACL getRootACL() {
+			return acl(true);
+		}
+
+		@Override
+		public ACL getACL(Job<?, ?> project) {
+			return acl(false);
+		}
+
+		@Override
+		public Collection<String> getGroups() {
+			return Collections.emptySet();
+		}
+	}
+
+	@Test
+	public void testReportNeedsReadOnTheJob() throws Exception {
+		LOGGER.info("reportNeedsReadOnTheJob");
+		LockableResource r1 = manager.fromName("r1");
+		assertTrue(manager.reserve(Collections.singletonList(r1), "someone"));
+		FreeStyleProject project = j.createFreeStyleProject();
+		project.addProperty(new RequiredResourcesProperty(Collections.singletonList(
+				new RequiredResourcesProperty.Resource("ID1", "r1", "1", "", "", false))));
+		project.scheduleBuild2(0);
+		Queue.Item item = project.getQueueItem();
+		assertNotNull(item);
+		long id = item.getId();
+		for (int i = 0; i < 100 && !(Queue.getInstance().getItem(id).getCauseOfBlockage() instanceof BecauseResourcesLocked); i++) {
+			Thread.sleep(100);
+		}
+		assertTrue(Queue.getInstance().getItem(id).getCauseOfBlockage() instanceof BecauseResourcesLocked);
+
+		j.jenkins.setSecurityRealm(j.createDummySecurityRealm());
+		j.jenkins.setAuthorizationStrategy(new JobsReadByAdmin());
+		URL url = new URL(j.getURL(), "lockable-resources/blockage?id=" + id);
+		j.createWebClient().login("admin").getPage(new WebRequestSettings(url));
+		try {
+			j.createWebClient().login("alice").getPage(new WebRequestSettings(url));
+			fail("served the blockage of a job alice cannot read");
+		} catch (FailingHttpStatusCodeException e) {
+			assertEquals(404, e.getStatusCode());
+		}
+
+		Queue.getInstance().cancel(Queue.getInstance().getItem(id));
+		manager.unreserve(Collections.singletonList(r1));
+	}
+}
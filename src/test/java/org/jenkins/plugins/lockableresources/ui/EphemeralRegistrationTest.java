@@ -0,0 +1,115 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.ui;
+
+import com.gargoylesoftware.htmlunit.FailingHttpStatusCodeException;
+import com.gargoylesoftware.htmlunit.HttpMethod;
+import com.gargoylesoftware.htmlunit.WebRequestSettings;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import org.jenkins.plugins.lockableresources.LockableResource;
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.jenkins.plugins.lockableresources.RequiredResourcesProperty;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the registration of ephemeral resources, and of what is left of them once deregistered.
+ */
+public class EphemeralRegistrationTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(EphemeralRegistrationTest.class.getName());
+
+	public EphemeralRegistrationTest() {
+		super();
+		j = new JenkinsRule();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+		clearTestResources();
+	}
+
+	@Test
+	public void testRegisterNameWithWhitespace() throws Exception {
+		LOGGER.info("registerNameWithWhitespace");
+		URL url = new URL(j.getURL(), "lockable-resources/register?name=device%091");
+		try {
+			j.createWebClient().getPage(new WebRequestSettings(url, HttpMethod.POST));
+			fail("registered a name with whitespace");
+		} catch (FailingHttpStatusCodeException e) {
+			assertEquals(400, e.getStatusCode());
+		}
+		assertNull(manager.fromName("device\t1"));
+		assertTrue(manager.getResources().isEmpty());
+	}
+
+	@Test
+	public void testDeregisterForgetsHistory() throws Exception {
+		LOGGER.info("deregisterForgetsHistory");
+		assertTrue(manager.registerEphemeral(new LockableResource(generateUniqueID(), "device-1", "",
+				"device-only", "", null)));
+		FreeStyleProject project = j.createFreeStyleProject();
+		project.addProperty(new RequiredResourcesProperty(Collections.singletonList(
+				new RequiredResourcesProperty.Resource("ID1", "device-1", "1", "", "", false))));
+		project.scheduleBuild2(0).get();
+		Map<String, Long> typicals = manager.getTypicalHoldTimes();
+		assertTrue(typicals.containsKey("device-1"));
+		assertTrue(typicals.containsKey("device-only"));
+
+		assertTrue(manager.deregisterEphemeral("device-1"));
+		assertNull(manager.fromName("device-1"));
+		typicals = manager.getTypicalHoldTimes();
+		assertFalse(typicals.containsKey("device-1"));
+		assertFalse(typicals.containsKey("device-only"));
+		assertTrue(manager.getResourcesWithLabel("device-only").isEmpty());
+	}
+
+	@Test
+	public void testImportOverHeldEphemeral() throws Exception {
+		LOGGER.info("importOverHeldEphemeral");
+		assertTrue(manager.registerEphemeral(new LockableResource(generateUniqueID(), "device-1", "", "", "", null)));
+		assertTrue(manager.registerEphemeral(new LockableResource(generateUniqueID(), "device-2", "", "", "", null)));
+		FreeStyleBuild build = j.createFreeStyleProject().scheduleBuild2(0).get();
+		assertTrue(manager.lock(Collections.singleton("device-1"), build));
+		long lockedAt = manager.fromName("device-1").getLockedAt();
+		assertTrue(manager.reserve(Collections.singletonList(manager.fromName("device-2")), "someone"));
+
+		manager.importResources(Arrays.asList(
+				new LockableResource(generateUniqueID(), "device-1", "configured", "", "", null),
+				new LockableResource(generateUniqueID(), "device-2", "configured", "", "", null)), false, false);
+		LockableResource device1 = manager.fromName("device-1");
+		assertFalse(device1.isEphemeral());
+		assertEquals("configured", device1.getDescription());
+		assertSame("The lock is kept", build, device1.getBuild());
+		assertEquals(lockedAt, device1.getLockedAt());
+		FreeStyleBuild other = j.createFreeStyleProject().scheduleBuild2(0).get();
+		assertFalse("Not given to another build", manager.lock(Collections.singleton("device-1"), other));
+		assertEquals("The reservation is kept", "someone", manager.fromName("device-2").getReservedBy());
+
+		manager.unlock(manager.getResourcesFromBuild(build), build);
+		assertFalse("The holder releases the configured resource", manager.fromName("device-1").isLocked());
+		assertTrue(manager.lock(Collections.singleton("device-1"), other));
+		manager.unlock(manager.getResourcesFromBuild(other), other);
+	}
+}
@@ -0,0 +1,124 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.ui;
+
+import hudson.EnvVars;
+import hudson.model.FreeStyleProject;
+import org.jenkins.plugins.lockableresources.LockableResource;
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.jenkins.plugins.lockableresources.RequiredResourcesProperty;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.jvnet.hudson.test.CaptureEnvironmentBuilder;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the resources of folders, seen by the jobs of the folder only.
+ */
+public class FolderPartitionTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(FolderPartitionTest.class.getName());
+
+	public FolderPartitionTest() {
+		super();
+		j = new JenkinsRule();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		addTestResources(
+				resource("g1", "pool global-only", null),
+				resource("a1", "pool", "teamA"),
+				resource("a2", "teamA-only", "teamA"),
+				resource("b1", "pool", "teamB"));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+		clearTestResources();
+	}
+
+	private static LockableResource resource(String name, String labels, String scope) {
+		LockableResource r = new LockableResource(generateUniqueID(), name, "", labels, "", null);
+		r.setScope(scope);
+		return r;
+	}
+
+	private static List<String> names(List<LockableResource> resources) {
+		List<String> names = new ArrayList<>();
+		for (LockableResource r : resources) {
+			names.add(r.getName());
+		}
+		return names;
+	}
+
+	@Test
+	public void testResolveInFolder() throws Exception {
+		LOGGER.info("resolveInFolder");
+		assertNotNull(manager.fromName("a1", "teamA/job"));
+		assertNotNull("Nested folders see the resources of their parents", manager.fromName("a1", "teamA/sub/job"));
+		assertNotNull("Global resources are seen from folders", manager.fromName("g1", "teamA/job"));
+		assertEquals(Collections.singletonList("a2"), names(manager.getResourcesWithLabel("teamA-only", "teamA/job")));
+		assertEquals(Collections.singletonList("g1"), names(manager.getResourcesWithLabel("global-only", "teamA/job")));
+		assertEquals(Collections.singletonList("a2"),
+				names(manager.getResourcesForLabelExpression("expr:teamA-only || global-only", new EnvVars(), "teamA/job")));
+	}
+
+	@Test
+	public void testFolderShadowsGlobal() throws Exception {
+		LOGGER.info("folderShadowsGlobal");
+		assertEquals(Collections.singletonList("a1"), names(manager.getResourcesWithLabel("pool", "teamA/job")));
+		assertEquals(Collections.singletonList("a1"),
+				names(manager.getResourcesWithLabels("label:pool", new EnvVars(), "teamA/job")));
+		assertEquals(Collections.singletonList("g1"), names(manager.getResourcesWithLabel("pool", "other/job")));
+		assertEquals(Collections.singletonList("g1"), names(manager.getResourcesWithLabel("pool", "job")));
+		// without a job, all resources
+		assertEquals(Arrays.asList("g1", "a1", "b1"), names(manager.getResourcesWithLabel("pool")));
+	}
+
+	@Test
+	public void testFoldersIsolated() throws Exception {
+		LOGGER.info("foldersIsolated");
+		assertNull(manager.fromName("b1", "teamA/job"));
+		assertNull(manager.fromName("a1", "teamB/job"));
+		assertNull("A folder is not the prefix of another", manager.fromName("a1", "teamA2/job"));
+		assertNull(manager.fromName("a1", "job"));
+		assertTrue(manager.getResourcesWithLabel("teamA-only", "teamB/job").isEmpty());
+		assertEquals(Collections.singletonList("b1"), names(manager.getResourcesWithLabel("pool", "teamB/job")));
+	}
+
+	@Test
+	public void testBuildInFolder() throws Exception {
+		LOGGER.info("buildInFolder");
+		MockFolder teamA = j.createFolder("teamA");
+		MockFolder teamB = j.createFolder("teamB");
+		assertEquals("a1", lockedBy(teamA.createProject(FreeStyleProject.class, "job"), "pool"));
+		assertEquals("b1", lockedBy(teamB.createProject(FreeStyleProject.class, "job"), "pool"));
+		assertEquals("g1", lockedBy(j.createFreeStyleProject("job"), "pool"));
+	}
+
+	private String lockedBy(FreeStyleProject project, String required) throws Exception {
+		project.addProperty(new RequiredResourcesProperty(Collections.singletonList(
+				new RequiredResourcesProperty.Resource("ID1", required, "1", "LOCKED", "", false))));
+		CaptureEnvironmentBuilder env = new CaptureEnvironmentBuilder();
+		project.getBuildersList().add(env);
+		project.scheduleBuild2(0).get();
+		return env.getEnvVars().get("LOCKED");
+	}
+}
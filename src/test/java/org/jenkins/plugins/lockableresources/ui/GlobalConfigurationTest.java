@@ -0,0 +1,79 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.ui;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import org.jenkins.plugins.lockableresources.LockableResource;
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.jenkins.plugins.lockableresources.RequiredResourcesProperty;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.Collections;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that submitting the global configuration keeps the state of the resources.
+ */
+public class GlobalConfigurationTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(GlobalConfigurationTest.class.getName());
+
+	public GlobalConfigurationTest() {
+		super();
+		j = new JenkinsRule();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		addTestResource(new LockableResource(generateUniqueID(), "r1", "d1", "l1", "", null));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+		clearTestResources();
+	}
+
+	@Test
+	public void testStateSurvivesConfigurationSave() throws Exception {
+		LOGGER.info("stateSurvivesConfigurationSave");
+		FreeStyleProject project = j.createFreeStyleProject();
+		project.addProperty(new RequiredResourcesProperty(Collections.singletonList(
+				new RequiredResourcesProperty.Resource("ID1", "r1", "1", "", "", false))));
+		FreeStyleBuild build = project.scheduleBuild2(0).get();
+		LockableResource r1 = manager.fromName("r1");
+		long lastReleased = r1.getLastReleased();
+		long totalHeld = r1.getTotalHeldMillis();
+		assertTrue("r1 was never released", lastReleased > 0);
+
+		// lock it again as if the build was still running
+		assertTrue(manager.lock(Collections.singleton("r1"), build));
+		long lockedAt = r1.getLockedAt();
+		long leaseRenewed = r1.getLeaseRenewed();
+		Thread.sleep(20);
+
+		j.submit(j.createWebClient().goTo("lockable-resources-manager").getFormByName("config"));
+		LockableResource after = manager.fromName("r1");
+		assertEquals("d1", after.getDescription());
+		assertSame(build, after.getBuild());
+		assertEquals(lastReleased, after.getLastReleased());
+		assertEquals(totalHeld, after.getTotalHeldMillis());
+		assertEquals(lockedAt, after.getLockedAt());
+		assertEquals(leaseRenewed, after.getLeaseRenewed());
+
+		manager.unlock(Collections.singletonList(after), build);
+		assertFalse(after.isLocked());
+		assertTrue(after.getTotalHeldMillis() >= totalHeld + 20);
+	}
+}
@@ -0,0 +1,117 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.ui;
+
+import hudson.EnvVars;
+import org.jenkins.plugins.lockableresources.InventoryDiff;
+import org.jenkins.plugins.lockableresources.LockableResource;
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that importing resources keeps the caches in step without rebuilding them.
+ */
+public class ImportResourcesTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(ImportResourcesTest.class.getName());
+
+	public ImportResourcesTest() {
+		super();
+		j = new JenkinsRule();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		addTestResources(
+				new LockableResource(generateUniqueID(), "r1", "", "l1", "", null),
+				new LockableResource(generateUniqueID(), "r2", "", "l1 l2", "", null),
+				new LockableResource(generateUniqueID(), "r3", "", "l3", "", null));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+		clearTestResources();
+	}
+
+	private static LockableResource resource(String name, String labels) {
+		return new LockableResource(generateUniqueID(), name, "", labels, "", null);
+	}
+
+	@Test
+	public void testCachesFollowImport() throws Exception {
+		LOGGER.info("cachesFollowImport");
+		LockableResource r2 = manager.fromName("r2");
+		InventoryDiff diff = manager.importResources(Arrays.asList(
+				resource("r1", "l1"), resource("r2", "l2 l4"), resource("r4", "l1")), true, false);
+		assertEquals("[r4]", diff.getAddedNames().toString());
+		assertEquals("[r2]", diff.getChangedNames().toString());
+		assertEquals("[r3]", diff.getRemovedNames().toString());
+
+		assertSame(r2, manager.fromName("r2"));
+		assertNull(manager.fromName("r3"));
+		assertEquals(Arrays.asList("r1", "r4"), names(manager.getResourcesWithLabel("l1")));
+		assertEquals(Collections.singletonList("r2"), names(manager.getResourcesWithLabel("l4")));
+		assertTrue(manager.getResourcesWithLabel("l3").isEmpty());
+		assertEquals(Collections.singletonList("r2"), names(manager.getResourcesWithLabels("l2 && l4", new EnvVars())));
+
+		// the caches are the ones a full rebuild gives
+		manager.load();
+		assertEquals(Arrays.asList("r1", "r4"), names(manager.getResourcesWithLabel("l1")));
+		assertEquals(Collections.singletonList("r2"), names(manager.getResourcesWithLabel("l4")));
+	}
+
+	@Test
+	public void testChangedKeepConfigurationOrder() throws Exception {
+		LOGGER.info("changedKeepConfigurationOrder");
+		manager.importResources(Arrays.asList(
+				resource("r1", "l1 l3"), resource("r2", "l1 l2"), resource("r3", "l3")), false, false);
+		assertEquals(Arrays.asList("r1", "r2"), names(manager.getResourcesWithLabel("l1")));
+		assertEquals("A new label is inserted in configuration order",
+				Arrays.asList("r1", "r3"), names(manager.getResourcesWithLabel("l3")));
+		assertEquals(Arrays.asList("r1", "r3"), names(manager.getResourcesWithLabel("l3", "job")));
+		assertEquals(Arrays.asList("r1", "r2", "r3"),
+				names(manager.getResourcesForLabelExpression("expr:l1 || l3", new EnvVars(), "job")));
+
+		// the order a full rebuild gives
+		manager.load();
+		assertEquals(Arrays.asList("r1", "r2"), names(manager.getResourcesWithLabel("l1")));
+		assertEquals(Arrays.asList("r1", "r3"), names(manager.getResourcesWithLabel("l3")));
+	}
+
+	@Test
+	public void testImportReplacesEphemeral() throws Exception {
+		LOGGER.info("importReplacesEphemeral");
+		assertTrue(manager.registerEphemeral(resource("e1", "l5")));
+		manager.importResources(Collections.singletonList(resource("e1", "l6")), false, false);
+		LockableResource e1 = manager.fromName("e1");
+		assertFalse(e1.isEphemeral());
+		assertTrue(manager.getResourcesWithLabel("l5").isEmpty());
+		assertEquals(Collections.singletonList(e1), manager.getResourcesWithLabel("l6"));
+		assertFalse(manager.deregisterEphemeral("e1"));
+	}
+
+	private static List<String> names(List<LockableResource> resources) {
+		List<String> names = new ArrayList<>();
+		for (LockableResource r : resources) {
+			names.add(r.getName());
+		}
+		return names;
+	}
+}
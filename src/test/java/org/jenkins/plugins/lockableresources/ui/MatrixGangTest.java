@@ -0,0 +1,166 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.ui;
+
+import hudson.Launcher;
+import hudson.matrix.AxisList;
+import hudson.matrix.MatrixBuild;
+import hudson.matrix.MatrixProject;
+import hudson.matrix.MatrixRun;
+import hudson.matrix.TextAxis;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Result;
+import hudson.model.Run;
+import org.jenkins.plugins.lockableresources.LockableResource;
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.jenkins.plugins.lockableresources.RequiredResourcesProperty;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the resources of matrix builds, locked by each configuration or by the whole matrix at once.
+ */
+public class MatrixGangTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(MatrixGangTest.class.getName());
+
+	/**
+	 * What each configuration saw when it ran, by configuration name.
+	 */
+	private final Map<String, Seen> seen = new ConcurrentHashMap<>();
+
+	private static final class Seen {
+		final long start;
+		final long end;
+		final String locked;
+		final Map<String, String> holders;
+
+		Seen(long start, long end, String locked, Map<String, String> holders) {
+			this.start = start;
+			this.end = end;
+			this.locked = locked;
+			this.holders = holders;
+		}
+	}
+
+	public MatrixGangTest() {
+		super();
+		j = new JenkinsRule();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+		clearTestResources();
+	}
+
+	private MatrixProject createMatrix(boolean gang) throws IOException {
+		MatrixProject project = j.jenkins.createProject(MatrixProject.class, "matrix" + (gang ? "-gang" : ""));
+		project.setAxes(new AxisList(new TextAxis("X", "a", "b")));
+		RequiredResourcesProperty property = new RequiredResourcesProperty(Collections.singletonList(
+				new RequiredResourcesProperty.Resource("ID1", "pool", "1", "LOCKED", "", false)));
+		property.setMatrixGangAllocation(gang);
+		project.addProperty(property);
+		project.getBuildersList().add(new TestBuilder() {
+			@Override
+			public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+					throws InterruptedException, IOException {
+				long start = System.currentTimeMillis();
+				// the builds holding the resources, by id as builds may be loaded again
+				Map<String, String> holders = new HashMap<>();
+				for (LockableResource r : manager.getResourcesWithLabel("pool")) {
+					Run<?, ?> holder = r.getBuild();
+					holders.put(r.getName(), holder == null ? null : holder.getExternalizableId());
+				}
+				String locked = build.getEnvironment(listener).get("LOCKED");
+				// long enough for the configurations to overlap if they can
+				Thread.sleep(2000);
+				seen.put(build.getParent().getName(), new Seen(start, System.currentTimeMillis(), locked, holders));
+				return true;
+			}
+		});
+		return project;
+	}
+
+	@Test
+	public void testGangStartsAndReleasesTogether() throws Exception {
+		LOGGER.info("gangStartsAndReleasesTogether");
+		addTestResources(
+				new LockableResource(generateUniqueID(), "res1", "", "pool", "", null),
+				new LockableResource(generateUniqueID(), "res2", "", "pool", "", null));
+		MatrixProject project = createMatrix(true);
+		MatrixBuild build = project.scheduleBuild2(0).get();
+		j.assertBuildStatus(Result.SUCCESS, build);
+		assertEquals(2, seen.size());
+
+		Set<String> locked = new HashSet<>();
+		long lastEnd = 0;
+		for (Seen s : seen.values()) {
+			// the matrix build held both resources while any configuration ran
+			assertEquals(build.getExternalizableId(), s.holders.get("res1"));
+			assertEquals(build.getExternalizableId(), s.holders.get("res2"));
+			locked.add(s.locked);
+			lastEnd = Math.max(lastEnd, s.end);
+		}
+		assertEquals("Each configuration got its own resource", new HashSet<>(Arrays.asList("res1", "res2")), locked);
+		Iterator<Seen> it = seen.values().iterator();
+		Seen first = it.next();
+		Seen second = it.next();
+		assertTrue("The configurations ran at the same time", first.start < second.end && second.start < first.end);
+
+		LockableResource res1 = manager.fromName("res1");
+		LockableResource res2 = manager.fromName("res2");
+		assertFalse(res1.isLocked());
+		assertFalse(res2.isLocked());
+		assertTrue("Released after the last configuration", res1.getLastReleased() >= lastEnd);
+		assertTrue("Released after the last configuration", res2.getLastReleased() >= lastEnd);
+		assertTrue("Released together", Math.abs(res1.getLastReleased() - res2.getLastReleased()) < 1000);
+		for (MatrixRun run : build.getExactRuns()) {
+			j.assertBuildStatus(Result.SUCCESS, run);
+		}
+	}
+
+	@Test
+	public void testWithoutGangConfigurationsLockOnTheirOwn() throws Exception {
+		LOGGER.info("withoutGangConfigurationsLockOnTheirOwn");
+		addTestResource(new LockableResource(generateUniqueID(), "res1", "", "pool", "", null));
+		MatrixProject project = createMatrix(false);
+		MatrixBuild build = project.scheduleBuild2(0).get();
+		j.assertBuildStatus(Result.SUCCESS, build);
+		assertEquals(2, seen.size());
+
+		List<MatrixRun> runs = build.getExactRuns();
+		assertEquals(2, runs.size());
+		for (MatrixRun run : runs) {
+			Seen s = seen.get(run.getParent().getName());
+			assertEquals("res1", s.locked);
+			// the configuration locked the resource itself, not the matrix build
+			assertEquals(run.getExternalizableId(), s.holders.get("res1"));
+		}
+		Iterator<Seen> it = seen.values().iterator();
+		Seen first = it.next();
+		Seen second = it.next();
+		assertTrue("The configurations waited for each other", first.end <= second.start || second.end <= first.start);
+		assertFalse(manager.fromName("res1").isLocked());
+	}
+}
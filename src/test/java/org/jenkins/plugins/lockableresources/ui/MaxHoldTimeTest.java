@@ -0,0 +1,121 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.ui;
+
+import com.gargoylesoftware.htmlunit.html.HtmlForm;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import org.jenkins.plugins.lockableresources.LockableResource;
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.jenkins.plugins.lockableresources.RequiredResourcesProperty;
+import org.jenkins.plugins.lockableresources.metrics.ReclaimLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the locks of a hung build are reclaimed once held longer than the maximum hold time.
+ */
+public class MaxHoldTimeTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(MaxHoldTimeTest.class.getName());
+
+	private final CountDownLatch started = new CountDownLatch(1);
+	private final CountDownLatch finish = new CountDownLatch(1);
+
+	public MaxHoldTimeTest() {
+		super();
+		j = new JenkinsRule();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		addTestResource(new LockableResource(generateUniqueID(), "r1", "", "", "", null));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		finish.countDown();
+		super.tearDown();
+		clearTestResources();
+	}
+
+	private Future<FreeStyleBuild> startHungBuild() throws Exception {
+		FreeStyleProject project = j.createFreeStyleProject();
+		project.addProperty(new RequiredResourcesProperty(Collections.singletonList(
+				new RequiredResourcesProperty.Resource("ID1", "r1", "1", "", "", false))));
+		project.getBuildersList().add(new TestBuilder() {
+			@Override
+			public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+					throws InterruptedException, IOException {
+				started.countDown();
+				finish.await();
+				return true;
+			}
+		});
+		Future<FreeStyleBuild> build = project.scheduleBuild2(0);
+		assertTrue(started.await(60, TimeUnit.SECONDS));
+		return build;
+	}
+
+	@Test
+	public void testHungBuildReclaimed() throws Exception {
+		LOGGER.info("hungBuildReclaimed");
+		HtmlForm form = j.createWebClient().goTo("lockable-resources-manager").getFormByName("config");
+		form.getInputByName("_.maxHoldSeconds").setValueAttribute("1");
+		j.submit(form);
+		assertEquals(1, manager.getMaxHoldSeconds());
+		assertEquals("Applies without leases", 0, manager.getLeaseSeconds());
+
+		Future<FreeStyleBuild> build = startHungBuild();
+		assertTrue(manager.fromName("r1").isLocked());
+		manager.checkLeases();
+		assertTrue("Not held long enough yet", manager.fromName("r1").isLocked());
+		Thread.sleep(1500);
+		manager.checkLeases();
+		assertFalse("Reclaimed while the build still runs", manager.fromName("r1").isLocked());
+		ReclaimLog.Entry entry = manager.getReclaimLog().getEntries().get(0);
+		assertEquals("r1", entry.getResource());
+		assertTrue(entry.getHeldMillis() >= 1000);
+
+		// another build may take it, the hung one no longer releases it once done
+		assertTrue(manager.reserve(Collections.singletonList(manager.fromName("r1")), "other"));
+		finish.countDown();
+		j.assertBuildStatus(Result.SUCCESS, build.get(60, TimeUnit.SECONDS));
+		assertEquals("other", manager.fromName("r1").getReservedBy());
+	}
+
+	@Test
+	public void testNoMaximumByDefault() throws Exception {
+		LOGGER.info("noMaximumByDefault");
+		assertEquals(0, manager.getMaxHoldSeconds());
+		Future<FreeStyleBuild> build = startHungBuild();
+		Thread.sleep(1500);
+		manager.checkLeases();
+		assertTrue(manager.fromName("r1").isLocked());
+		assertEquals(0, manager.getReclaimLog().getReclaimedCount());
+		finish.countDown();
+		j.assertBuildStatus(Result.SUCCESS, build.get(60, TimeUnit.SECONDS));
+		assertFalse(manager.fromName("r1").isLocked());
+	}
+}
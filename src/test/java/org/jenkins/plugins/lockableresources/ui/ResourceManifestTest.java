@@ -0,0 +1,123 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.ui;
+
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleProject;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+import org.jenkins.plugins.lockableresources.Constants;
+import org.jenkins.plugins.lockableresources.LockableResource;
+import org.jenkins.plugins.lockableresources.LockableResourceProperty;
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.jenkins.plugins.lockableresources.RequiredResourcesProperty;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the JSON file describing the locked resources of a build.
+ */
+public class ResourceManifestTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(ResourceManifestTest.class.getName());
+
+	/**
+	 * The manifest variable and file content, as seen by the build.
+	 */
+	private final Map<String, String> seen = new ConcurrentHashMap<>();
+
+	public ResourceManifestTest() {
+		super();
+		j = new JenkinsRule();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		addTestResource(new LockableResource(generateUniqueID(), "r1", "d1", "l1 l2", "",
+				Collections.singletonList(new LockableResourceProperty("os", "linux"))));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+		clearTestResources();
+	}
+
+	private FreeStyleProject createProject(boolean manifest) throws IOException {
+		FreeStyleProject project = j.createFreeStyleProject();
+		RequiredResourcesProperty property = new RequiredResourcesProperty(Collections.singletonList(
+				new RequiredResourcesProperty.Resource("ID1", "r1", "1", "LOCKED", "", false)));
+		property.setResourceManifest(manifest);
+		project.addProperty(property);
+		project.getBuildersList().add(new TestBuilder() {
+			@Override
+			public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+					throws InterruptedException, IOException {
+				Map<String, String> env = build.getEnvironment(listener);
+				String path = env.get(Constants.MANIFEST_VARIABLE);
+				if (path != null) {
+					seen.put("path", path);
+					File file = new File(path);
+					if (file.isFile()) {
+						seen.put("content", FileUtils.readFileToString(file, "UTF-8"));
+					}
+				}
+				String locked = env.get("LOCKED");
+				if (locked != null) {
+					seen.put("locked", locked);
+				}
+				return true;
+			}
+		});
+		return project;
+	}
+
+	@Test
+	public void testManifestWrittenAndRemoved() throws Exception {
+		LOGGER.info("manifestWrittenAndRemoved");
+		createProject(true).scheduleBuild2(0).get();
+		assertEquals("The names of the resources are still exported", "r1", seen.get("locked"));
+		String path = seen.get("path");
+		assertNotNull("The path of the manifest is exported", path);
+		assertTrue(path, path.endsWith(Constants.MANIFEST_FILE));
+		assertTrue(path, new File(path).getParentFile().getName().endsWith("@tmp"));
+
+		assertNotNull("The manifest was written before the build steps", seen.get("content"));
+		JSONObject json = JSONObject.fromObject(seen.get("content"));
+		JSONObject resource = json.getJSONArray("resources").getJSONObject(0);
+		assertEquals("r1", resource.getString("name"));
+		assertEquals("d1", resource.getString("description"));
+		assertEquals("l1", resource.getJSONArray("labels").getString(0));
+		assertEquals("l2", resource.getJSONArray("labels").getString(1));
+		assertEquals("linux", resource.getJSONObject("properties").getString("os"));
+
+		assertFalse("The manifest is removed at the end of the build", new File(path).exists());
+	}
+
+	@Test
+	public void testNoManifestByDefault() throws Exception {
+		LOGGER.info("noManifestByDefault");
+		createProject(false).scheduleBuild2(0).get();
+		assertEquals("r1", seen.get("locked"));
+		assertNull(seen.get("path"));
+	}
+}
@@ -0,0 +1,75 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.ui;
+
+import hudson.util.FormValidation;
+import org.jenkins.plugins.lockableresources.LockableResource;
+import org.jenkins.plugins.lockableresources.LockableResourceProperty;
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.jenkins.plugins.lockableresources.RequiredResourcesProperty;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the validation of the number of resources a job requires.
+ */
+public class ResourceNumberValidationTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(ResourceNumberValidationTest.class.getName());
+
+	private RequiredResourcesProperty.DescriptorImpl descriptor;
+
+	public ResourceNumberValidationTest() {
+		super();
+		j = new JenkinsRule();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		addTestResources(
+				new LockableResource(generateUniqueID(), "r1", "", "l1", "", Arrays.asList(
+						new LockableResourceProperty("os", "linux"), new LockableResourceProperty("arch", "x86"))),
+				new LockableResource(generateUniqueID(), "r2", "", "l1", "", Collections.singletonList(
+						new LockableResourceProperty("os", "linux"))),
+				new LockableResource(generateUniqueID(), "r3", "", "l2", "", null));
+		descriptor = j.jenkins.getDescriptorByType(RequiredResourcesProperty.DescriptorImpl.class);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+		clearTestResources();
+	}
+
+	@Test
+	public void testPropertyExpression() throws Exception {
+		LOGGER.info("propertyExpression");
+		assertEquals(FormValidation.Kind.OK, descriptor.doCheckResourceNumber("2", "prop:os=linux").kind);
+		assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckResourceNumber("3", "prop:os=linux").kind);
+		assertEquals(FormValidation.Kind.OK, descriptor.doCheckResourceNumber("1", "prop:os=linux arch").kind);
+		assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckResourceNumber("2", "prop:os=linux arch").kind);
+		assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckResourceNumber("1", "prop:os=windows").kind);
+	}
+
+	@Test
+	public void testNamesAndLabels() throws Exception {
+		LOGGER.info("namesAndLabels");
+		assertEquals(FormValidation.Kind.OK, descriptor.doCheckResourceNumber("3", "l1 r3").kind);
+		assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckResourceNumber("4", "l1 r3").kind);
+		assertEquals(FormValidation.Kind.ERROR, descriptor.doCheckResourceNumber("x", "l1").kind);
+		assertEquals(FormValidation.Kind.OK, descriptor.doCheckResourceNumber("0", "l1").kind);
+	}
+}
@@ -0,0 +1,153 @@
+/* * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * *
+ * This file is part of the Jenkins Lockable Resources Plugin and is   *
+ * published under the MIT license.                                    *
+ *                                                                     *
+ * See the "LICENSE.txt" file for more information.                    *
+ * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * * */
+package org.jenkins.plugins.lockableresources.ui;
+
+import hudson.EnvVars;
+import hudson.model.FreeStyleProject;
+import hudson.model.Queue;
+import org.jenkins.plugins.lockableresources.LockableResource;
+import org.jenkins.plugins.lockableresources.LockableResourceTestBase;
+import org.jenkins.plugins.lockableresources.LockableResourcesManager;
+import org.jenkins.plugins.lockableresources.RequiredResourcesProperty;
+import org.jenkins.plugins.lockableresources.queue.LockableResourcesStruct;
+import org.jenkins.plugins.lockableresources.queue.Utils;
+import org.jenkins.plugins.lockableresources.store.LocalResourceStateStore;
+import org.jenkins.plugins.lockableresources.store.ResourceStateStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the round trips to the shared state store made by the manager.
+ */
+public class SharedStateStoreTest extends LockableResourceTestBase {
+
+	private static final Logger LOGGER = Logger.getLogger(SharedStateStoreTest.class.getName());
+
+	private CountingStore store;
+
+	public SharedStateStoreTest() {
+		super();
+		j = new JenkinsRule();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		addTestResource(new LockableResource(generateUniqueID(), "r1", "", "", "", null));
+		store = new CountingStore(manager);
+		manager.setStateStore(store);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		super.tearDown();
+		clearTestResources();
+	}
+
+	/**
+	 * Counts the round trips and records whether one was made holding the manager monitor.
+	 */
+	private static class CountingStore implements ResourceStateStore {
+		private final LockableResourcesManager manager;
+		private final ResourceStateStore local = new LocalResourceStateStore("local");
+		private final AtomicInteger acquired = new AtomicInteger();
+		private final AtomicInteger released = new AtomicInteger();
+		private final AtomicBoolean underMonitor = new AtomicBoolean();
+
+		CountingStore(LockableResourcesManager manager) {
+			this.manager = manager;
+		}
+
+		@Override
+		public String getControllerId() {
+			return local.getControllerId();
+		}
+
+		@Override
+		public boolean acquire(String resource, long leaseMillis) throws IOException {
+			underMonitor.compareAndSet(false, Thread.holdsLock(manager));
+			acquired.incrementAndGet();
+			return local.acquire(resource, leaseMillis);
+		}
+
+		@Override
+		public void release(String resource) throws IOException {
+			underMonitor.compareAndSet(false, Thread.holdsLock(manager));
+			released.incrementAndGet();
+			local.release(resource);
+		}
+
+		@Override
+		public String getHolder(String resource) throws IOException {
+			return local.getHolder(resource);
+		}
+
+		@Override
+		public Set<String> getHeldByOthers() throws IOException {
+			return local.getHeldByOthers();
+		}
+	}
+
+	private void waitForReleases(int count) throws InterruptedException {
+		for (int i = 0; i < 100 && store.released.get() < count; i++) {
+			Thread.sleep(100);
+		}
+		assertEquals(count, store.released.get());
+	}
+
+	@Test
+	public void testReserveOutsideOfTheMonitor() throws Exception {
+		LOGGER.info("reserveOutsideOfTheMonitor");
+		LockableResource r1 = manager.fromName("r1");
+		assertTrue(manager.reserve(Collections.singletonList(r1), "someone"));
+		assertEquals(1, store.acquired.get());
+		assertEquals("local", store.getHolder("r1"));
+		manager.unreserve(Collections.singletonList(r1));
+		waitForReleases(1);
+		assertNull(store.getHolder("r1"));
+		assertFalse("the store was used holding the manager monitor", store.underMonitor.get());
+	}
+
+	@Test
+	public void testRequeueKeepsLease() throws Exception {
+		LOGGER.info("requeueKeepsLease");
+		j.jenkins.setNumExecutors(0);
+		FreeStyleProject project = j.createFreeStyleProject();
+		project.addProperty(new RequiredResourcesProperty(Collections.singletonList(
+				new RequiredResourcesProperty.Resource("ID1", "r1", "1", "", "", false))));
+		project.scheduleBuild2(0);
+		Queue.Item item = project.getQueueItem();
+		assertNotNull(item);
+		ArrayList<LockableResourcesStruct> resources = new ArrayList<>(Utils.requiredResources(project, new EnvVars()));
+
+		// every dispatcher pass queues it again, waiting for an executor
+		for (int i = 0; i < 5; i++) {
+			assertNotNull(manager.queue(resources, item, project.getFullName()));
+		}
+		assertTrue(manager.fromName("r1").isQueuedByTask(item.getId()));
+		assertEquals("taken once", 1, store.acquired.get());
+		assertEquals(0, store.released.get());
+
+		Queue.getInstance().cancel(item);
+		waitForReleases(1);
+		assertFalse(manager.fromName("r1").isQueued());
+		assertNull(store.getHolder("r1"));
+		assertFalse("the store was used holding the manager monitor", store.underMonitor.get());
+	}
+}